@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the first listing of a folder, where every file needs to be hashed, with different numbers of hashing
+ * threads. The folder holds 64 files of 64 KB, 16 files of 1 MB and 4 files of 32 MB, about 148 MB in total.
+ * Run with: ./gradlew jmh -Pjmh.include=FileHashingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHashingBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path folder;
+    private FileSystemManagement management;
+
+    @Setup(Level.Trial)
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("file-hashing-benchmark");
+        final Random random = new Random(1);
+        writeFiles(random, "small", 64, 64 * 1024);
+        writeFiles(random, "medium", 16, 1024 * 1024);
+        writeFiles(random, "large", 4, 32 * 1024 * 1024);
+    }
+
+    /**
+     * Starts every listing without known hashes, as after the first boot.
+     */
+    @Setup(Level.Invocation)
+    public void forgetHashes() throws IOException {
+        Files.deleteIfExists(folder.resolve(FileSystemManagement.TRANSFER_DIRECTORY)
+                .resolve(FileSystemManagement.HASH_INDEX_FILE));
+        management = new FileSystemManagement(folder.toString());
+        management.setHashingParallelism(parallelism);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeManagement() {
+        management.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public List<?> listAllFiles() throws IOException {
+        return management.listAllFiles();
+    }
+
+    private void writeFiles(Random random, String prefix, int count, int size) throws IOException {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(data);
+            Files.write(folder.resolve(prefix + "-" + i + ".bin"), data);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wolkabout.wolk.model.Feed;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the feed values encoder with the map based serialization it replaced.
+ * Run with: ./gradlew jmh -Pjmh.include=FeedValuesEncoderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedValuesEncoderBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int feedCount;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final FeedValuesEncoder encoder = new FeedValuesEncoder();
+
+    private List<Feed> feeds;
+
+    @Setup
+    public void setUp() {
+        feeds = new ArrayList<>(feedCount);
+        for (int i = 0; i < feedCount; i++) {
+            switch (i % 4) {
+                case 0:
+                    feeds.add(new Feed("T", 20.0 + i % 10, 1000L + i / 4));
+                    break;
+                case 1:
+                    feeds.add(new Feed("C", (long) i, 1000L + i / 4));
+                    break;
+                case 2:
+                    feeds.add(new Feed("S", i % 3 == 0, 1000L + i / 4));
+                    break;
+                default:
+                    feeds.add(new Feed("N", "value-" + i, 1000L + i / 4));
+            }
+        }
+    }
+
+    /**
+     * The previous path: a map per timestamp, serialized to a string, then to bytes.
+     */
+    @Benchmark
+    public byte[] maps() throws Exception {
+        final HashMap<Long, Map<String, Object>> payloadByTime = new HashMap<>();
+        for (Feed feed : feeds) {
+            if (payloadByTime.containsKey(feed.getUtc())) {
+                final Map<String, Object> readingMap = payloadByTime.get(feed.getUtc());
+                if (!readingMap.containsKey(feed.getReference())) {
+                    readingMap.put(feed.getReference(), feed.getValues().size() > 1 ? feed.getValues() : feed.getValue());
+                }
+            } else {
+                final HashMap<String, Object> readingMap = new HashMap<>();
+                readingMap.put("utc", feed.getUtc());
+
+                readingMap.put(feed.getReference(), feed.getValues().size() > 1 ? feed.getValues() : feed.getValue());
+                payloadByTime.put(feed.getUtc(), readingMap);
+            }
+        }
+
+        return mapper.writeValueAsString(payloadByTime.values()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encoder() {
+        return encoder.encode(feeds);
+    }
+}
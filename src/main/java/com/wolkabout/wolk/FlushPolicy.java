@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk;
+
+import java.time.Duration;
+
+/**
+ * Decides when stored readings are published, see {@link Wolk#startPublishing(FlushPolicy)}.
+ * <p>
+ * Readings are published as soon as any trigger is hit: enough feeds were stored, their estimated size
+ * reached a limit, or the oldest of them has waited long enough. Nothing is published while the store is empty.
+ */
+public class FlushPolicy {
+
+    private final int maxFeeds;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private FlushPolicy(int maxFeeds, long maxBytes, long maxAgeMillis) {
+        this.maxFeeds = maxFeeds;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getMaxFeeds() {
+        return maxFeeds;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return True if the size of stored feeds has to be estimated for this policy.
+     */
+    boolean tracksBytes() {
+        return maxBytes != Long.MAX_VALUE;
+    }
+
+    public static class Builder {
+
+        private int maxFeeds = Integer.MAX_VALUE;
+        private long maxBytes = Long.MAX_VALUE;
+        private long maxAgeMillis = 60_000;
+
+        private Builder() {
+        }
+
+        /**
+         * Publishes once this many feeds were stored. Not used by default.
+         */
+        public Builder maxFeeds(int maxFeeds) {
+            if (maxFeeds <= 0) {
+                throw new IllegalArgumentException("Max feeds must be a positive number");
+            }
+
+            this.maxFeeds = maxFeeds;
+            return this;
+        }
+
+        /**
+         * Publishes once the estimated size of the stored feeds reaches this many bytes. Not used by default.
+         */
+        public Builder maxBytes(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Max bytes must be a positive number");
+            }
+
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Publishes once the oldest stored feed has waited this long. Defaults to one minute.
+         * Also the delay before retrying a publish that failed.
+         */
+        public Builder maxAge(Duration maxAge) {
+            if (maxAge == null || maxAge.isNegative() || maxAge.isZero()) {
+                throw new IllegalArgumentException("Max age must be a positive duration");
+            }
+
+            this.maxAgeMillis = maxAge.toMillis();
+            return this;
+        }
+
+        public FlushPolicy build() {
+            return new FlushPolicy(maxFeeds, maxBytes, maxAgeMillis);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the flush task whenever the {@link FlushPolicy} says so.
+ * <p>
+ * Stored feeds are counted as they are added, and the counters are reset when a flush starts. Flush requests
+ * made while one is already queued are merged, so at most one flush is waiting at any time.
+ */
+final class FlushScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlushScheduler.class);
+
+    private final FlushPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final Runnable flushTask;
+
+    private final AtomicInteger feeds = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    private volatile boolean running;
+    private ScheduledFuture<?> ageTimer;
+
+    /**
+     * @param scheduler Runs the age timer.
+     * @param executor  Runs the flush task.
+     * @param flushTask Publishes everything stored, throwing if it could not.
+     */
+    FlushScheduler(FlushPolicy policy, ScheduledExecutorService scheduler, Executor executor, Runnable flushTask) {
+        this.policy = policy;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.flushTask = flushTask;
+    }
+
+    FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts scheduling, with a flush right away for anything stored before.
+     */
+    void start() {
+        running = true;
+        requestFlush();
+    }
+
+    void stop() {
+        running = false;
+        cancelAgeTimer();
+    }
+
+    /**
+     * Records newly stored feeds, and flushes if a count or size trigger is hit.
+     *
+     * @param count Number of feeds stored.
+     * @param size  Their estimated size in bytes, only needed if the policy tracks bytes.
+     */
+    void added(int count, long size) {
+        if (!running || count == 0) {
+            return;
+        }
+
+        final int totalFeeds = feeds.addAndGet(count);
+        final long totalBytes = policy.tracksBytes() ? bytes.addAndGet(size) : 0;
+        if (totalFeeds >= policy.getMaxFeeds() || totalBytes >= policy.getMaxBytes()) {
+            requestFlush();
+        } else if (totalFeeds == count) {
+            // The first feeds since the last flush start the age timer.
+            armAgeTimer();
+        }
+    }
+
+    /**
+     * Flushes as soon as possible, unless a flush is already queued.
+     */
+    void requestFlush() {
+        if (running && queued.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        queued.set(false);
+        if (!running) {
+            return;
+        }
+
+        feeds.set(0);
+        bytes.set(0);
+        cancelAgeTimer();
+
+        try {
+            flushTask.run();
+        } catch (Exception e) {
+            LOG.info("Could not publish feeds, retrying in " + policy.getMaxAgeMillis() + " ms", e);
+            armAgeTimer();
+        }
+    }
+
+    private synchronized void armAgeTimer() {
+        if (!running || (ageTimer != null && !ageTimer.isDone())) {
+            return;
+        }
+
+        ageTimer = scheduler.schedule(this::requestFlush, policy.getMaxAgeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelAgeTimer() {
+        if (ageTimer != null) {
+            ageTimer.cancel(false);
+            ageTimer = null;
+        }
+    }
+}
@@ -16,10 +16,13 @@
  */
 package com.wolkabout.wolk;
 
+import com.wolkabout.wolk.persistence.MqttLogPersistence;
+import com.wolkabout.wolk.protocol.PipelinedMqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
 import javax.net.ssl.SSLContext;
@@ -91,7 +94,7 @@ public class MqttBuilder {
     private int connectionTimeout = 30;
 
     /**
-     * Max message inflight.
+     * Max message inflight. Also limits how many messages are published asynchronously at the same time.
      */
     private int maxInflight = 10;
 
@@ -150,6 +153,16 @@ public class MqttBuilder {
         return this;
     }
 
+    /**
+     * Sets the persistence for inflight MQTT messages.
+     * Besides the default {@link MqttDefaultFilePersistence}, which keeps and syncs every message in a separate file,
+     * {@link MqttLogPersistence} keeps them in a single log file that is not synced on every message,
+     * and paho's {@link MemoryPersistence} keeps them only in memory.
+     * Messages left in flight in a different persistence are not picked up after switching.
+     *
+     * @param mqttClientPersistence Persistence to use.
+     * @return this
+     */
     public MqttBuilder persistence(MqttClientPersistence mqttClientPersistence) {
         this.persistence = mqttClientPersistence;
         return this;
@@ -169,7 +182,7 @@ public class MqttBuilder {
     }
 
     public MqttClient client() throws MqttException {
-        return new MqttClient(host, deviceKey, persistence);
+        return new PipelinedMqttClient(host, deviceKey, persistence, maxInflight);
     }
 
     public MqttConnectOptions options() {
@@ -33,11 +33,14 @@ import com.wolkabout.wolk.persistence.InMemoryPersistence;
 import com.wolkabout.wolk.persistence.Persistence;
 import com.wolkabout.wolk.protocol.Protocol;
 import com.wolkabout.wolk.protocol.ProtocolType;
+import com.wolkabout.wolk.protocol.QosPolicy;
 import com.wolkabout.wolk.protocol.WolkaboutProtocol;
 import com.wolkabout.wolk.protocol.handler.ErrorHandler;
 import com.wolkabout.wolk.protocol.handler.FeedHandler;
 import com.wolkabout.wolk.protocol.handler.ParameterHandler;
 import com.wolkabout.wolk.protocol.handler.TimeHandler;
+import com.wolkabout.wolk.util.ExecutorProvider;
+import com.wolkabout.wolk.util.FeedSizeEstimator;
 import org.eclipse.paho.client.mqttv3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,8 +50,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -58,14 +60,21 @@ import static com.cronutils.model.field.expression.FieldExpressionFactory.*;
 /**
  * Handles the connection to the WolkAbout IoT Platform.
  */
-public class Wolk {
+public class Wolk implements AutoCloseable {
 
     public static final String WOLK_DEMO_URL = "ssl://insert_host:insert_port";
     public static final String WOLK_DEMO_CA = "/INSERT/PATH/TO/YOUR/CA.CRT/FILE";
     private static final Logger LOG = LoggerFactory.getLogger(Wolk.class);
-    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    private static final int PUBLISH_BATCH_SIZE = 1000;
+    private static final long PUBLISH_BATCH_BYTES = 512 * 1024;
     private OutboundDataMode mode;
     private ScheduledFuture<?> runningPublishTask;
+    /**
+     * Threads for publishing and the features. Shut down on close only if the instance created them.
+     */
+    private ExecutorProvider executorProvider;
+    private boolean ownsExecutorProvider;
+    private volatile FlushScheduler flushScheduler;
     /**
      * MQTT client.
      */
@@ -85,6 +94,7 @@ public class Wolk {
     private boolean fileTransferUrlEnabled;
     private FileManagementProtocol fileManagementProtocol;
     private FileSystemManagement fileSystemManagement;
+    private UrlFileDownloader urlFileDownloader;
     private Cron firmwareUpdateTime;
     private String firmwareUpdateRepository;
     private FirmwareUpdateProtocol firmwareUpdateProtocol;
@@ -97,6 +107,7 @@ public class Wolk {
      */
     private Persistence persistence;
     private int maxMessageSize;
+    private final List<Feed> publishBatch = new ArrayList<>();
     private final Runnable publishTask = this::publish;
 
     private boolean firstConnect = true;
@@ -150,6 +161,45 @@ public class Wolk {
         }
     }
 
+    /**
+     * Stops automatic publishing, disconnects from the MQTT broker and releases the MQTT client.
+     * Threads are shut down as well, unless the executor provider was given to the builder, as it may be shared.
+     * A URL file downloader given to the builder is closed if it is {@link AutoCloseable}.
+     * The instance can not be used afterwards.
+     */
+    @Override
+    public void close() {
+        stopPublishing();
+
+        if (scheduledFirmwareUpdate != null) {
+            scheduledFirmwareUpdate.cancel();
+        }
+
+        disconnect();
+
+        try {
+            client.close();
+        } catch (MqttException e) {
+            LOG.trace("Could not close MQTT client.", e);
+        }
+
+        if (fileSystemManagement != null) {
+            fileSystemManagement.close();
+        }
+
+        if (urlFileDownloader instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) urlFileDownloader).close();
+            } catch (Exception e) {
+                LOG.trace("Could not close URL file downloader.", e);
+            }
+        }
+
+        if (ownsExecutorProvider) {
+            executorProvider.shutdown();
+        }
+    }
+
     /**
      * Start automatic reading publishing.
      * Readings are published every X seconds.
@@ -162,17 +212,45 @@ public class Wolk {
             throw new IllegalStateException("Automatic publishing requires persistence store.");
         }
 
-        if (runningPublishTask != null && !runningPublishTask.isDone()) {
+        if (isPublishing()) {
             return;
         }
 
-        runningPublishTask = executor.scheduleAtFixedRate(publishTask, 0, seconds, TimeUnit.SECONDS);
+        runningPublishTask = executorProvider.scheduler().scheduleAtFixedRate(publishTask, 0, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start automatic reading publishing, driven by the amount and age of stored readings instead of a fixed rate.
+     * Readings are published as soon as the policy is satisfied, and nothing is sent while there is nothing stored.
+     * Automatic publishing requires a persistence store.
+     *
+     * @param policy {@link FlushPolicy}
+     */
+    public void startPublishing(FlushPolicy policy) {
+        if (persistence == null) {
+            throw new IllegalStateException("Automatic publishing requires persistence store.");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Flush policy must be set");
+        }
+
+        if (isPublishing()) {
+            return;
+        }
+
+        flushScheduler = new FlushScheduler(policy, executorProvider.scheduler(), executorProvider.executor(), this::publishStored);
+        flushScheduler.start();
     }
 
     /**
      * Stop automatic reading publishing
      */
     public void stopPublishing() {
+        if (flushScheduler != null) {
+            flushScheduler.stop();
+            flushScheduler = null;
+        }
+
         if (runningPublishTask == null || runningPublishTask.isDone()) {
             return;
         }
@@ -180,9 +258,30 @@ public class Wolk {
         runningPublishTask.cancel(true);
     }
 
+    /**
+     * Publishes stored readings now, without waiting for the flush policy.
+     * With automatic publishing started by {@link #startPublishing(FlushPolicy)} the readings are published
+     * in the background, otherwise this is the same as {@link #publish()}.
+     */
+    public void flush() {
+        final FlushScheduler scheduler = flushScheduler;
+        if (scheduler != null) {
+            scheduler.requestFlush();
+            return;
+        }
+
+        publish();
+    }
+
+    private boolean isPublishing() {
+        return (runningPublishTask != null && !runningPublishTask.isDone()) || flushScheduler != null;
+    }
+
     /**
      * Manually publish stored readings.
      * Requires a persistence store.
+     * Readings are taken out of the store in batches, so the whole backlog is never held in memory at once.
+     * A batch is removed from the store only after it was published, otherwise it stays stored for the next attempt.
      */
     public void publish() {
         if (persistence == null) {
@@ -190,12 +289,65 @@ public class Wolk {
         }
 
         try {
-            protocol.publishFeeds(persistence.getAll());
+            publishStored();
         } catch (Exception e) {
             LOG.info("Could not publish feeds", e);
         }
     }
 
+    /**
+     * Publishes stored readings in the background, like {@link #publish()}.
+     * Requires a persistence store.
+     *
+     * @return Completes once all stored readings are published, or exceptionally if publishing failed.
+     */
+    public CompletableFuture<Void> publishAsync() {
+        if (persistence == null) {
+            throw new IllegalStateException("Manual publishing requires persistence store.");
+        }
+
+        return CompletableFuture.runAsync(this::publishStored, executorProvider.executor());
+    }
+
+    /**
+     * Publishes the reading right away, without storing it and without waiting for the delivery.
+     * Up to the MQTT max inflight number of messages are kept in flight together.
+     *
+     * @param feed {@link Feed}
+     * @return Completes once the reading is delivered, or exceptionally if it could not be.
+     */
+    public CompletableFuture<Void> publishFeedAsync(Feed feed) {
+        return protocol.publishFeedAsync(feed);
+    }
+
+    /**
+     * Publishes the readings right away, without storing them and without waiting for the delivery.
+     * Up to the MQTT max inflight number of messages are kept in flight together.
+     *
+     * @param feeds A collection of {@link Feed}
+     * @return Completes once all readings are delivered, or exceptionally if any could not be.
+     */
+    public CompletableFuture<Void> publishFeedsAsync(Collection<Feed> feeds) {
+        return protocol.publishFeedsAsync(feeds);
+    }
+
+    private synchronized void publishStored() {
+        try {
+            while (persistence.drain(publishBatch, PUBLISH_BATCH_SIZE, PUBLISH_BATCH_BYTES) > 0) {
+                try {
+                    protocol.publishFeeds(publishBatch);
+                } catch (Exception e) {
+                    persistence.rollback(publishBatch);
+                    throw e;
+                }
+
+                persistence.commit(publishBatch);
+            }
+        } finally {
+            publishBatch.clear();
+        }
+    }
+
     /**
      * Adds reading to be published.
      * If the persistence store is set, the reading will be stored. Otherwise, it will be published immediately.
@@ -204,32 +356,32 @@ public class Wolk {
      * @param value     Value obtained by the reading
      */
     public void addFeed(String reference, boolean value) {
-        final Feed feed = new Feed(reference, value);
+        final Feed feed = new BooleanFeed(reference, value);
         addFeed(feed);
     }
 
     public void addFeed(String reference, boolean value, long timestamp) {
-        final Feed feed = new Feed(reference, value, timestamp);
+        final Feed feed = new BooleanFeed(reference, value, timestamp);
         addFeed(feed);
     }
 
     public void addFeed(String reference, long value) {
-        final Feed feed = new Feed(reference, Long.toString(value));
+        final Feed feed = new LongFeed(reference, value);
         addFeed(feed);
     }
 
     public void addFeed(String reference, long value, long timestamp) {
-        final Feed feed = new Feed(reference, Long.toString(value), timestamp);
+        final Feed feed = new LongFeed(reference, value, timestamp);
         addFeed(feed);
     }
 
     public void addFeed(String reference, double value) {
-        final Feed feed = new Feed(reference, value);
+        final Feed feed = new DoubleFeed(reference, value);
         addFeed(feed);
     }
 
     public void addFeed(String reference, double value, long timestamp) {
-        final Feed feed = new Feed(reference, value, timestamp);
+        final Feed feed = new DoubleFeed(reference, value, timestamp);
         addFeed(feed);
     }
 
@@ -260,6 +412,23 @@ public class Wolk {
         addFeed(feed);
     }
 
+    /**
+     * Adds multivalue numeric reading to be published, without boxing the values.
+     * The array is kept by the feed, so it must not be changed afterwards.
+     *
+     * @param reference Reference of the sensor
+     * @param values    Values obtained by the reading
+     */
+    public void addFeed(String reference, double[] values) {
+        final Feed feed = new DoubleVectorFeed(reference, values);
+        addFeed(feed);
+    }
+
+    public void addFeed(String reference, double[] values, long timestamp) {
+        final Feed feed = new DoubleVectorFeed(reference, values, timestamp);
+        addFeed(feed);
+    }
+
     /**
      * Adds readings to be published.
      * If the persistence store is set, the reading will be stored. Otherwise, it will be published immediately.
@@ -269,6 +438,11 @@ public class Wolk {
     public void addFeed(Feed feed) {
         if (persistence != null) {
             persistence.addFeed(feed);
+
+            final FlushScheduler scheduler = flushScheduler;
+            if (scheduler != null) {
+                scheduler.added(1, scheduler.getPolicy().tracksBytes() ? FeedSizeEstimator.estimate(feed) : 0);
+            }
             return;
         }
 
@@ -288,6 +462,17 @@ public class Wolk {
     public void addFeeds(Collection<Feed> feeds) {
         if (persistence != null) {
             persistence.addFeeds(feeds);
+
+            final FlushScheduler scheduler = flushScheduler;
+            if (scheduler != null) {
+                long size = 0;
+                if (scheduler.getPolicy().tracksBytes()) {
+                    for (Feed feed : feeds) {
+                        size += FeedSizeEstimator.estimate(feed);
+                    }
+                }
+                scheduler.added(feeds.size(), size);
+            }
             return;
         }
 
@@ -341,7 +526,14 @@ public class Wolk {
         registerFeeds(Collections.singletonList(feed));
     }
 
+    /**
+     * Registers feeds on the platform.
+     * Their references are also interned up front, see {@link FeedReference}.
+     *
+     * @param feeds A collection of {@link FeedTemplate}
+     */
     public void registerFeeds(Collection<FeedTemplate> feeds) {
+        feeds.forEach(feed -> FeedReference.of(feed.getReference()));
         protocol.registerFeeds(feeds);
     }
 
@@ -494,6 +686,20 @@ public class Wolk {
 
         private int maxMessageSize = 0;
 
+        private int maxFeedMessageBytes = -1;
+
+        private QosPolicy qosPolicy = QosPolicy.DEFAULT;
+
+        private int fileTransferWindow = 1;
+
+        private int maxConcurrentFileTransfers = 1;
+
+        private int fileHashingParallelism = 1;
+
+        private boolean fileListDeltas = false;
+
+        private int fileListPageSize = 0;
+
         private FeedHandler feedHandler = new FeedHandler() {
             @Override
             public void onFeedsReceived(Collection<Feed> feeds) {
@@ -524,6 +730,8 @@ public class Wolk {
 
         private Persistence persistence = new InMemoryPersistence();
 
+        private ExecutorProvider executorProvider = null;
+
         private boolean fileManagementEnabled = false;
         private boolean defaultUrlFileDownloaderEnabled = true;
         private String fileManagementLocation = "";
@@ -587,6 +795,23 @@ public class Wolk {
             return this;
         }
 
+        /**
+         * Threads used for publishing, message handling and file transfers.
+         * A provider can be shared by many instances, and is then not shut down when an instance is closed.
+         * Defaults to a new {@link ExecutorProvider#platformThreads()} provider for each instance.
+         *
+         * @param executorProvider
+         * @return
+         */
+        public Builder executorProvider(ExecutorProvider executorProvider) {
+            if (executorProvider == null) {
+                throw new IllegalArgumentException("Executor provider must be set.");
+            }
+
+            this.executorProvider = executorProvider;
+            return this;
+        }
+
         public Builder enableFileManagement() {
             fileManagementEnabled = true;
             return this;
@@ -676,11 +901,124 @@ public class Wolk {
             return this;
         }
 
+        /**
+         * Maximum size of a published feed values message in bytes.
+         * Larger feed collections are split into several messages.
+         * Defaults to the maximum message size set with {@link #maxMessageKiloBytes(int)}, 0 means no limit.
+         *
+         * @param maxFeedMessageBytes
+         * @return
+         */
+        public Builder maxFeedMessageBytes(int maxFeedMessageBytes) {
+            if (maxFeedMessageBytes < 0) {
+                throw new IllegalArgumentException("Max feed message size must be a non negative number");
+            }
+
+            this.maxFeedMessageBytes = maxFeedMessageBytes;
+            return this;
+        }
+
+        /**
+         * Quality of service for each class of published messages, and for the values of individual feeds.
+         * Defaults to QoS 2 for everything.
+         *
+         * @param qosPolicy
+         * @return
+         */
+        public Builder qosPolicy(QosPolicy qosPolicy) {
+            if (qosPolicy == null) {
+                throw new IllegalArgumentException("QoS policy must be set");
+            }
+
+            this.qosPolicy = qosPolicy;
+            return this;
+        }
+
+        /**
+         * Number of file chunks requested from the platform before their responses arrive.
+         * Defaults to 1, requesting each chunk once the previous one is received.
+         *
+         * @param fileTransferWindow
+         * @return
+         */
+        public Builder fileTransferWindow(int fileTransferWindow) {
+            if (fileTransferWindow < 1) {
+                throw new IllegalArgumentException("File transfer window must be at least 1");
+            }
+
+            this.fileTransferWindow = fileTransferWindow;
+            return this;
+        }
+
+        /**
+         * Number of file transfers and URL downloads that can run together. The chunk requests of file transfers,
+         * set with {@link #fileTransferWindow(int)}, are shared evenly between them. Defaults to 1.
+         *
+         * @param maxConcurrentFileTransfers
+         * @return
+         */
+        public Builder maxConcurrentFileTransfers(int maxConcurrentFileTransfers) {
+            if (maxConcurrentFileTransfers < 1) {
+                throw new IllegalArgumentException("Max concurrent file transfers must be at least 1");
+            }
+
+            this.maxConcurrentFileTransfers = maxConcurrentFileTransfers;
+            return this;
+        }
+
+        /**
+         * Number of files hashed at the same time when the file list is published. Hashes are kept between listings,
+         * so this mostly speeds up the first listing of a large folder. Defaults to 1.
+         *
+         * @param fileHashingParallelism
+         * @return
+         */
+        public Builder fileHashingParallelism(int fileHashingParallelism) {
+            if (fileHashingParallelism < 1) {
+                throw new IllegalArgumentException("File hashing parallelism must be at least 1");
+            }
+
+            this.fileHashingParallelism = fileHashingParallelism;
+            return this;
+        }
+
+        /**
+         * Publish only the files that were added, changed or removed after a file transfer, deletion or purge,
+         * instead of the whole file list. The whole list is still published on connect and when the platform
+         * requests it. The platform needs to support the `file_list_update` messages. Disabled by default.
+         *
+         * @param fileListDeltas
+         * @return
+         */
+        public Builder fileListDeltas(boolean fileListDeltas) {
+            this.fileListDeltas = fileListDeltas;
+            return this;
+        }
+
+        /**
+         * Largest number of files published in a single response to a file list request. Longer lists are published
+         * in pages, which the platform needs to support. The list published on connect or after a file changes is
+         * never paged. Defaults to 0, publishing the list in a single message.
+         *
+         * @param fileListPageSize
+         * @return
+         */
+        public Builder fileListPageSize(int fileListPageSize) {
+            if (fileListPageSize < 0) {
+                throw new IllegalArgumentException("File list page size can not be negative");
+            }
+
+            this.fileListPageSize = fileListPageSize;
+            return this;
+        }
+
         public Wolk build() {
 
             try {
                 final Wolk wolk = new Wolk();
                 wolk.mode = mode;
+                wolk.executorProvider = executorProvider != null ? executorProvider : ExecutorProvider.platformThreads();
+                wolk.ownsExecutorProvider = executorProvider == null;
                 wolk.client = mqttBuilder.client();
                 wolk.client.setCallback(new MqttCallbackExtended() {
                     @Override
@@ -688,10 +1026,16 @@ public class Wolk {
                         if (reconnect) {
                             wolk.subscribe();
                         }
+                        if (wolk.fileManagementProtocol != null) {
+                            wolk.fileManagementProtocol.connectionRestored();
+                        }
                     }
 
                     @Override
                     public void connectionLost(Throwable cause) {
+                        if (wolk.fileManagementProtocol != null) {
+                            wolk.fileManagementProtocol.connectionLost();
+                        }
                     }
 
                     @Override
@@ -713,6 +1057,8 @@ public class Wolk {
                 }
 
                 wolk.protocol = getProtocol(wolk.client);
+                wolk.protocol.setMaxMessageSize(maxFeedMessageBytes >= 0 ? maxFeedMessageBytes : maxMessageSize * 1024);
+                wolk.protocol.setQosPolicy(qosPolicy);
                 wolk.persistence = persistence;
                 wolk.maxMessageSize = maxMessageSize;
 
@@ -737,19 +1083,29 @@ public class Wolk {
 
             // Create the file system management
             wolk.fileSystemManagement = new FileSystemManagement(
-                    fileManagementLocation.isEmpty() ? DEFAULT_FILE_LOCATION : fileManagementLocation);
+                    fileManagementLocation.isEmpty() ? DEFAULT_FILE_LOCATION : fileManagementLocation,
+                    wolk.executorProvider.executor());
+            wolk.fileSystemManagement.setHashingParallelism(fileHashingParallelism);
 
             // Create the file management protocol
             if (this.urlFileDownloader == null) {
                 LOG.debug("Using default url downloader");
                 wolk.fileTransferUrlEnabled = defaultUrlFileDownloaderEnabled;
-                wolk.fileManagementProtocol = new FileManagementProtocol(wolk.client, wolk.fileSystemManagement);
+                wolk.fileManagementProtocol = new FileManagementProtocol(wolk.client, wolk.fileSystemManagement, null,
+                        wolk.executorProvider.executor(), wolk.executorProvider.scheduler());
             } else {
-                wolk.fileManagementProtocol = new FileManagementProtocol(wolk.client, wolk.fileSystemManagement, urlFileDownloader);
+                wolk.urlFileDownloader = urlFileDownloader;
+                wolk.fileManagementProtocol = new FileManagementProtocol(wolk.client, wolk.fileSystemManagement, urlFileDownloader,
+                        wolk.executorProvider.executor(), wolk.executorProvider.scheduler());
                 wolk.fileTransferUrlEnabled = true;
             }
 
             wolk.fileManagementProtocol.setMaxChunkSize(maxMessageSize);
+            wolk.fileManagementProtocol.setQosPolicy(qosPolicy);
+            wolk.fileManagementProtocol.setTransferWindow(fileTransferWindow);
+            wolk.fileManagementProtocol.setMaxConcurrentTransfers(maxConcurrentFileTransfers);
+            wolk.fileManagementProtocol.setFileListDeltas(fileListDeltas);
+            wolk.fileManagementProtocol.setFileListPageSize(fileListPageSize);
         }
 
         void setupFirmwareUpdate(Wolk wolk) {
@@ -763,7 +1119,9 @@ public class Wolk {
             }
 
             wolk.firmwareInstaller = firmwareInstaller;
-            wolk.firmwareUpdateProtocol = new FirmwareUpdateProtocol(wolk.client, wolk.fileSystemManagement, wolk.firmwareInstaller);
+            wolk.firmwareUpdateProtocol = new FirmwareUpdateProtocol(wolk.client, wolk.fileSystemManagement, wolk.firmwareInstaller,
+                    wolk.executorProvider.executor());
+            wolk.firmwareUpdateProtocol.setQosPolicy(qosPolicy);
             wolk.firmwareManagement = new FirmwareManagement(wolk.firmwareInstaller, wolk.firmwareUpdateProtocol, wolk.fileManagementProtocol);
         }
 
@@ -779,7 +1137,7 @@ public class Wolk {
 
             wolk.firmwareUpdateTime = firmwareUpdateTime;
             wolk.firmwareUpdateRepository = firmwareUpdateRepository;
-            wolk.scheduledFirmwareUpdate = new ScheduledFirmwareUpdate(wolk.firmwareManagement, Executors.newScheduledThreadPool(1), wolk.firmwareUpdateRepository, wolk.firmwareUpdateTime);
+            wolk.scheduledFirmwareUpdate = new ScheduledFirmwareUpdate(wolk.firmwareManagement, wolk.executorProvider.scheduler(), wolk.firmwareUpdateRepository, wolk.firmwareUpdateTime);
         }
 
         private Protocol getProtocol(MqttClient client) {
@@ -27,20 +27,38 @@ import javax.xml.bind.DatatypeConverter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a class that represents a single file transfer session.
  * Session starts with the initiate message from platform, and then we request all the chunks
  * until we finally assembled all the bytes into a single place, where the file is compiled.
  * Checks of hashes are done in between, when we can re-request anything in between of runtime.
+ * <p>
+ * Verified chunks are written straight to a file, and the hash of the whole file is calculated as they arrive,
+ * so the file is never held in memory.
+ * <p>
+ * If a scheduler is given, each chunk request is timed, and requested again if no response arrives in time.
+ * The timeout follows the measured round trip of the requests, like the retransmission timeout in TCP.
  */
 public class FileDownloadSession {
 
@@ -53,19 +71,44 @@ public class FileDownloadSession {
     private static final int CURRENT_HASH_SIZE = 32;
     private static final int MAX_RETRY = 3;
     private static final int MAX_RESTART = 3;
+    private static final int MAX_TIMEOUT_RETRY = 5;
+    private static final int PROGRESS_INTERVAL = 16;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] ZERO_HASH = new byte[PREVIOUS_HASH_SIZE];
     // The executor
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor;
+    // The timer for the requests, null if they are not timed
+    private final ScheduledExecutorService scheduler;
+    private final RetransmissionTimeout retransmissionTimeout = new RetransmissionTimeout();
+    private final Map<Integer, ChunkTimer> timers = new HashMap<>();
+    private final Map<Integer, Long> requestTimes = new HashMap<>();
+    private final Map<Integer, Integer> chunkTimeouts = new HashMap<>();
     // The input data
     private final FileInit initMessage;
     private final Callback callback;
     // The collected data
     private final List<Long> chunkSizes;
-    private final List<Byte> bytes;
-    private final List<byte[]> hashes;
+    // The hashes of the verified chunks, one after another
+    private final byte[] hashes;
+    private final MessageDigest chunkDigest;
+    private final byte[] chunkHash = new byte[CURRENT_HASH_SIZE];
+    private final List<byte[]> pending;
+    private Path file;
+    private FileChannel channel;
+    private MessageDigest fileDigest;
     // The main indicators of state
+    private int windowSize;
     private int currentChunk;
+    private int resumedChunks;
+    private int requestedChunks;
+    private int inFlight;
     private int chunkRetryCount;
     private int restartCount;
+    private int timeoutCount;
+    // Whether the requests are not timed, as the connection is down
+    private boolean paused;
+    // Whether the file holds the verified chunks after a failure, for the transfer to be resumed
+    private boolean resumable;
     // The end status variables
     private FileTransferStatus status;
     private FileTransferError error;
@@ -80,6 +123,82 @@ public class FileDownloadSession {
      * @throws IllegalArgumentException If any of the arguments is given null, the exception will be thrown.
      */
     public FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize) throws IllegalArgumentException {
+        this(initMessage, callback, chunkSize, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Same as {@link #FileDownloadSession(FileInit, Callback, long)}, but runs its tasks on the given executor.
+     *
+     * @param initMessage The parsed message object that contains information about a file that needs to be transferred.
+     * @param callback    The object containing external calls for requesting data and notifying of finish.
+     * @param chunkSize   The maximum size of a chunk in kilobytes, 0 for a single chunk.
+     * @param executor    The executor used to request chunks and report the finished status.
+     * @throws IllegalArgumentException If any of the arguments is given null, the exception will be thrown.
+     */
+    public FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize, ExecutorService executor)
+            throws IllegalArgumentException {
+        this(initMessage, callback, chunkSize, executor, null);
+    }
+
+    /**
+     * Same as {@link #FileDownloadSession(FileInit, Callback, long, ExecutorService, Path, int)},
+     * requesting one chunk at a time.
+     */
+    public FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize, ExecutorService executor,
+                               Path file) throws IllegalArgumentException {
+        this(initMessage, callback, chunkSize, executor, file, 1);
+    }
+
+    /**
+     * Same as {@link #FileDownloadSession(FileInit, Callback, long, ExecutorService, ScheduledExecutorService, Path, int)},
+     * without timing the requests.
+     */
+    public FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize, ExecutorService executor,
+                               Path file, int windowSize) throws IllegalArgumentException {
+        this(initMessage, callback, chunkSize, executor, null, file, windowSize);
+    }
+
+    /**
+     * Same as {@link #FileDownloadSession(FileInit, Callback, long, ExecutorService)}, but writes the received data
+     * into the given file, keeps several chunk requests outstanding, and requests chunks again once they time out.
+     *
+     * @param initMessage The parsed message object that contains information about a file that needs to be transferred.
+     * @param callback    The object containing external calls for requesting data and notifying of finish.
+     * @param chunkSize   The maximum size of a chunk in kilobytes, 0 for a single chunk.
+     * @param executor    The executor used to request chunks and report the finished status.
+     * @param scheduler   The timer for chunk requests without a response. If null, the requests are not timed.
+     * @param file        The file the data is written to, overwriting its contents. If null, a temporary file is used.
+     * @param windowSize  The number of chunks requested before their responses arrive. With 1, each chunk is
+     *                    requested once the previous one is verified.
+     * @throws IllegalArgumentException If any of the arguments is given null, the exception will be thrown.
+     */
+    public FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize, ExecutorService executor,
+                               ScheduledExecutorService scheduler, Path file, int windowSize)
+            throws IllegalArgumentException {
+        this(initMessage, callback, chunkSize, executor, scheduler, file, windowSize, 0, null);
+    }
+
+    /**
+     * Same as {@link #FileDownloadSession(FileInit, Callback, long, ExecutorService, ScheduledExecutorService, Path, int)},
+     * but continues a transfer that was interrupted. If the file does not hold the verified chunks,
+     * the transfer starts from the first chunk.
+     *
+     * @param verifiedChunks The number of chunks already verified and written to the file.
+     * @param lastHash       The hash of the last verified chunk.
+     */
+    FileDownloadSession(FileInit initMessage, Callback callback, long chunkSize, ExecutorService executor,
+                        ScheduledExecutorService scheduler, Path file, int windowSize, int verifiedChunks,
+                        byte[] lastHash) throws IllegalArgumentException {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor can not be null.");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The window size must be at least 1.");
+        }
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.windowSize = windowSize;
+
         if (initMessage == null) {
             throw new IllegalArgumentException("The initial message object can not be null.");
         }
@@ -89,9 +208,9 @@ public class FileDownloadSession {
 
         this.initMessage = initMessage;
         this.callback = callback;
+        this.file = file;
 
-        this.bytes = new ArrayList<>();
-        this.hashes = new ArrayList<>();
+        this.pending = new ArrayList<>();
         this.chunkSizes = new ArrayList<>();
 
         // killobytes
@@ -112,12 +231,22 @@ public class FileDownloadSession {
             chunkSizes.add(leftoverSizedChunk + (PREVIOUS_HASH_SIZE + CURRENT_HASH_SIZE));
         }
         LOG.trace("Calculated chunk count for this file: " + chunkSizes.size());
+        this.hashes = new byte[chunkSizes.size() * CURRENT_HASH_SIZE];
+        try {
+            this.chunkDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available.", exception);
+        }
+
+        if (verifiedChunks > 0 && file != null) {
+            resume(verifiedChunks, lastHash);
+        }
 
         // Request the first chunk
         status = FileTransferStatus.FILE_TRANSFER;
         error = null;
         LOG.trace("Requesting first chunk of data.");
-        executor.execute(new RequestRunnable(initMessage.getFileName(), currentChunk));
+        requestChunks();
     }
 
     /**
@@ -195,12 +324,140 @@ public class FileDownloadSession {
         return error;
     }
 
-    public byte[] getBytes() {
-        byte[] newBytes = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i++) {
-            newBytes[i] = bytes.get(i);
+    /**
+     * @return The number of chunk requests that were not answered in time, and were sent again.
+     */
+    public synchronized int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return The current timeout for chunk requests in milliseconds.
+     */
+    public synchronized long getRetransmissionTimeoutMillis() {
+        return retransmissionTimeout.millis();
+    }
+
+    /**
+     * @return The smoothed round trip of chunk requests in milliseconds, or 0 if none was measured yet.
+     */
+    public synchronized double getSmoothedRttMillis() {
+        return retransmissionTimeout.smoothedRttMillis();
+    }
+
+    /**
+     * The file holding the received data. Once the session finished with {@link FileTransferStatus#FILE_READY}
+     * it holds the whole file, ready to be moved into place.
+     *
+     * @return Path of the file, or null if no data was received yet.
+     */
+    public synchronized Path getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the received data into memory.
+     *
+     * @return All the data received so far.
+     * @deprecated The whole file is loaded into memory, use {@link #getFile()} instead.
+     */
+    @Deprecated
+    public synchronized byte[] getBytes() {
+        if (file == null || !Files.exists(file)) {
+            return new byte[0];
+        }
+
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to read the received data.", exception);
+        }
+    }
+
+    /**
+     * Changes the number of chunks requested before their responses arrive. A larger window is filled right away,
+     * while with a smaller one no more chunks are requested until the outstanding ones are below it.
+     *
+     * @param windowSize The number of chunks, at least 1.
+     */
+    public synchronized void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The window size must be at least 1.");
+        }
+
+        this.windowSize = windowSize;
+        if (status == FileTransferStatus.FILE_TRANSFER) {
+            requestChunks();
+        }
+    }
+
+    public synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Whether the payload is the response to one of the outstanding requests of this session, as it is of the
+     * requested size, and the hash of the previous chunk in it continues the chunks received so far.
+     * Responses do not name the file, so this is how they are told apart when several files are transferred.
+     *
+     * @param payload The payload of a binary response.
+     * @return True if this session expects the payload.
+     */
+    public synchronized boolean isExpected(byte[] payload) {
+        if (status != FileTransferStatus.FILE_TRANSFER || payload.length < MINIMUM_PACKET_SIZE
+                || !isRequestedSize(payload.length)) {
+            return false;
+        }
+
+        if (continuesVerifiedChunks(payload)) {
+            return true;
+        }
+        for (byte[] chunk : pending) {
+            if (regionEquals(payload, 0, chunk, chunk.length - CURRENT_HASH_SIZE, CURRENT_HASH_SIZE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the session failed, but the file still holds the verified chunks, so the transfer can be resumed.
+     */
+    public synchronized boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Stops timing the chunk requests while the connection is down, as no response can arrive until it is back.
+     * The requests are timed again once {@link #requestRemainingChunks()} is called.
+     */
+    public synchronized void pauseTimers() {
+        if (status != FileTransferStatus.FILE_TRANSFER || paused) {
+            return;
         }
-        return newBytes;
+
+        LOG.debug("Pausing the chunk request timers of chunk " + currentChunk + " onwards.");
+        paused = true;
+        cancelTimers();
+        reportProgress();
+    }
+
+    /**
+     * Requests all the chunks that were not verified yet again, as the requests or their responses might have been
+     * lost, for example while the connection was down. The requests are timed again, if they were paused.
+     */
+    public synchronized void requestRemainingChunks() {
+        if (status != FileTransferStatus.FILE_TRANSFER) {
+            return;
+        }
+
+        LOG.debug("Requesting the remaining chunks again, from chunk " + currentChunk + ".");
+        paused = false;
+        pending.clear();
+        cancelTimers();
+        inFlight = 0;
+        requestedChunks = currentChunk;
+        requestChunks();
     }
 
     /**
@@ -224,7 +481,9 @@ public class FileDownloadSession {
                 return false;
             case FILE_TRANSFER:
                 currentChunk = 0;
-                bytes.clear();
+                pending.clear();
+                cancelTimers();
+                discardFile();
 
                 status = FileTransferStatus.ABORTED;
                 error = null;
@@ -240,6 +499,10 @@ public class FileDownloadSession {
      * This is the method used to receive data from the response after this session sent a request for a specific chunk.
      * In here, the payload is analyzed to verify that it is valid, and if it is not, to retry to obtain a chunk,
      * or reset the entire process if necessary.
+     * <p>
+     * With a window larger than one, responses may arrive in any order. The payload does not carry the index of the
+     * chunk, so valid payloads are held until the hash of the previous chunk they carry matches the last verified
+     * chunk, which keeps the hash chain validated in order.
      *
      * @param receivedBytes Entire payload from response, containing 32 bytes for previous chunk hash,
      *                      bytes from current chunk, and additional 32 bytes for the current chunk hash.
@@ -258,71 +521,459 @@ public class FileDownloadSession {
         // Check the array size
         if (receivedBytes.length < MINIMUM_PACKET_SIZE)
             throw new IllegalArgumentException("The passed bytes is not a valid chunk message.");
-        if (receivedBytes.length != chunkSizes.get(currentChunk))
+        if (!isRequestedSize(receivedBytes.length))
             throw new IllegalArgumentException("The passed bytes is not the same size as requested.");
+        if (inFlight > 0) {
+            --inFlight;
+        }
 
-        // Obtain the previous hash
-        byte[] previousHash = Arrays.copyOfRange(receivedBytes, 0, 32);
-        byte[] chunkData = Arrays.copyOfRange(receivedBytes, 32, receivedBytes.length - 32);
-        byte[] currentHash = Arrays.copyOfRange(receivedBytes, receivedBytes.length - 32, receivedBytes.length);
+        // Calculate the hash for current data and check it, without copying the data
+        chunkDigest.update(receivedBytes, PREVIOUS_HASH_SIZE, receivedBytes.length - PREVIOUS_HASH_SIZE - CURRENT_HASH_SIZE);
+        try {
+            chunkDigest.digest(chunkHash, 0, CURRENT_HASH_SIZE);
+        } catch (DigestException exception) {
+            throw new IllegalStateException("Unable to calculate the hash of the chunk.", exception);
+        }
+        if (!regionEquals(chunkHash, 0, receivedBytes, receivedBytes.length - CURRENT_HASH_SIZE, CURRENT_HASH_SIZE)) {
+            LOG.warn("Hash of the current chunk calculated does not match the sent hash.");
+            final int chunkIndex = indexOfInvalidChunk(receivedBytes);
+            if (chunkIndex >= 0) {
+                return requestChunkAgain(initMessage.getFileName(), chunkIndex);
+            }
 
-        // Analyze the chunk received.
-        if (currentChunk == 0) {
-            // Analyze the first hash to be all zeroes.
-            if (!Arrays.equals(previousHash, new byte[32])) {
-                LOG.warn("Invalid header for first chunk, previous hash is not 0.");
-                return requestChunkAgain(initMessage.getFileName(), currentChunk);
+            // The chunk is requested again once the other responses are in, or once its request times out
+            LOG.debug("Unable to tell which of the requested chunks the invalid payload is.");
+            if (inFlight == 0) {
+                return requestMissingChunk();
             }
-        } else {
-            // Analyze the hash of last chunk with the hash received in this message for chunk before.
-            if (!Arrays.equals(previousHash, hashes.get(hashes.size() - 1))) {
-                // Return a chunk back, remove the hash, and delete the bytes
-                LOG.warn("Received hash for previous chunk and calculated hash of previous chunk do not match.");
-                --currentChunk;
-                hashes.remove(currentChunk);
-                for (int i = 0; i < chunkSizes.get(currentChunk); i++) {
-                    if (bytes.isEmpty())
-                        break;
-                    bytes.remove(bytes.size() - 1);
+            return false;
+        }
+
+        pending.add(receivedBytes);
+        if (pending.size() > windowSize) {
+            pending.remove(0);
+        }
+
+        // Write all the chunks that continue the verified ones
+        final int verifiedBefore = currentChunk;
+        byte[] chunk;
+        while ((chunk = takeNextChunk()) != null) {
+            final long written;
+            try {
+                written = appendToFile(chunk, PREVIOUS_HASH_SIZE, chunk.length - PREVIOUS_HASH_SIZE - CURRENT_HASH_SIZE);
+            } catch (IOException exception) {
+                return announceFileSystemError(exception);
+            }
+            System.arraycopy(chunk, chunk.length - CURRENT_HASH_SIZE, hashes, currentChunk * CURRENT_HASH_SIZE,
+                    CURRENT_HASH_SIZE);
+            chunkReceived(currentChunk, chunk == receivedBytes);
+            chunkRetryCount = 0;
+
+            // Check if the file is fully here now.
+            if (++currentChunk == chunkSizes.size() && initMessage.getFileSize() == written) {
+                // If the entire file hash is invalid, restart the entire process
+                if (!Arrays.equals(fileDigest.digest(), DatatypeConverter.parseHexBinary(initMessage.getFileHash()))) {
+                    return restartDataObtain();
+                }
+
+                try {
+                    channel.close();
+                } catch (IOException exception) {
+                    return announceFileSystemError(exception);
+                }
+
+                // Return everything
+                pending.clear();
+                cancelTimers();
+                status = FileTransferStatus.FILE_READY;
+                error = null;
+                executor.execute(new FinishRunnable(status, null));
+                return true;
+            }
+        }
+
+        // Report the progress for the first chunk, and then once every few chunks
+        if (currentChunk > verifiedBefore
+                && (verifiedBefore == 0 || currentChunk / PROGRESS_INTERVAL > verifiedBefore / PROGRESS_INTERVAL)) {
+            reportProgress();
+        }
+
+        // Drop a response to a chunk that was requested again, but already arrived
+        if (pending.contains(receivedBytes) && isVerifiedChunk(receivedBytes)) {
+            LOG.debug("Received a chunk that is already verified, ignoring it.");
+            pending.remove(receivedBytes);
+        }
+
+        // Every request was answered, but nothing continues the verified chunks
+        if (inFlight == 0 && !pending.isEmpty()) {
+            return requestMissingChunk();
+        }
+
+        // Request the next chunks
+        requestChunks();
+
+        return true;
+    }
+
+    /**
+     * Finds the chunk a payload that failed its own hash was the response for, either from the hash of the previous
+     * chunk in it, or as the only outstanding chunk of its size.
+     *
+     * @return Index of the chunk, or -1 if it could be any of several outstanding chunks.
+     */
+    private int indexOfInvalidChunk(byte[] payload) {
+        if (continuesVerifiedChunks(payload)) {
+            return currentChunk;
+        }
+
+        int chunkIndex = -1;
+        final int last = Math.min(Math.max(requestedChunks, currentChunk + 1), chunkSizes.size());
+        for (int i = currentChunk; i < last; i++) {
+            if (chunkSizes.get(i) == payload.length) {
+                if (chunkIndex >= 0) {
+                    return -1;
                 }
-                return requestChunkAgain(initMessage.getFileName(), currentChunk);
+                chunkIndex = i;
             }
         }
+        return chunkIndex;
+    }
 
-        // Calculate the hash for current data and check it
-        byte[] calculatedHash = calculateSha256HashForBytes(chunkData);
-        if (!Arrays.equals(calculatedHash, currentHash)) {
-            LOG.warn("Hash of the current chunk calculated does not match the sent hash.");
+    /**
+     * Called once every request was answered, but the chunk following the verified ones is still missing.
+     * If that was the only chunk outstanding, the held response is the one for it, and as it does not continue
+     * the last verified chunk, that chunk is dropped and requested again. Otherwise the response for the missing
+     * chunk was lost or invalid, and only that chunk is requested again, keeping the responses held for later chunks.
+     */
+    private boolean requestMissingChunk() {
+        if (pending.isEmpty() || requestedChunks > currentChunk + 1) {
+            LOG.debug("No response continues the verified chunks, requesting chunk " + currentChunk + " again.");
             return requestChunkAgain(initMessage.getFileName(), currentChunk);
         }
 
-        // Append all the chunk data into the bytes
-        for (byte chunkByte : chunkData) {
-            bytes.add(chunkByte);
+        pending.clear();
+        cancelTimers();
+        requestedChunks = currentChunk;
+        if (currentChunk == 0) {
+            LOG.warn("Invalid header for first chunk, previous hash is not 0.");
+            return requestChunkAgain(initMessage.getFileName(), currentChunk);
+        }
+        if (currentChunk <= resumedChunks) {
+            LOG.warn("Received chunk does not continue the chunks verified before the transfer was resumed.");
+            return restartDataObtain();
         }
-        // Append the hash
-        hashes.add(currentHash);
 
-        // Check if the file is fully here now.
-        if (++currentChunk == chunkSizes.size() && initMessage.getFileSize() == bytes.size()) {
-            // If the entire file hash is invalid, restart the entire process
-            if (!Arrays.equals(calculateMD5HashForBytes(bytes), DatatypeConverter.parseHexBinary(initMessage.getFileHash()))) {
-                return restartDataObtain();
+        // Return a chunk back, remove the hash, and delete the bytes
+        LOG.warn("Received hash for previous chunk and calculated hash of previous chunk do not match.");
+        --currentChunk;
+        --requestedChunks;
+        try {
+            truncateFile(channel.size() - (chunkSizes.get(currentChunk) - PREVIOUS_HASH_SIZE - CURRENT_HASH_SIZE));
+        } catch (IOException exception) {
+            return announceFileSystemError(exception);
+        }
+        return requestChunkAgain(initMessage.getFileName(), currentChunk);
+    }
+
+    /**
+     * Whether a chunk of the given size is expected from any of the outstanding requests.
+     */
+    private boolean isRequestedSize(int size) {
+        final int last = Math.min(Math.max(requestedChunks, currentChunk + 1), chunkSizes.size());
+        for (int i = currentChunk; i < last; i++) {
+            if (chunkSizes.get(i) == size) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            // Return everything
-            status = FileTransferStatus.FILE_READY;
-            error = null;
-            executor.execute(new FinishRunnable(status, null));
-            return true;
+    /**
+     * Removes the held payload that continues the verified chunks, if it was received.
+     */
+    private byte[] takeNextChunk() {
+        if (currentChunk == chunkSizes.size()) {
+            return null;
+        }
+
+        final long size = chunkSizes.get(currentChunk);
+        for (Iterator<byte[]> iterator = pending.iterator(); iterator.hasNext(); ) {
+            final byte[] chunk = iterator.next();
+            if (chunk.length == size && continuesVerifiedChunks(chunk)) {
+                iterator.remove();
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the payload is the same as one of the verified chunks.
+     */
+    private boolean isVerifiedChunk(byte[] chunk) {
+        for (int i = resumedChunks; i < currentChunk; i++) {
+            if (chunk.length == chunkSizes.get(i)
+                    && regionEquals(chunk, chunk.length - CURRENT_HASH_SIZE, hashes, i * CURRENT_HASH_SIZE, CURRENT_HASH_SIZE)
+                    && (i == 0 ? regionEquals(chunk, 0, ZERO_HASH, 0, PREVIOUS_HASH_SIZE)
+                    : regionEquals(chunk, 0, hashes, (i - 1) * CURRENT_HASH_SIZE, PREVIOUS_HASH_SIZE))) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        // Request the next chunk
-        executor.execute(new RequestRunnable(initMessage.getFileName(), currentChunk));
+    /**
+     * Whether the hash of the previous chunk in the payload is the hash of the last verified chunk.
+     */
+    private boolean continuesVerifiedChunks(byte[] payload) {
+        if (currentChunk == 0) {
+            return regionEquals(payload, 0, ZERO_HASH, 0, PREVIOUS_HASH_SIZE);
+        }
+        return regionEquals(payload, 0, hashes, (currentChunk - 1) * CURRENT_HASH_SIZE, PREVIOUS_HASH_SIZE);
+    }
 
+    private static boolean regionEquals(byte[] first, int firstOffset, byte[] second, int secondOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (first[firstOffset + i] != second[secondOffset + i]) {
+                return false;
+            }
+        }
         return true;
     }
 
+    /**
+     * Requests the chunks following the verified ones, until the window is full.
+     */
+    private void requestChunks() {
+        requestedChunks = Math.max(requestedChunks, currentChunk);
+        while (requestedChunks < chunkSizes.size() && requestedChunks - currentChunk < windowSize) {
+            ++inFlight;
+            sendRequest(requestedChunks++, false);
+        }
+    }
+
+    /**
+     * Sends the request for a chunk, and starts its timer. The round trip is only measured for the first request
+     * of a chunk.
+     */
+    private void sendRequest(int chunkIndex, boolean again) {
+        if (again) {
+            requestTimes.remove(chunkIndex);
+        } else {
+            requestTimes.put(chunkIndex, System.nanoTime());
+        }
+
+        if (scheduler != null && !paused) {
+            final ChunkTimer previous = timers.get(chunkIndex);
+            if (previous != null) {
+                previous.cancel();
+            }
+            final ChunkTimer timer = new ChunkTimer(chunkIndex);
+            timers.put(chunkIndex, timer);
+            timer.start(retransmissionTimeout.millis());
+        }
+
+        executor.execute(new RequestRunnable(initMessage.getFileName(), chunkIndex));
+    }
+
+    /**
+     * Stops the timer of a verified chunk, and measures the round trip if the chunk was verified as it arrived.
+     */
+    private void chunkReceived(int chunkIndex, boolean justArrived) {
+        final ChunkTimer timer = timers.remove(chunkIndex);
+        if (timer != null) {
+            timer.cancel();
+        }
+        chunkTimeouts.remove(chunkIndex);
+
+        final Long requestTime = requestTimes.remove(chunkIndex);
+        if (justArrived && requestTime != null) {
+            retransmissionTimeout.sample((System.nanoTime() - requestTime) / 1_000_000.0);
+        }
+    }
+
+    private synchronized void onTimeout(ChunkTimer timer) {
+        if (status != FileTransferStatus.FILE_TRANSFER || paused || timers.get(timer.chunkIndex) != timer) {
+            return;
+        }
+        timers.remove(timer.chunkIndex);
+
+        ++timeoutCount;
+        if (chunkTimeouts.merge(timer.chunkIndex, 1, Integer::sum) > MAX_TIMEOUT_RETRY) {
+            LOG.warn("Request for chunk " + timer.chunkIndex + " timed out " + MAX_TIMEOUT_RETRY + " times.");
+            announceMaxTimeout();
+            return;
+        }
+
+        LOG.debug("Request for chunk " + timer.chunkIndex + " timed out after " + retransmissionTimeout.millis() +
+                " ms, requesting it again.");
+        retransmissionTimeout.backoff();
+        sendRequest(timer.chunkIndex, true);
+    }
+
+    /**
+     * Passes the number of verified chunks and the hash of the last one to the callback, to be saved as progress.
+     */
+    private void reportProgress() {
+        if (currentChunk == 0) {
+            return;
+        }
+
+        callback.onChunksVerified(currentChunk, Arrays.copyOfRange(hashes,
+                (currentChunk - 1) * CURRENT_HASH_SIZE, currentChunk * CURRENT_HASH_SIZE));
+    }
+
+    private void cancelTimers() {
+        for (ChunkTimer timer : timers.values()) {
+            timer.cancel();
+        }
+        timers.clear();
+        requestTimes.clear();
+        chunkTimeouts.clear();
+    }
+
+    /**
+     * Writes verified chunk data at the end of the file, and adds it to the hash of the whole file.
+     * The data is written straight from the received payload.
+     *
+     * @return Size of the file after writing.
+     */
+    private long appendToFile(byte[] payload, int offset, int length) throws IOException {
+        openFile();
+
+        fileDigest.update(payload, offset, length);
+        final ByteBuffer data = ByteBuffer.wrap(payload, offset, length);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+
+        return channel.position();
+    }
+
+    /**
+     * Continues from the given chunk, if the file holds the data of all the chunks before it.
+     * The hashes of the chunks before the last one are not known, so the transfer restarts if the chain breaks there.
+     */
+    private void resume(int verifiedChunks, byte[] lastHash) {
+        if (verifiedChunks >= chunkSizes.size() || lastHash == null || lastHash.length != CURRENT_HASH_SIZE) {
+            LOG.info("Unable to resume the transfer, starting from the first chunk.");
+            return;
+        }
+
+        long verifiedBytes = 0;
+        for (int i = 0; i < verifiedChunks; i++) {
+            verifiedBytes += chunkSizes.get(i) - PREVIOUS_HASH_SIZE - CURRENT_HASH_SIZE;
+        }
+
+        try {
+            if (!Files.exists(file) || Files.size(file) < verifiedBytes) {
+                LOG.info("The file does not hold the verified chunks, starting from the first chunk.");
+                return;
+            }
+
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            truncateFile(verifiedBytes);
+        } catch (IOException exception) {
+            LOG.warn("Unable to resume the transfer, starting from the first chunk: " + exception.getLocalizedMessage());
+            discardChannel();
+            return;
+        }
+
+        System.arraycopy(lastHash, 0, hashes, (verifiedChunks - 1) * CURRENT_HASH_SIZE, CURRENT_HASH_SIZE);
+        currentChunk = verifiedChunks;
+        resumedChunks = verifiedChunks;
+        requestedChunks = verifiedChunks;
+        LOG.info("Resuming the transfer from chunk " + verifiedChunks + " of " + chunkSizes.size() + ".");
+    }
+
+    private void discardChannel() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOG.warn("Unable to close the file of the transfer session: " + exception.getLocalizedMessage());
+        }
+        channel = null;
+    }
+
+    private void openFile() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            return;
+        }
+
+        if (file == null) {
+            file = Files.createTempFile("wolk-transfer-", ".part");
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        fileDigest = newFileDigest();
+    }
+
+    /**
+     * Drops the data past the given size, and hashes the remaining data again, as a digest can not be rolled back.
+     */
+    private void truncateFile(long size) throws IOException {
+        openFile();
+
+        channel.truncate(Math.max(size, 0));
+        channel.position(channel.size());
+
+        fileDigest = newFileDigest();
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long position = 0;
+        while (position < channel.size()) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            fileDigest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static MessageDigest newFileDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("MD5 is not available.", exception);
+        }
+    }
+
+    /**
+     * Closes and deletes the file, as its data will not be used.
+     */
+    private void discardFile() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException exception) {
+            LOG.warn("Unable to delete the file of the transfer session: " + exception.getLocalizedMessage());
+        }
+    }
+
+    private boolean announceFileSystemError(IOException exception) {
+        LOG.error("Unable to write the received data: " + exception.getLocalizedMessage());
+        currentChunk = 0;
+        cancelTimers();
+        pending.clear();
+        discardFile();
+
+        status = FileTransferStatus.ERROR;
+        error = FileTransferError.FILE_SYSTEM_ERROR;
+
+        executor.execute(new FinishRunnable(status, error));
+        return false;
+    }
+
     /**
      * This is an internal method used to define how a chunk for
      * which the current hash is invalid, will be re-obtained.
@@ -338,7 +989,9 @@ public class FileDownloadSession {
 
         // Increment the counter, and request the chunk again
         ++chunkRetryCount;
-        executor.execute(new RequestRunnable(fileName, chunkIndex));
+        ++inFlight;
+        requestedChunks = Math.max(requestedChunks, chunkIndex + 1);
+        sendRequest(chunkIndex, true);
         return true;
     }
 
@@ -350,9 +1003,31 @@ public class FileDownloadSession {
         LOG.warn("A single chunk has been re-requested " + chunkRetryCount +
                 " times, achieving the limit. Restarting the process.");
         currentChunk = 0;
-        bytes.clear();
+        pending.clear();
+        cancelTimers();
+        discardFile();
         chunkSizes.clear();
-        hashes.clear();
+
+        status = FileTransferStatus.ERROR;
+        error = FileTransferError.RETRY_COUNT_EXCEEDED;
+
+        executor.execute(new FinishRunnable(status, error));
+    }
+
+    /**
+     * Fails the session once the responses stopped arriving, but keeps the verified chunks in the file,
+     * so the transfer can be resumed when it is initiated again.
+     */
+    private void announceMaxTimeout() {
+        pending.clear();
+        cancelTimers();
+        resumable = file != null && currentChunk > 0;
+        if (resumable) {
+            discardChannel();
+            reportProgress();
+        } else {
+            discardFile();
+        }
 
         status = FileTransferStatus.ERROR;
         error = FileTransferError.RETRY_COUNT_EXCEEDED;
@@ -377,12 +1052,20 @@ public class FileDownloadSession {
         ++restartCount;
         chunkRetryCount = 0;
         currentChunk = 0;
-        bytes.clear();
-        hashes.clear();
+        resumedChunks = 0;
+        requestedChunks = 0;
+        inFlight = 0;
+        pending.clear();
+        cancelTimers();
+        try {
+            truncateFile(0);
+        } catch (IOException exception) {
+            return announceFileSystemError(exception);
+        }
 
-        // Request the first chunk again
+        // Request the first chunks again
         LOG.debug("Requesting first chunk after restart.");
-        executor.execute(new RequestRunnable(initMessage.getFileName(), 0));
+        requestChunks();
         return true;
     }
 
@@ -394,9 +1077,10 @@ public class FileDownloadSession {
         LOG.warn("The session was restarted " + restartCount +
                 " times, achieving the limit. Returning error.");
         currentChunk = 0;
-        bytes.clear();
+        pending.clear();
+        cancelTimers();
+        discardFile();
         chunkSizes.clear();
-        hashes.clear();
 
         status = FileTransferStatus.ERROR;
         error = FileTransferError.RETRY_COUNT_EXCEEDED;
@@ -413,6 +1097,17 @@ public class FileDownloadSession {
         void sendRequest(String fileName, int chunkIndex);
 
         void onFinish(FileTransferStatus status, FileTransferError error);
+
+        /**
+         * Called with the progress of the transfer, to be saved for resuming it. It is called once the first chunk is
+         * verified, then every 16 chunks, and when the connection is lost or the transfer
+         * failed with the chunks kept in the file.
+         *
+         * @param verifiedChunks The number of chunks verified so far.
+         * @param lastHash       The hash of the last verified chunk.
+         */
+        default void onChunksVerified(int verifiedChunks, byte[] lastHash) {
+        }
     }
 
     /**
@@ -434,6 +1129,32 @@ public class FileDownloadSession {
         }
     }
 
+    /**
+     * This is a private class that represents the timer of a single chunk request.
+     */
+    private class ChunkTimer implements Runnable {
+
+        private final int chunkIndex;
+        private ScheduledFuture<?> future;
+
+        public ChunkTimer(int chunkIndex) {
+            this.chunkIndex = chunkIndex;
+        }
+
+        void start(long millis) {
+            future = scheduler.schedule(this, millis, TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            future.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            onTimeout(this);
+        }
+    }
+
     /**
      * This is a private class that represents how a Runnable for calling `onFinish` is supposed to look like.
      */
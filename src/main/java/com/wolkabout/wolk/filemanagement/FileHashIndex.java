@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wolkabout.wolk.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class remembers the MD5 hashes of the files in the folder, together with the size and the modification time
+ * each file had when it was hashed. A file is only hashed again if either of those changed.
+ * The index is saved in a file, so it is kept between restarts.
+ */
+class FileHashIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileHashIndex.class);
+    // The size of the buffer a file is read into, when the caller does not give one
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries;
+    private boolean changed;
+
+    /**
+     * Loads the index from the given file. An index that is missing or can not be read is started over.
+     *
+     * @param indexFile The file where the index is saved.
+     */
+    FileHashIndex(Path indexFile) {
+        this.indexFile = indexFile;
+        this.entries = load(indexFile);
+    }
+
+    /**
+     * Returns the hash of the file, from the index if the file did not change since it was hashed.
+     * Several files can be hashed at the same time from different threads.
+     *
+     * @param file The file in the folder.
+     * @return The MD5 hash of the file, as upper case hex.
+     */
+    String hash(Path file) throws IOException {
+        return hash(file, null);
+    }
+
+    /**
+     * Same as {@link #hash(Path)}, but reads the file into the given buffer, if it needs to be hashed.
+     *
+     * @param file   The file in the folder.
+     * @param buffer The buffer to read the file into, or null to read it into a small buffer of its own.
+     * @return The MD5 hash of the file, as upper case hex.
+     */
+    String hash(Path file, ByteBuffer buffer) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final String name = file.getFileName().toString();
+        synchronized (this) {
+            final Entry entry = entries.get(name);
+            if (entry != null && entry.matches(attributes)) {
+                return entry.hash;
+            }
+        }
+
+        LOG.debug("Calculating the hash of file '" + name + "'.");
+        final String hash = calculateHash(file, buffer != null ? buffer : ByteBuffer.allocate(READ_BUFFER_SIZE));
+        synchronized (this) {
+            entries.put(name, new Entry(attributes, hash));
+            changed = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Records a hash that is already known for a file, so it does not need to be calculated.
+     *
+     * @param file The file in the folder.
+     * @param hash The MD5 hash of the file, as hex.
+     */
+    synchronized void put(Path file, String hash) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        entries.put(file.getFileName().toString(), new Entry(attributes, hash.toUpperCase()));
+        changed = true;
+    }
+
+    synchronized void remove(String name) {
+        changed |= entries.remove(name) != null;
+    }
+
+    /**
+     * Drops the entries of all the files that are not in the given names.
+     */
+    synchronized void retain(Collection<String> names) {
+        changed |= entries.keySet().retainAll(names);
+    }
+
+    /**
+     * Saves the index if it changed since it was last saved. Failing to save it is not an error,
+     * the hashes are just calculated again after a restart.
+     */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+
+        try {
+            final Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            Files.createDirectories(indexFile.getParent());
+            Files.write(temporary, JsonUtil.serialize(new Snapshot(entries)));
+            try {
+                Files.move(temporary, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            changed = false;
+        } catch (IOException exception) {
+            LOG.warn("Unable to save the file hash index: " + exception.getMessage());
+        }
+    }
+
+    private static Map<String, Entry> load(Path indexFile) {
+        if (!Files.exists(indexFile)) {
+            return new HashMap<>();
+        }
+
+        try {
+            final Snapshot snapshot = JsonUtil.deserialize(
+                    new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8), Snapshot.class);
+            if (snapshot.files != null) {
+                return new HashMap<>(snapshot.files);
+            }
+        } catch (IOException | IllegalArgumentException exception) {
+            LOG.warn("Unable to read the file hash index, the files will be hashed again: " + exception.getMessage());
+        }
+        return new HashMap<>();
+    }
+
+    private static String calculateHash(Path file, ByteBuffer buffer) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("MD5 is not available.", exception);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return DatatypeConverter.printHexBinary(digest.digest());
+    }
+
+    static class Entry {
+
+        @JsonProperty("size")
+        private long size;
+
+        @JsonProperty("modified")
+        private long modified;
+
+        @JsonProperty("hash")
+        private String hash;
+
+        Entry() {
+        }
+
+        Entry(BasicFileAttributes attributes, String hash) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    static class Snapshot {
+
+        @JsonProperty("files")
+        private Map<String, Entry> files;
+
+        Snapshot() {
+        }
+
+        Snapshot(Map<String, Entry> files) {
+            this.files = files;
+        }
+    }
+}
@@ -20,11 +20,14 @@ import com.wolkabout.wolk.filemanagement.model.FileTransferError;
 import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
 import com.wolkabout.wolk.filemanagement.model.device2platform.ChunkRequest;
 import com.wolkabout.wolk.filemanagement.model.device2platform.FileInformation;
+import com.wolkabout.wolk.filemanagement.model.device2platform.FileListPage;
+import com.wolkabout.wolk.filemanagement.model.device2platform.FileListUpdate;
 import com.wolkabout.wolk.filemanagement.model.device2platform.FileStatus;
 import com.wolkabout.wolk.filemanagement.model.device2platform.UrlStatus;
 import com.wolkabout.wolk.filemanagement.model.platform2device.FileDelete;
 import com.wolkabout.wolk.filemanagement.model.platform2device.FileInit;
 import com.wolkabout.wolk.filemanagement.model.platform2device.UrlInfo;
+import com.wolkabout.wolk.protocol.QosPolicy;
 import com.wolkabout.wolk.util.JsonUtil;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -32,14 +35,22 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.DatatypeConverter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class FileManagementProtocol {
 
@@ -65,16 +76,33 @@ public class FileManagementProtocol {
     protected static final String FILE_PURGE = "/file_purge";
     // File list input/output topics
     protected static final String FILE_LIST = "/file_list";
+    protected static final String FILE_LIST_UPDATE = "/file_list_update";
     // The MQTT client
     protected final MqttClient client;
     // The Executor
     protected final ExecutorService executor;
+    // The timer for chunk requests, null if they are not timed
+    protected final ScheduledExecutorService scheduler;
     // The feature classes for functionality
     protected final FileSystemManagement management;
-    protected FileDownloadSession fileDownloadSession;
-    protected UrlFileDownloadSession urlFileDownloadSession;
+    // The running sessions, by the name of the file and by the URL
+    protected final Map<String, FileDownloadSession> fileDownloadSessions = new ConcurrentHashMap<>();
+    protected final Map<String, UrlFileDownloadSession> urlFileDownloadSessions = new ConcurrentHashMap<>();
+    // The callbacks waiting for each running URL download, guarded by this
+    private final Map<String, List<UrlFileDownloadSession.Callback>> urlDownloadCallbacks = new HashMap<>();
+    // The transfers waiting for another one to receive its first chunk, guarded by this
+    private final Map<String, Runnable> queuedTransfers = new LinkedHashMap<>();
+    private volatile String firstChunkTransfer;
+    // The files as last published by name, or null if the whole list needs to be published, guarded by the lock
+    private final Object fileListLock = new Object();
+    private Map<String, FileInformation> publishedFiles;
     private final UrlFileDownloader urlFileDownloader;
     protected int maxChunkSize = 0;
+    protected int transferWindow = 1;
+    protected int maxConcurrentTransfers = 1;
+    protected boolean fileListDeltas = false;
+    protected int fileListPageSize = 0;
+    protected QosPolicy qosPolicy = QosPolicy.DEFAULT;
 
     /**
      * This is the constructor for the FileManagement feature.
@@ -84,17 +112,7 @@ public class FileManagementProtocol {
      *                   Passed by the Wolk instance.
      */
     public FileManagementProtocol(MqttClient client, FileSystemManagement management) {
-        if (client == null) {
-            throw new IllegalArgumentException("The client cannot be null.");
-        }
-        if (management == null) {
-            throw new IllegalArgumentException("The file management cannot be null.");
-        }
-
-        this.client = client;
-        this.management = management;
-        this.urlFileDownloader = null;
-        this.executor = Executors.newCachedThreadPool();
+        this(client, management, null, Executors.newCachedThreadPool());
     }
 
     /**
@@ -108,17 +126,53 @@ public class FileManagementProtocol {
      */
     public FileManagementProtocol(MqttClient client, FileSystemManagement management,
                                   UrlFileDownloader urlFileDownloader) {
+        this(client, management, urlFileDownloader, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * This is the constructor for the FileManagement feature that runs all of its tasks,
+     * including the download sessions, on the given executor.
+     *
+     * @param client            The MQTT client passed to by the Wolk instance.
+     * @param management        The File System management logic that actually interacts with the file system.
+     *                          Passed by the Wolk instance.
+     * @param urlFileDownloader The custom URL file downloader implementation, or null for the default one.
+     * @param executor          The executor passed by the Wolk instance.
+     */
+    public FileManagementProtocol(MqttClient client, FileSystemManagement management,
+                                  UrlFileDownloader urlFileDownloader, ExecutorService executor) {
+        this(client, management, urlFileDownloader, executor, null);
+    }
+
+    /**
+     * This is the constructor for the FileManagement feature that also requests file chunks again,
+     * if their response does not arrive in time.
+     *
+     * @param client            The MQTT client passed to by the Wolk instance.
+     * @param management        The File System management logic that actually interacts with the file system.
+     *                          Passed by the Wolk instance.
+     * @param urlFileDownloader The custom URL file downloader implementation, or null for the default one.
+     * @param executor          The executor passed by the Wolk instance.
+     * @param scheduler         The timer for chunk requests, or null to wait for the responses indefinitely.
+     */
+    public FileManagementProtocol(MqttClient client, FileSystemManagement management,
+                                  UrlFileDownloader urlFileDownloader, ExecutorService executor,
+                                  ScheduledExecutorService scheduler) {
         if (client == null) {
             throw new IllegalArgumentException("The client cannot be null.");
         }
         if (management == null) {
             throw new IllegalArgumentException("The file management cannot be null.");
         }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor cannot be null.");
+        }
 
         this.client = client;
         this.management = management;
         this.urlFileDownloader = urlFileDownloader;
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = executor;
+        this.scheduler = scheduler;
     }
 
     /**
@@ -160,16 +214,77 @@ public class FileManagementProtocol {
         }
     }
 
+    /**
+     * Sets the quality of service used for the messages this feature publishes.
+     */
+    public void setQosPolicy(QosPolicy qosPolicy) {
+        if (qosPolicy == null) {
+            throw new IllegalArgumentException("QoS policy must be set");
+        }
+
+        this.qosPolicy = qosPolicy;
+    }
+
     public void setMaxChunkSize(int maxChunkSize) {
         this.maxChunkSize = maxChunkSize;
     }
 
+    /**
+     * Sets the number of file chunks requested from the platform before their responses arrive.
+     * With 1, each chunk is requested once the previous one is received. When several files are transferred,
+     * the chunk requests are shared evenly between them.
+     */
+    public void setTransferWindow(int transferWindow) {
+        if (transferWindow < 1) {
+            throw new IllegalArgumentException("Transfer window must be at least 1");
+        }
+
+        this.transferWindow = transferWindow;
+    }
+
+    /**
+     * Sets whether only the files that were added, changed or removed are published after a file changes,
+     * instead of the whole file list. The whole list is still published when the platform requests it.
+     * The platform needs to support the file list update messages.
+     */
+    public void setFileListDeltas(boolean fileListDeltas) {
+        this.fileListDeltas = fileListDeltas;
+    }
+
+    /**
+     * Sets the largest number of files published in a single response to a file list request. A longer list is
+     * published in several pages, which the platform needs to support. The list published by the device itself
+     * is never paged. With 0, the list is always published in a single message.
+     */
+    public void setFileListPageSize(int fileListPageSize) {
+        if (fileListPageSize < 0) {
+            throw new IllegalArgumentException("File list page size can not be negative");
+        }
+
+        this.fileListPageSize = fileListPageSize;
+    }
+
+    /**
+     * Sets the number of file transfers and URL downloads that can run together.
+     * Initiations above the limit are ignored.
+     */
+    public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+        if (maxConcurrentTransfers < 1) {
+            throw new IllegalArgumentException("Max concurrent transfers must be at least 1");
+        }
+
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+    }
+
     void handleFileTransferInitiation(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
 
-        // If a session is already running, that means the initialization message is not acceptable now.
-        if (isSessionRunning()) {
-            LOG.warn("File transfer session is already ongoing. Ignoring this message...");
+        // If the limit of sessions is reached, the initialization message is not acceptable now.
+        if (isTransferLimitReached()) {
+            // Unless it is for a file being transferred, when the responses might have been lost while the connection was down
+            if (!requestRemainingChunks(JsonUtil.deserialize(message, FileInit.class))) {
+                LOG.warn("File transfer session is already ongoing. Ignoring this message...");
+            }
             return;
         }
 
@@ -177,6 +292,10 @@ public class FileManagementProtocol {
         FileInit initMessage = JsonUtil.deserialize(message, FileInit.class);
         LOG.info("Received file transfer session, with file named '" + initMessage.getFileName() + "'.");
 
+        if (requestRemainingChunks(initMessage)) {
+            return;
+        }
+
         // If there was an error creating the management, report a `FILE_SYSTEM_ERROR`.
         if (this.management == null) {
             LOG.error("File management is not running, returning '" + FileTransferError.FILE_SYSTEM_ERROR + "'.");
@@ -209,8 +328,64 @@ public class FileManagementProtocol {
             return;
         }
 
-        // Start the session
-        fileDownloadSession = new FileDownloadSession(initMessage, new FileDownloadSession.Callback() {
+        // Prepare the file the session writes to, and the progress of an interrupted transfer of this file
+        final Path transferFile;
+        try {
+            transferFile = management.getTransferFile(initMessage.getFileName());
+        } catch (IOException exception) {
+            LOG.error("Unable to create a file for the transfer, returning '" + FileTransferError.FILE_SYSTEM_ERROR + "'.");
+            publish(OUT_DIRECTION + client.getClientId() + FILE_UPLOAD_STATUS, new FileStatus(initMessage.getFileName(),
+                    FileTransferStatus.ERROR, FileTransferError.FILE_SYSTEM_ERROR));
+            return;
+        }
+
+        final Path statePath = transferFile != null ? TransferState.pathFor(transferFile) : null;
+        TransferState state = statePath != null ? TransferState.load(statePath) : null;
+        if (state == null || !state.matches(initMessage, maxChunkSize)) {
+            state = new TransferState(initMessage, maxChunkSize);
+        } else {
+            LOG.info("Found " + state.getVerifiedChunks() + " chunks of an interrupted transfer of this file.");
+        }
+        final TransferState transferState = state;
+
+        // Start the session, or queue it if another one is waiting for its first chunk
+        synchronized (this) {
+            if (isTransferLimitReached() || fileDownloadSessions.containsKey(initMessage.getFileName())
+                    || queuedTransfers.containsKey(initMessage.getFileName())) {
+                LOG.warn("File transfer session is already ongoing. Ignoring this message...");
+                return;
+            }
+
+            if (transferState.getVerifiedChunks() == 0 && firstChunkTransfer != null) {
+                LOG.info("Transfer of '" + initMessage.getFileName() + "' will start once '" + firstChunkTransfer +
+                        "' receives its first chunk.");
+                queuedTransfers.put(initMessage.getFileName(),
+                        () -> startFileTransfer(initMessage, transferFile, statePath, transferState));
+            } else {
+                startFileTransfer(initMessage, transferFile, statePath, transferState);
+            }
+        }
+
+        // Send the transferring message
+        publish(OUT_DIRECTION + client.getClientId() + FILE_UPLOAD_STATUS, new FileStatus(initMessage.getFileName(),
+                FileTransferStatus.FILE_TRANSFER));
+    }
+
+    /**
+     * Starts the session for a file, and shares the chunk requests between all the sessions again.
+     * Binary responses do not name the file, so they are told apart by the hash chain of each session,
+     * which only starts once the first chunk is received. Until then no other session is started from
+     * the first chunk.
+     */
+    private synchronized void startFileTransfer(FileInit initMessage, Path transferFile, Path statePath,
+                                                TransferState transferState) {
+        final String fileName = initMessage.getFileName();
+        if (transferState.getVerifiedChunks() == 0) {
+            firstChunkTransfer = fileName;
+        }
+
+        final int window = Math.max(1, transferWindow / (fileDownloadSessions.size() + 1));
+        final FileDownloadSession session = new FileDownloadSession(initMessage, new FileDownloadSession.Callback() {
             @Override
             public void sendRequest(String fileName, int chunkIndex) {
                 handleFileTransferRequest(fileName, chunkIndex);
@@ -218,60 +393,192 @@ public class FileManagementProtocol {
 
             @Override
             public void onFinish(FileTransferStatus status, FileTransferError error) {
-                handleFileTransferFinish(fileDownloadSession, status, error);
-                fileDownloadSession = null;
+                final FileDownloadSession finished;
+                synchronized (FileManagementProtocol.this) {
+                    finished = fileDownloadSessions.remove(fileName);
+                    firstChunkReceived(fileName);
+                    shareChunkRequests();
+                }
+                // The progress is kept when the transfer can be resumed by initiating it again
+                if (finished == null || !finished.isResumable()) {
+                    deleteTransferState(statePath);
+                }
+                handleFileTransferFinish(finished, status, error);
             }
-        }, maxChunkSize);
 
-        // Send the transferring message
-        publish(OUT_DIRECTION + client.getClientId() + FILE_UPLOAD_STATUS, new FileStatus(initMessage.getFileName(),
-                FileTransferStatus.FILE_TRANSFER));
+            @Override
+            public void onChunksVerified(int verifiedChunks, byte[] lastHash) {
+                if (fileName.equals(firstChunkTransfer)) {
+                    executor.execute(() -> firstChunkReceived(fileName));
+                }
+                if (statePath == null) {
+                    return;
+                }
+
+                transferState.setProgress(verifiedChunks, lastHash);
+                try {
+                    transferState.save(statePath);
+                } catch (IOException exception) {
+                    LOG.warn("Unable to save the progress of the file transfer: " + exception.getMessage());
+                }
+            }
+        }, maxChunkSize, executor, scheduler, transferFile, window, transferState.getVerifiedChunks(),
+                transferState.getLastHash());
+        fileDownloadSessions.put(fileName, session);
+        shareChunkRequests();
+    }
+
+    /**
+     * Starts the queued transfers, once the session waiting for its first chunk received it, or finished.
+     */
+    private synchronized void firstChunkReceived(String fileName) {
+        if (!fileName.equals(firstChunkTransfer)) {
+            return;
+        }
+
+        firstChunkTransfer = null;
+        final Iterator<Runnable> queued = queuedTransfers.values().iterator();
+        while (firstChunkTransfer == null && queued.hasNext()) {
+            final Runnable start = queued.next();
+            queued.remove();
+            start.run();
+        }
+    }
+
+    private synchronized void shareChunkRequests() {
+        if (fileDownloadSessions.isEmpty()) {
+            return;
+        }
+
+        final int window = Math.max(1, transferWindow / fileDownloadSessions.size());
+        for (FileDownloadSession session : fileDownloadSessions.values()) {
+            session.setWindowSize(window);
+        }
+    }
+
+    /**
+     * Stops timing the chunk requests of the running transfers, as no responses arrive while the connection is down.
+     * This is called by the Wolk instance when the connection is lost.
+     */
+    public void connectionLost() {
+        for (FileDownloadSession session : fileDownloadSessions.values()) {
+            session.pauseTimers();
+        }
+    }
+
+    /**
+     * Requests the remaining chunks of the running transfers again, as the requests or their responses sent while
+     * the connection was down are lost. This is called by the Wolk instance when the connection is complete.
+     */
+    public void connectionRestored() {
+        for (FileDownloadSession session : fileDownloadSessions.values()) {
+            session.requestRemainingChunks();
+        }
+    }
+
+    /**
+     * Requests the remaining chunks of a running transfer of the same file again.
+     *
+     * @return True if the file is already being transferred.
+     */
+    private boolean requestRemainingChunks(FileInit initMessage) {
+        final FileDownloadSession session = fileDownloadSessions.get(initMessage.getFileName());
+        if (session != null && isSameFile(session.getInitMessage(), initMessage)) {
+            LOG.info("File transfer session for this file is already ongoing. Requesting the remaining chunks again.");
+            session.requestRemainingChunks();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isSameFile(FileInit first, FileInit second) {
+        return first.getFileName() != null && first.getFileName().equals(second.getFileName())
+                && first.getFileSize() == second.getFileSize()
+                && first.getFileHash() != null && first.getFileHash().equalsIgnoreCase(second.getFileHash());
+    }
+
+    private static void deleteTransferState(Path statePath) {
+        if (statePath == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(statePath);
+        } catch (IOException exception) {
+            LOG.warn("Unable to delete the progress of the file transfer: " + exception.getMessage());
+        }
     }
 
     Boolean findAndCheckFileHash(String fileName, String fileHash) throws IOException {
         File file;
         if ((file = management.getFile(fileName)) != null) {
             LOG.info("File '" + file.getName() + "' already exists.");
-            byte[] fileBytes = Files.readAllBytes(file.toPath());
-            byte[] existingFileHash = FileDownloadSession.calculateMD5HashForBytes(fileBytes);
+            final String existingFileHash = management.getFileHash(file.getName());
 
-            return fileHash.equalsIgnoreCase(DatatypeConverter.printHexBinary(existingFileHash));
+            return existingFileHash != null && fileHash.equalsIgnoreCase(existingFileHash);
         }
         return null;
     }
 
     void handleFileTransferAbort(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
-        // Null check the session
-        if (fileDownloadSession == null) {
-            LOG.warn("Received binary chunk data when session is not ongoing.");
+        // Check there are sessions
+        if (fileDownloadSessions.isEmpty() && !hasQueuedTransfers()) {
+            LOG.warn("Received file transfer abort when session is not ongoing.");
             return;
         }
 
-        // Parse the payload and check its validity
+        // Parse the payload and find the session
         String fileName = JsonUtil.deserialize(message, String.class);
 
-        if (!fileName.equals(fileDownloadSession.getInitMessage().getFileName())) {
+        synchronized (this) {
+            if (queuedTransfers.remove(fileName) != null) {
+                LOG.info("Received request to abort file transfer that did not start yet. Aborting...");
+                publish(OUT_DIRECTION + client.getClientId() + FILE_UPLOAD_STATUS,
+                        new FileStatus(fileName, FileTransferStatus.ABORTED));
+                return;
+            }
+        }
+
+        final FileDownloadSession session = fileDownloadSessions.get(fileName);
+        if (session == null) {
             LOG.warn("Received file transfer abort message with non-matching file name.");
             return;
         }
 
         // Abort the session
         LOG.info("Received request to abort file transfer. Aborting...");
-        fileDownloadSession.abort();
+        session.abort();
     }
 
     void handleFileTransferBinaryResponse(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
-        // Null check the session
-        if (fileDownloadSession == null) {
+        // Check there are sessions
+        if (fileDownloadSessions.isEmpty()) {
             LOG.warn("Received binary chunk data when session is not ongoing.");
             return;
         }
 
+        // Find the session expecting the payload. A single session gets any payload, to request it again if invalid.
+        final byte[] payload = message.getPayload();
+        FileDownloadSession session = null;
+        for (FileDownloadSession running : fileDownloadSessions.values()) {
+            if (running.isExpected(payload)) {
+                session = running;
+                break;
+            }
+        }
+        if (session == null && fileDownloadSessions.size() == 1) {
+            session = fileDownloadSessions.values().iterator().next();
+        }
+        if (session == null) {
+            LOG.warn("Received binary chunk data that none of the sessions expects. Ignoring it...");
+            return;
+        }
+
         try {
             // Pass on the payload
-            fileDownloadSession.receiveBytes(message.getPayload());
+            session.receiveBytes(payload);
         } catch (IllegalStateException | IllegalArgumentException e) {
             LOG.error("Failed to handle bytes: " + e.getLocalizedMessage());
         }
@@ -292,6 +599,10 @@ public class FileManagementProtocol {
         if (status == null) {
             throw new IllegalStateException("Handle file session finish is called with a null status.");
         }
+        if (session.getTimeoutCount() > 0) {
+            LOG.debug(session.getTimeoutCount() + " chunk requests timed out during the transfer, the last timeout was " +
+                    session.getRetransmissionTimeoutMillis() + " ms.");
+        }
 
         // Announce the not good status
         if (status != FileTransferStatus.FILE_READY) {
@@ -303,8 +614,9 @@ public class FileManagementProtocol {
         }
 
         try {
-            // Make the file
-            management.createFile(session.getBytes(), session.getInitMessage().getFileName());
+            // Move the file into place
+            management.moveFile(session.getFile(), session.getInitMessage().getFileName(),
+                    session.getInitMessage().getFileHash());
 
             // Announce the status for good status, and save the data from file, and publish the file list.
             publish(OUT_DIRECTION + client.getClientId() + FILE_UPLOAD_STATUS,
@@ -319,7 +631,7 @@ public class FileManagementProtocol {
             LOG.info("Reporting file transfer as '" + FileTransferStatus.ERROR +
                     "' with error '" + FileTransferError.FILE_SYSTEM_ERROR + "'.");
         } finally {
-            publishFileList();
+            publishFileListChanges();
         }
     }
 
@@ -328,8 +640,8 @@ public class FileManagementProtocol {
      */
     void handleUrlDownloadInitiation(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
-        // If a session is already running, that means the initialization message is not acceptable now.
-        if (isSessionRunning()) {
+        // If the limit of sessions is reached, the initialization message is not acceptable now.
+        if (isTransferLimitReached()) {
             logReceivedMqttMessage(topic, message);
             LOG.warn("File transfer session is already ongoing. Ignoring this message...");
             return;
@@ -351,37 +663,72 @@ public class FileManagementProtocol {
             return;
         }
 
-        urlDownload(urlInit, null);
+        synchronized (this) {
+            if (isTransferLimitReached()) {
+                LOG.warn("File transfer session is already ongoing. Ignoring this message...");
+                return;
+            }
+
+            urlDownload(urlInit, null);
+        }
     }
 
+    /**
+     * Starts downloading the file from the URL. If the URL is already being downloaded, the callback is called
+     * once that download finishes, instead of starting another one.
+     *
+     * @param urlInit  The URL of the file.
+     * @param callback The callback for the result of the download, or null.
+     */
     public synchronized void urlDownload(UrlInfo urlInit, UrlFileDownloadSession.Callback callback) {
+        final String fileUrl = urlInit.getFileUrl();
+        if (urlFileDownloadSessions.containsKey(fileUrl)) {
+            LOG.warn("URL file download session for '" + fileUrl + "' is already ongoing. Waiting for it to finish...");
+            if (callback != null) {
+                urlDownloadCallbacks.get(fileUrl).add(callback);
+            }
+            return;
+        }
+
+        // Stream the download into the transfer directory, so it can be moved into the folder when complete
+        Path file = null;
+        if (management != null) {
+            try {
+                file = management.createTransferFile();
+            } catch (IOException exception) {
+                LOG.error("Failed to create a file for the URL download, returning '" +
+                        FileTransferError.FILE_SYSTEM_ERROR + "'.", exception);
+                publish(OUT_DIRECTION + client.getClientId() + FILE_URL_DOWNLOAD_STATUS, new UrlStatus(fileUrl,
+                        FileTransferStatus.ERROR, FileTransferError.FILE_SYSTEM_ERROR));
+                if (callback != null) {
+                    callback.onFinish(FileTransferStatus.ERROR, "", FileTransferError.FILE_SYSTEM_ERROR);
+                }
+                return;
+            }
+        }
 
         // Give the transfer message
         publish(OUT_DIRECTION + client.getClientId() + FILE_URL_DOWNLOAD_STATUS,
                 new UrlStatus(urlInit.getFileUrl(), FileTransferStatus.FILE_TRANSFER));
 
         // Create the session
-        if (this.urlFileDownloader == null) {
-            urlFileDownloadSession = new UrlFileDownloadSession(urlInit, (status, fileName, error) -> {
-                handleUrlSessionFinish(urlFileDownloadSession, status, fileName, error);
-
-                if (callback != null) {
-                    callback.onFinish(status, fileName, error);
-                }
-
-                urlFileDownloadSession = null;
-            });
-        } else {
-            urlFileDownloadSession = new UrlFileDownloadSession(urlInit, (status, fileName, error) -> {
-                handleUrlSessionFinish(urlFileDownloadSession, status, fileName, error);
-
-                if (callback != null) {
-                    callback.onFinish(status, fileName, error);
-                }
+        final List<UrlFileDownloadSession.Callback> callbacks = new ArrayList<>();
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+        urlDownloadCallbacks.put(fileUrl, callbacks);
+        urlFileDownloadSessions.put(fileUrl, new UrlFileDownloadSession(urlInit, (status, fileName, error) -> {
+            final UrlFileDownloadSession session;
+            synchronized (this) {
+                session = urlFileDownloadSessions.remove(fileUrl);
+                urlDownloadCallbacks.remove(fileUrl);
+            }
+            handleUrlSessionFinish(session, status, fileName, error);
 
-                urlFileDownloadSession = null;
-            }, urlFileDownloader);
-        }
+            for (UrlFileDownloadSession.Callback waiting : callbacks) {
+                waiting.onFinish(status, fileName, error);
+            }
+        }, urlFileDownloader, executor, file));
     }
 
     /**
@@ -389,22 +736,23 @@ public class FileManagementProtocol {
      */
     void handleUrlDownloadAbort(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
-        // Null check the session
-        if (urlFileDownloadSession == null) {
+        // Check there are sessions
+        if (urlFileDownloadSessions.isEmpty()) {
             LOG.warn("Received URL download abort while session is not running.");
             return;
         }
 
-        // Parse the payload, and check its validity
+        // Parse the payload, and find the session
         String fileUrl = JsonUtil.deserialize(message, String.class);
-        if (!fileUrl.equals(urlFileDownloadSession.getInitMessage().getFileUrl())) {
+        final UrlFileDownloadSession session = urlFileDownloadSessions.get(fileUrl);
+        if (session == null) {
             LOG.warn("Received URL download abort for non-matching URL paths.");
             return;
         }
 
         // Abort the message
         LOG.info("Received request to abort URL file download. Aborting...");
-        urlFileDownloadSession.abort();
+        session.abort();
     }
 
     /**
@@ -430,22 +778,33 @@ public class FileManagementProtocol {
         }
 
         try {
-            // Make the file
-            management.createFile(session.getFileData(), session.getFileName());
+            // Move the streamed file into place, or make the file from the data in memory
+            if (session.getFile() != null && Files.exists(session.getFile())) {
+                management.moveFile(session.getFile(), session.getFileName(), session.getFileHash());
+            } else {
+                management.createFile(session.getFileData(), session.getFileName());
+            }
 
             // Announce the status for good status, and save the data from file, and publish the file list now.
             UrlStatus statusMessage = new UrlStatus(session.getInitMessage().getFileUrl(), fileName, FileTransferStatus.FILE_READY);
             publish(OUT_DIRECTION + client.getClientId() + FILE_URL_DOWNLOAD_STATUS, statusMessage);
             LOG.info("Reporting URL file download as successful. Downloaded file '" + session.getFileName() + "'.");
         } catch (IOException exception) {
+            if (session.getFile() != null) {
+                try {
+                    Files.deleteIfExists(session.getFile());
+                } catch (IOException deleteException) {
+                    LOG.warn("Unable to delete the downloaded file: " + deleteException.getMessage());
+                }
+            }
             // Announce a file system error has occurred
             publish(OUT_DIRECTION + client.getClientId() + FILE_URL_DOWNLOAD_STATUS,
-                    new FileStatus(session.getInitMessage().getFileUrl(),
-                            FileTransferStatus.ERROR, FileTransferError.FILE_SYSTEM_ERROR));
+                    new UrlStatus(session.getInitMessage().getFileUrl(), FileTransferStatus.ERROR, fileName,
+                            FileTransferError.FILE_SYSTEM_ERROR));
             LOG.info("Reporting URL file download as '" + FileTransferStatus.ERROR +
                     "' with error '" + FileTransferError.FILE_SYSTEM_ERROR + "'.");
         } finally {
-            publishFileList();
+            publishFileListChanges();
         }
     }
 
@@ -469,7 +828,7 @@ public class FileManagementProtocol {
             management.deleteFile(file);
         }
 
-        publishFileList();
+        publishFileListChanges();
     }
 
     /**
@@ -486,7 +845,7 @@ public class FileManagementProtocol {
         LOG.info("Received request to purge file list. Purging...");
         management.purgeDirectory();
 
-        publishFileList();
+        publishFileListChanges();
     }
 
     /**
@@ -495,29 +854,110 @@ public class FileManagementProtocol {
     void handleFileListRequest(String topic, MqttMessage message) {
         logReceivedMqttMessage(topic, message);
         LOG.info("Received request for the file list. Responding...");
-        publishFileList();
+        publishFileList(fileListPageSize);
     }
 
     /**
      * This is the method that is used to capture the file list and send it.
      */
     public void publishFileList() {
-        // Stored values;
-        List<FileInformation> payload;
+        publishFileList(0);
+    }
+
+    /**
+     * Sends the file list, in pages of the given size if it is longer, or in a single message with 0.
+     */
+    private void publishFileList(int pageSize) {
+        synchronized (fileListLock) {
+            final List<FileInformation> payload = listFiles();
+            if (payload == null) {
+                return;
+            }
+
+            LOG.trace("Created payload to announce '" + payload + "'.");
+
+            // Send everything, in pages if it is too long
+            if (pageSize == 0 || payload.size() <= pageSize) {
+                publish(OUT_DIRECTION + client.getClientId() + FILE_LIST, payload);
+            } else {
+                final int pages = (payload.size() + pageSize - 1) / pageSize;
+                for (int page = 0; page < pages; page++) {
+                    final List<FileInformation> files = payload.subList(page * pageSize,
+                            Math.min(payload.size(), (page + 1) * pageSize));
+                    publish(OUT_DIRECTION + client.getClientId() + FILE_LIST,
+                            new FileListPage(page + 1, pages, files));
+                }
+            }
 
-        // Acquire all the files
+            // Remember what was published, to find the changes later
+            publishedFiles = null;
+            if (fileListDeltas) {
+                publishedFiles = new HashMap<>();
+                for (FileInformation file : payload) {
+                    publishedFiles.put(file.getFileName(), file);
+                }
+            }
+        }
+    }
+
+    /**
+     * This is the method that is used to announce the file list after files were changed. If only the changes are
+     * published, they are found by comparing the files with the ones last published.
+     */
+    void publishFileListChanges() {
+        synchronized (fileListLock) {
+            if (!fileListDeltas || publishedFiles == null) {
+                publishFileList();
+                return;
+            }
+
+            final List<FileInformation> payload = listFiles();
+            if (payload == null) {
+                return;
+            }
+
+            final List<FileInformation> added = new ArrayList<>();
+            final List<FileInformation> changed = new ArrayList<>();
+            final Map<String, FileInformation> files = new HashMap<>();
+            for (FileInformation file : payload) {
+                files.put(file.getFileName(), file);
+                final FileInformation published = publishedFiles.get(file.getFileName());
+                if (published == null) {
+                    added.add(file);
+                } else if (published.getSize() != file.getSize()
+                        || !Objects.equals(published.getHash(), file.getHash())) {
+                    changed.add(file);
+                }
+            }
+
+            final List<String> removed = new ArrayList<>();
+            for (String name : publishedFiles.keySet()) {
+                if (!files.containsKey(name)) {
+                    removed.add(name);
+                }
+            }
+
+            publishedFiles = files;
+            final FileListUpdate update = new FileListUpdate(added, changed, removed);
+            if (update.isEmpty()) {
+                LOG.debug("The file list did not change, nothing to announce.");
+                return;
+            }
+
+            LOG.trace("Created payload to announce '" + update + "'.");
+            publish(OUT_DIRECTION + client.getClientId() + FILE_LIST_UPDATE, update);
+        }
+    }
+
+    private List<FileInformation> listFiles() {
         try {
-            payload = management.listAllFiles();
+            final List<FileInformation> payload = management.listAllFiles();
             LOG.trace("Peeked the file system to find files, found " + payload.size() + " files.");
+            return payload;
         } catch (IOException exception) {
             LOG.error("Error occurred during reading of folder contents.", exception);
-            return;
+            return null;
         }
-
-        LOG.trace("Created payload to announce '" + payload + "'.");
-
-        // Send everything
-        publish(OUT_DIRECTION + client.getClientId() + FILE_LIST, payload);
     }
 
     /**
@@ -532,14 +972,19 @@ public class FileManagementProtocol {
     }
 
     /**
-     * This is a utility method that returns whether or not some session is ongoing.
+     * This is a utility method that returns whether no more sessions can be started.
      *
-     * @return Returns true if some session is ongoing.
+     * @return Returns true if the running and queued sessions reached the limit.
      */
-    private boolean isSessionRunning() {
-        LOG.trace("FileDownloadSession: " + (fileDownloadSession != null) + "\n" +
-                "UrlFileDownloadSession: " + (urlFileDownloadSession != null));
-        return fileDownloadSession != null || urlFileDownloadSession != null;
+    private synchronized boolean isTransferLimitReached() {
+        LOG.trace("FileDownloadSessions: " + fileDownloadSessions.size() + ", queued: " + queuedTransfers.size() +
+                "\nUrlFileDownloadSessions: " + urlFileDownloadSessions.size());
+        return fileDownloadSessions.size() + queuedTransfers.size() + urlFileDownloadSessions.size()
+                >= maxConcurrentTransfers;
+    }
+
+    private synchronized boolean hasQueuedTransfers() {
+        return !queuedTransfers.isEmpty();
     }
 
     /**
@@ -551,7 +996,7 @@ public class FileManagementProtocol {
     private void publish(String topic, Object payload) {
         try {
             LOG.debug("Publishing to '" + topic + "' payload: " + new String(JsonUtil.serialize(payload), StandardCharsets.UTF_8));
-            client.publish(topic, JsonUtil.serialize(payload), QOS, false);
+            client.publish(topic, JsonUtil.serialize(payload), qosPolicy.qosFor(QosPolicy.MessageClass.FILE_TRANSFER), false);
         } catch (MqttException e) {
             final String message = "MQTT error occurred while publishing a message to topic : '" +
                     topic + "' with payload: '" + payload + "'.";
@@ -17,21 +17,36 @@
 package com.wolkabout.wolk.filemanagement;
 
 import com.wolkabout.wolk.filemanagement.model.device2platform.FileInformation;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.DatatypeConverter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This is a class that contains all the information and logic about the file system,
@@ -42,19 +57,47 @@ public class FileSystemManagement {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileSystemManagement.class);
     public static final String FIRMWARE_VERSION_FILE = "version.rcrd";
+    /**
+     * Directory inside the folder where incoming files are written until they are complete.
+     */
+    public static final String TRANSFER_DIRECTORY = ".transfer";
+    /**
+     * File inside the transfer directory where the hashes of the files in the folder are kept.
+     */
+    public static final String HASH_INDEX_FILE = "hashes.json";
 
     // Constants
     private static final String SEPARATOR = "/";
+    private static final int HASHING_BUFFER_SIZE = 256 * 1024;
     // Given arguments
     private final File folder;
+    private final FileHashIndex hashIndex;
+    // The entries of the folder by name, kept in sync with the folder
+    private final Map<String, File> index = new ConcurrentHashMap<>();
+    private final WatchService watchService;
+    // The pool hashing several files at the same time, or null to hash them one by one
+    private volatile ForkJoinPool hashingPool;
 
     /**
      * The default constructor for the class. The given path needs to be a path to a folder where this manager
      * will work. In this folder, all the files received will be stored, files will be listed, and deleted/purged.
+     * The folder is read once, and the files that are not in the index are looked up in the folder.
      *
      * @param folderPath The absolute/relative path to the folder where the manager will work.
      */
     public FileSystemManagement(String folderPath) throws IllegalArgumentException {
+        this(folderPath, null);
+    }
+
+    /**
+     * Same as {@link #FileSystemManagement(String)}, but also watches the folder for changes on the given executor,
+     * so the index follows the files added and deleted by others. The watch keeps one of the executor threads
+     * until {@link #close()} is called.
+     *
+     * @param folderPath The absolute/relative path to the folder where the manager will work.
+     * @param executor   The executor watching the folder, or null to not watch it.
+     */
+    public FileSystemManagement(String folderPath, ExecutorService executor) throws IllegalArgumentException {
         // Give it a new `File` instance and check whether the path is a valid directory path
         this.folder = new File(folderPath);
         if (!this.folder.isDirectory()) {
@@ -62,12 +105,15 @@ public class FileSystemManagement {
                 throw new IllegalArgumentException("Path given as argument is not a valid directory path.");
             }
         }
+        this.hashIndex = new FileHashIndex(this.folder.toPath().resolve(TRANSFER_DIRECTORY).resolve(HASH_INDEX_FILE));
+        rebuildIndex();
+        this.watchService = executor != null ? watchFolder(executor) : null;
         LOG.debug("Initialized file system management for absolute path '" + this.folder.getAbsolutePath() + "'.");
     }
 
     /**
      * This is the method used to list all the files found in the path given to the Management instance. This will list
-     * only name of all files, and no folders.
+     * only name of all files, and no folders. Only the files that changed since they were last listed are hashed.
      *
      * @return List of all direct file names as an ArrayList.
      */
@@ -75,47 +121,64 @@ public class FileSystemManagement {
         // Create the list where to store all the file names
         LOG.debug("Peeking the file system for all files.");
         ArrayList<FileInformation> files = new ArrayList<>();
+        final List<File> regularFiles = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        final Set<String> entries = new HashSet<>();
 
         try {
-            // List through all the files
+            // List through all the files, and bring the index up to date while at it
             for (File file : Objects.requireNonNull(folder.listFiles())) {
+                index.put(file.getName(), file);
+                entries.add(file.getName());
                 if (file.getName().equals(FIRMWARE_VERSION_FILE)) {
                     continue;
                 }
 
                 if (file.isFile()) {
-                    long size = file.length();
-
-                    MessageDigest md = MessageDigest.getInstance("MD5");
-                    ;
-
-                    try (InputStream is = Files.newInputStream(file.toPath());
-                         DigestInputStream dis = new DigestInputStream(is, md)) {
-
-
-                        byte[] buf = new byte[20480];
-                        while (dis.read(buf) != -1) {
-                            ; //digest is updating
-                        }
-
-                        byte[] digest = md.digest();
-
-                        String hash = DatatypeConverter.printHexBinary(digest);
-
-                        files.add(new FileInformation(file.getName(), size, hash));
-                    }
+                    regularFiles.add(file);
+                    names.add(file.getName());
                 }
             }
-        } catch (NullPointerException | NoSuchAlgorithmException exception) {
+        } catch (NullPointerException exception) {
             LOG.error(exception.getLocalizedMessage());
             throw new IOException("Could not read folder contents.");
         }
 
+        final String[] hashes = hashFiles(regularFiles);
+        for (int i = 0; i < hashes.length; i++) {
+            final File file = regularFiles.get(i);
+            files.add(new FileInformation(file.getName(), file.length(), hashes[i]));
+        }
+
+        index.keySet().retainAll(entries);
+        hashIndex.retain(names);
+        hashIndex.save();
+
         // Return all the names
         LOG.debug("Found " + files.size() + " files.");
         return files;
     }
 
+    /**
+     * This is the method used to set how many files can be hashed at the same time when the files are listed.
+     * Only the files that changed since they were last listed are hashed, so this mostly matters for the first
+     * listing of a large folder. Defaults to 1, hashing the files one by one.
+     *
+     * @param parallelism The number of threads hashing the files.
+     */
+    public synchronized void setHashingParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Hashing parallelism must be at least 1.");
+        }
+
+        final ForkJoinPool previous = hashingPool;
+        hashingPool = parallelism > 1 ? new ForkJoinPool(parallelism, FileSystemManagement::newHashingThread,
+                null, false) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
     /**
      * This is the method used to check in the contents of our folder, whether a file with passed name can be found.
      *
@@ -123,14 +186,7 @@ public class FileSystemManagement {
      * @return True if file exists, false if it does not.
      */
     public boolean fileExists(String fileName) {
-        // List through all the files
-        for (File file : Objects.requireNonNull(folder.listFiles())) {
-            if (file.getName().equals(fileName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return getFile(fileName) != null;
     }
 
 
@@ -142,16 +198,41 @@ public class FileSystemManagement {
      * @return The instance of File we are looking for.
      */
     public File getFile(String fileName) {
-        // List through all the files
-        for (File file : Objects.requireNonNull(folder.listFiles())) {
-            if (file.getName().equals(fileName)) {
-                return file;
-            }
+        final File file = index.get(fileName);
+        if (file != null && file.exists()) {
+            return file;
         }
 
+        // The index may not follow the changes made from the outside yet, so the folder is checked
+        final File candidate = new File(folder, fileName);
+        if (candidate.exists()) {
+            index.put(fileName, candidate);
+            return candidate;
+        }
+        if (file != null) {
+            index.remove(fileName, file);
+        }
         return null;
     }
 
+    /**
+     * This is the method used to obtain the MD5 hash of a file found in the folder. The hash is only calculated
+     * if the file changed since it was last hashed.
+     *
+     * @param fileName The name for the file we are looking for.
+     * @return The hash as upper case hex, or null if the file does not exist.
+     */
+    public String getFileHash(String fileName) throws IOException {
+        final File file = getFile(fileName);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        final String hash = hashIndex.hash(file.toPath());
+        hashIndex.save();
+        return hash;
+    }
+
     /**
      * This is the method used to add a new already existing folder to the directory.
      *
@@ -161,7 +242,13 @@ public class FileSystemManagement {
     public boolean addFile(File newFile) {
         LOG.debug("Attempting to add an existing file '" + newFile.getName() +
                 "'@'" + newFile.getAbsolutePath() + "'.");
-        return newFile.renameTo(new File(folder.getAbsolutePath() + SEPARATOR + newFile.getName()));
+        hashIndex.remove(newFile.getName());
+        final File target = new File(folder.getAbsolutePath() + SEPARATOR + newFile.getName());
+        if (!newFile.renameTo(target)) {
+            return false;
+        }
+        index.put(target.getName(), target);
+        return true;
     }
 
     /**
@@ -173,8 +260,11 @@ public class FileSystemManagement {
      */
     public boolean createFile(byte[] bytes, String fileName) throws IOException {
         LOG.debug("Attempting to create file '" + fileName + "' with " + bytes.length + " bytes.");
-        try (FileOutputStream stream = new FileOutputStream(folder.getAbsolutePath() + SEPARATOR + fileName)) {
+        hashIndex.remove(fileName);
+        final File file = new File(folder.getAbsolutePath() + SEPARATOR + fileName);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
             stream.write(bytes);
+            index.put(file.getName(), file);
             return true;
         } catch (IOException exception) {
             LOG.error(exception.getLocalizedMessage());
@@ -182,6 +272,71 @@ public class FileSystemManagement {
         }
     }
 
+    /**
+     * This is the method used to create an empty file in the transfer directory, where an incoming file is written
+     * until it is complete. The transfer directory is inside the folder, so the file can be moved into place
+     * with {@link #moveFile(Path, String)} without copying it.
+     *
+     * @return Path to the new file.
+     */
+    public Path createTransferFile() throws IOException {
+        final Path directory = folder.toPath().resolve(TRANSFER_DIRECTORY);
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, "transfer-", ".part");
+    }
+
+    /**
+     * This is the method used to find the file in the transfer directory where the given incoming file is written.
+     * The path is always the same for the same file name, so an interrupted transfer can continue in the same file.
+     *
+     * @param fileName The name of the incoming file.
+     * @return Path to the file, which may not exist yet.
+     */
+    public Path getTransferFile(String fileName) throws IOException {
+        final Path directory = folder.toPath().resolve(TRANSFER_DIRECTORY);
+        Files.createDirectories(directory);
+        return directory.resolve("transfer-" + DigestUtils.sha256Hex(fileName) + ".part");
+    }
+
+    /**
+     * This is the method used to move a complete file into the folder, replacing any file with the same name.
+     *
+     * @param source   The path to the complete file.
+     * @param fileName The name of the file in the folder.
+     * @return Success status of the operation.
+     */
+    public boolean moveFile(Path source, String fileName) throws IOException {
+        return moveFile(source, fileName, null);
+    }
+
+    /**
+     * This is the method used to move a complete file into the folder, replacing any file with the same name,
+     * when its hash is already known, so it does not need to be calculated for the file list.
+     *
+     * @param source   The path to the complete file.
+     * @param fileName The name of the file in the folder.
+     * @param fileHash The MD5 hash of the file as hex, or null if it is not known.
+     * @return Success status of the operation.
+     */
+    public boolean moveFile(Path source, String fileName, String fileHash) throws IOException {
+        LOG.debug("Attempting to move file '" + source + "' into the folder as '" + fileName + "'.");
+        final Path target = folder.toPath().resolve(fileName);
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        index.put(fileName, target.toFile());
+
+        if (fileHash != null) {
+            hashIndex.put(target, fileHash);
+        } else {
+            hashIndex.remove(fileName);
+        }
+        hashIndex.save();
+        return true;
+    }
+
     /**
      * This is the method used to delete a single file that can be found in the directory.
      *
@@ -191,14 +346,14 @@ public class FileSystemManagement {
     public boolean deleteFile(String fileName) {
         // Iterate through all the files
         LOG.debug("Attempting to delete file '" + fileName + "' from the file system.");
-        for (File file : Objects.requireNonNull(folder.listFiles())) {
-            if (file.getName().equals(fileName)) {
-                return file.delete();
-            }
+        final File file = getFile(fileName);
+        if (file == null || !file.delete()) {
+            return false;
         }
 
-        // If nothing happened, just return false
-        return false;
+        index.remove(fileName);
+        hashIndex.remove(fileName);
+        return true;
     }
 
     /**
@@ -213,13 +368,192 @@ public class FileSystemManagement {
 
         // Iterate through all the files
         for (File file : Objects.requireNonNull(folder.listFiles())) {
+            if (TRANSFER_DIRECTORY.equals(file.getName())) {
+                continue;
+            }
+
             if (!file.delete()) {
                 LOG.warn("Failed to delete file '" + file.getName() + "' while purging directory.");
                 failures = true;
+            } else {
+                index.remove(file.getName());
+                hashIndex.remove(file.getName());
             }
         }
 
         // Return the status
         return !failures;
     }
+
+    /**
+     * This is the method used to stop watching the folder for changes, and to stop the threads hashing the files.
+     * Files can still be looked up after this, and are hashed one by one.
+     */
+    public void close() {
+        synchronized (this) {
+            final ForkJoinPool pool = hashingPool;
+            hashingPool = null;
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        } catch (IOException exception) {
+            LOG.warn("Failed to stop watching the folder: " + exception.getMessage());
+        }
+    }
+
+    private void rebuildIndex() {
+        final File[] entries = folder.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        final Set<String> names = new HashSet<>();
+        for (File file : entries) {
+            index.put(file.getName(), file);
+            names.add(file.getName());
+        }
+        index.keySet().retainAll(names);
+    }
+
+    private WatchService watchFolder(ExecutorService executor) {
+        WatchService service = null;
+        try {
+            service = folder.toPath().getFileSystem().newWatchService();
+            folder.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+
+            final WatchService watched = service;
+            executor.execute(() -> watch(watched));
+            return service;
+        } catch (IOException | UnsupportedOperationException | RejectedExecutionException exception) {
+            LOG.warn("Unable to watch the folder for changes: " + exception.getMessage());
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException closeException) {
+                    LOG.debug("Failed to close the folder watch: " + closeException.getMessage());
+                }
+            }
+            return null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                final WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rebuildIndex();
+                        continue;
+                    }
+
+                    // The event may be older than a change made in between, so the file is checked again
+                    final String name = event.context().toString();
+                    final File file = new File(folder, name);
+                    if (file.exists()) {
+                        index.put(name, file);
+                    } else {
+                        index.remove(name);
+                    }
+                }
+
+                if (!key.reset()) {
+                    LOG.warn("The folder is no longer watched for changes.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            LOG.debug("Stopped watching the folder for changes.");
+        }
+    }
+
+    private static ForkJoinWorkerThread newHashingThread(ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread = new HashingThread(pool);
+        thread.setName("wolk-hasher-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    private String[] hashFiles(List<File> files) throws IOException {
+        final String[] hashes = new String[files.size()];
+        final ForkJoinPool pool = hashingPool;
+        if (pool == null || files.size() < 2) {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = hashIndex.hash(files.get(i).toPath());
+            }
+            return hashes;
+        }
+
+        try {
+            pool.invoke(new HashTask(files, hashes, 0, files.size()));
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        return hashes;
+    }
+
+    /**
+     * This is a private class that hashes a range of files, splitting it in halves until a single file is left,
+     * so the pool can balance large and small files between its threads.
+     */
+    private class HashTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final String[] hashes;
+        private final int from;
+        private final int to;
+
+        private HashTask(List<File> files, String[] hashes, int from, int to) {
+            this.files = files;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                final Thread thread = Thread.currentThread();
+                final ByteBuffer buffer = thread instanceof HashingThread ? ((HashingThread) thread).buffer() : null;
+                try {
+                    hashes[from] = hashIndex.hash(files.get(from).toPath(), buffer);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(files, hashes, from, middle), new HashTask(files, hashes, middle, to));
+        }
+    }
+
+    /**
+     * This is a private class that represents a thread of the hashing pool, which reads the files into a direct
+     * buffer of its own. The buffer is released with the thread, once the pool is shut down or the thread is idle.
+     */
+    private static class HashingThread extends ForkJoinWorkerThread {
+
+        private ByteBuffer buffer;
+
+        private HashingThread(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        private ByteBuffer buffer() {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(HASHING_BUFFER_SIZE);
+            }
+            return buffer;
+        }
+    }
 }
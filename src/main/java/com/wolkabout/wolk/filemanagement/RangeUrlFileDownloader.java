@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.wolkabout.wolk.filemanagement.model.FileTransferError;
+import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import com.wolkabout.wolk.util.ExecutorProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This is a URL file downloader that downloads parts of the file over several connections at the same time, when the
+ * server supports byte range requests. Every part is written into its place in the file as it arrives.
+ * If the server does not support ranges, or the file is small, it is downloaded over a single connection.
+ */
+public class RangeUrlFileDownloader implements UrlFileDownloader, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeUrlFileDownloader.class);
+    private static final int BUFFER_SIZE = 16384;
+    private static final long DEFAULT_MINIMUM_SEGMENT_SIZE = 1024 * 1024;
+
+    private final int connections;
+    private final long minimumSegmentSize;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * The connections run on a thread pool of the downloader, which is shut down by {@link #close()}.
+     * The Wolk instance given this downloader closes it when it is closed.
+     *
+     * @param connections The largest number of connections used for a single file.
+     */
+    public RangeUrlFileDownloader(int connections) {
+        this(connections, DEFAULT_MINIMUM_SEGMENT_SIZE,
+                Executors.newCachedThreadPool(new ExecutorProvider.NamedThreadFactory("wolk-download-")), true);
+    }
+
+    /**
+     * @param connections        The largest number of connections used for a single file.
+     * @param minimumSegmentSize The smallest number of bytes downloaded over a single connection.
+     * @param executor           The executor that runs the connections. It is not shut down by {@link #close()}.
+     */
+    public RangeUrlFileDownloader(int connections, long minimumSegmentSize, ExecutorService executor) {
+        this(connections, minimumSegmentSize, executor, false);
+    }
+
+    private RangeUrlFileDownloader(int connections, long minimumSegmentSize, ExecutorService executor,
+                                   boolean ownsExecutor) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("The number of connections must be at least 1.");
+        }
+        if (minimumSegmentSize < 1) {
+            throw new IllegalArgumentException("The minimum segment size must be at least 1.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor can not be null.");
+        }
+
+        this.connections = connections;
+        this.minimumSegmentSize = minimumSegmentSize;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Stops the thread pool of the downloader, if it created one. Downloads running at the time fail.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public UrlFileDownloadResult downloadFile(String fileUrl) {
+        LOG.error("Unable to download '" + fileUrl + "', the downloader was not given a file to write into.");
+        return new UrlFileDownloadResult(FileTransferError.FILE_SYSTEM_ERROR);
+    }
+
+    @Override
+    public UrlFileDownloadResult downloadFile(String fileUrl, Path file) {
+        try {
+            final URL url = new URL(fileUrl);
+            final String fileName = UrlFileDownloadSession.fileNameOf(fileUrl);
+
+            final RangeSupport rangeSupport = probe(url);
+            final int segments = rangeSupport == null ? 1
+                    : (int) Math.min(connections, rangeSupport.length / minimumSegmentSize);
+            if (segments < 2) {
+                LOG.debug("Downloading '" + fileUrl + "' over a single connection.");
+                return new UrlFileDownloadResult(FileTransferStatus.FILE_READY, fileName,
+                        UrlFileDownloadSession.streamToFile(url.openConnection(), file));
+            }
+
+            LOG.debug("Downloading '" + fileUrl + "' over " + segments + " connections.");
+            downloadSegments(url, rangeSupport, segments, file);
+            return new UrlFileDownloadResult(FileTransferStatus.FILE_READY, fileName);
+        } catch (MalformedURLException exception) {
+            return new UrlFileDownloadResult(FileTransferError.MALFORMED_URL);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return new UrlFileDownloadResult(FileTransferError.UNKNOWN);
+        } catch (Exception exception) {
+            LOG.warn("Failed to download '" + fileUrl + "': " + exception.getMessage());
+            return new UrlFileDownloadResult(FileTransferError.UNKNOWN);
+        }
+    }
+
+    /**
+     * Asks the server for the size of the file, and whether it can return parts of it.
+     *
+     * @return The size and the validator of the file, or null if ranges are not supported.
+     */
+    private RangeSupport probe(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+
+        final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        try {
+            httpConnection.setRequestMethod("HEAD");
+            if (httpConnection.getResponseCode() != HttpURLConnection.HTTP_OK
+                    || !"bytes".equalsIgnoreCase(httpConnection.getHeaderField("Accept-Ranges"))
+                    || httpConnection.getContentLengthLong() <= 0) {
+                return null;
+            }
+
+            // Parts of a file that changed in between must not be mixed, so they are requested with If-Range
+            String validator = httpConnection.getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = httpConnection.getHeaderField("Last-Modified");
+            }
+            return new RangeSupport(httpConnection.getContentLengthLong(), validator);
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    private void downloadSegments(URL url, RangeSupport rangeSupport, int segments, Path file)
+            throws IOException, InterruptedException, ExecutionException {
+        final long segmentSize = (rangeSupport.length + segments - 1) / segments;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Allocate the whole file up front, the parts are written in any order
+            channel.write(ByteBuffer.wrap(new byte[1]), rangeSupport.length - 1);
+
+            final List<Future<Void>> parts = new ArrayList<>();
+            for (long start = 0; start < rangeSupport.length; start += segmentSize) {
+                final long first = start;
+                final long last = Math.min(rangeSupport.length, start + segmentSize) - 1;
+                parts.add(executor.submit(() -> {
+                    downloadRange(url, rangeSupport.validator, channel, first, last);
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<Void> part : parts) {
+                    part.get();
+                }
+            } finally {
+                for (Future<Void> part : parts) {
+                    part.cancel(true);
+                }
+            }
+
+            channel.force(false);
+        }
+    }
+
+    private static void downloadRange(URL url, String validator, FileChannel channel, long first, long last)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+            if (validator != null) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server responded with " + connection.getResponseCode() +
+                        " to the request for bytes " + first + "-" + last + ".");
+            }
+
+            try (ReadableByteChannel source = Channels.newChannel(connection.getInputStream())) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = first;
+                while (position <= last) {
+                    buffer.limit((int) Math.min(buffer.capacity(), last + 1 - position));
+                    if (source.read(buffer) == -1) {
+                        throw new IOException("The response for bytes " + first + "-" + last +
+                                " ended at byte " + position + ".");
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static class RangeSupport {
+
+        private final long length;
+        private final String validator;
+
+        private RangeSupport(long length, String validator) {
+            this.length = length;
+            this.validator = validator;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wolkabout.wolk.filemanagement.model.FileTransferError;
+import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import com.wolkabout.wolk.util.JsonUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * This is a URL file downloader that keeps the downloaded files in a cache directory.
+ * <p>
+ * A download that is interrupted is continued with a range request, after waiting for a while, a few times.
+ * A file that is already in the cache is requested with its ETag and Last-Modified values, and is not downloaded
+ * again if the server reports it has not changed. Only the last version of every URL is kept.
+ */
+public class ResumableUrlFileDownloader implements UrlFileDownloader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResumableUrlFileDownloader.class);
+    private static final int BUFFER_SIZE = 16384;
+    private static final int DEFAULT_MAX_RETRY = 5;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    private final Path cacheDirectory;
+    private final int maxRetry;
+    private final long retryDelayMillis;
+
+    /**
+     * @param cacheDirectory The directory where the downloaded files are kept.
+     */
+    public ResumableUrlFileDownloader(Path cacheDirectory) {
+        this(cacheDirectory, DEFAULT_MAX_RETRY, DEFAULT_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * @param cacheDirectory   The directory where the downloaded files are kept.
+     * @param maxRetry         How many times an interrupted download is continued before it fails.
+     * @param retryDelayMillis The time to wait before continuing the download, doubled after every attempt.
+     */
+    public ResumableUrlFileDownloader(Path cacheDirectory, int maxRetry, long retryDelayMillis) {
+        if (cacheDirectory == null) {
+            throw new IllegalArgumentException("The cache directory can not be null.");
+        }
+        if (maxRetry < 0) {
+            throw new IllegalArgumentException("The number of retries can not be negative.");
+        }
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("The retry delay can not be negative.");
+        }
+
+        this.cacheDirectory = cacheDirectory;
+        this.maxRetry = maxRetry;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    @Override
+    public UrlFileDownloadResult downloadFile(String fileUrl) {
+        LOG.error("Unable to download '" + fileUrl + "', the downloader was not given a file to write into.");
+        return new UrlFileDownloadResult(FileTransferError.FILE_SYSTEM_ERROR);
+    }
+
+    @Override
+    public UrlFileDownloadResult downloadFile(String fileUrl, Path file) {
+        final URL url;
+        try {
+            url = new URL(fileUrl);
+        } catch (MalformedURLException exception) {
+            return new UrlFileDownloadResult(FileTransferError.MALFORMED_URL);
+        }
+
+        final String key = DigestUtils.sha256Hex(fileUrl);
+        final Path data = cacheDirectory.resolve(key + ".bin");
+        final Path entryPath = cacheDirectory.resolve(key + ".json");
+        try {
+            Files.createDirectories(cacheDirectory);
+            CacheEntry entry = CacheEntry.load(entryPath);
+            if (entry == null || !fileUrl.equals(entry.url) || !Files.exists(data)) {
+                entry = new CacheEntry(fileUrl);
+                Files.deleteIfExists(data);
+            }
+
+            long delay = retryDelayMillis;
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    download(url, data, entry, entryPath);
+                    break;
+                } catch (IOException exception) {
+                    if (attempt >= maxRetry) {
+                        throw exception;
+                    }
+                    LOG.warn("Download of '" + fileUrl + "' was interrupted (" + exception.getMessage() +
+                            "), continuing in " + delay + "ms.");
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+                }
+            }
+
+            copyToFile(data, file);
+            return new UrlFileDownloadResult(FileTransferStatus.FILE_READY, UrlFileDownloadSession.fileNameOf(fileUrl),
+                    entry.hash);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return new UrlFileDownloadResult(FileTransferError.UNKNOWN);
+        } catch (Exception exception) {
+            LOG.warn("Failed to download '" + fileUrl + "': " + exception.getMessage());
+            return new UrlFileDownloadResult(FileTransferError.UNKNOWN);
+        }
+    }
+
+    /**
+     * Brings the cached file up to date. A complete file is validated with a conditional request, and a partial one
+     * is continued with a range request. The progress is saved as the data arrives, so it survives a failure.
+     */
+    private void download(URL url, Path data, CacheEntry entry, Path entryPath) throws IOException {
+        final URLConnection connection = url.openConnection();
+        final HttpURLConnection httpConnection =
+                connection instanceof HttpURLConnection ? (HttpURLConnection) connection : null;
+        final long offset = Files.exists(data) ? Files.size(data) : 0;
+
+        if (httpConnection != null && entry.hasValidator()) {
+            if (entry.complete) {
+                setHeader(httpConnection, "If-None-Match", entry.etag);
+                setHeader(httpConnection, "If-Modified-Since", entry.lastModified);
+            } else if (offset > 0) {
+                httpConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+                httpConnection.setRequestProperty("If-Range", entry.etag != null ? entry.etag : entry.lastModified);
+            }
+        }
+
+        try {
+            final int code = httpConnection != null ? httpConnection.getResponseCode() : HttpURLConnection.HTTP_OK;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry.complete) {
+                LOG.debug("Cached file for '" + url + "' is up to date.");
+                return;
+            }
+            if (code == HttpURLConnection.HTTP_PARTIAL && !entry.complete && isContinuation(httpConnection, offset)) {
+                LOG.debug("Continuing download of '" + url + "' from byte " + offset + ".");
+                receive(connection, data, offset, entry, entryPath);
+                return;
+            }
+            if (code == HttpURLConnection.HTTP_PARTIAL || code == 416) {
+                // The partial file can not be continued, so the next attempt starts over
+                Files.deleteIfExists(data);
+                throw new IOException("Server responded with " + code + " to the range request.");
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server responded with " + code + ".");
+            }
+
+            // A new file, or a changed one, so start over
+            entry.reset(httpConnection);
+            entry.save(entryPath);
+            receive(connection, data, 0, entry, entryPath);
+        } finally {
+            if (httpConnection != null) {
+                httpConnection.disconnect();
+            }
+        }
+    }
+
+    private void receive(URLConnection connection, Path data, long offset, CacheEntry entry, Path entryPath)
+            throws IOException {
+        final MessageDigest digest = md5();
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ)) {
+            channel.truncate(offset);
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            // The hash can not be saved mid-way, so the data received before is hashed again
+            long position = 0;
+            while (position < offset) {
+                final int read = channel.read(buffer, position);
+                if (read == -1) {
+                    break;
+                }
+                digest.update(buffer.array(), 0, read);
+                position += read;
+                buffer.clear();
+            }
+
+            try (ReadableByteChannel source = Channels.newChannel(connection.getInputStream())) {
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, buffer.limit());
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            }
+            channel.force(false);
+
+            if (entry.size > 0 && position != entry.size) {
+                throw new IOException("Received " + position + " of " + entry.size + " bytes.");
+            }
+        }
+
+        entry.complete = true;
+        entry.hash = DatatypeConverter.printHexBinary(digest.digest());
+        entry.save(entryPath);
+    }
+
+    private static boolean isContinuation(HttpURLConnection connection, long offset) {
+        final String range = connection.getHeaderField("Content-Range");
+        return range != null && range.startsWith("bytes " + offset + "-");
+    }
+
+    /**
+     * Places the cached file where the session expects it, as a link to the same data where possible.
+     */
+    private static void copyToFile(Path data, Path file) throws IOException {
+        Files.deleteIfExists(file);
+        try {
+            Files.createLink(file, data);
+        } catch (IOException | UnsupportedOperationException exception) {
+            Files.copy(data, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void setHeader(HttpURLConnection connection, String name, String value) {
+        if (value != null) {
+            connection.setRequestProperty(name, value);
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("MD5 is not available.", exception);
+        }
+    }
+
+    /**
+     * This class represents what is known about a cached file, saved next to it.
+     */
+    static class CacheEntry {
+
+        @JsonProperty("url")
+        private String url;
+
+        @JsonProperty("etag")
+        private String etag;
+
+        @JsonProperty("lastModified")
+        private String lastModified;
+
+        @JsonProperty("size")
+        private long size;
+
+        @JsonProperty("complete")
+        private boolean complete;
+
+        @JsonProperty("hash")
+        private String hash;
+
+        CacheEntry() {
+        }
+
+        CacheEntry(String url) {
+            this.url = url;
+        }
+
+        static CacheEntry load(Path path) {
+            if (!Files.exists(path)) {
+                return null;
+            }
+
+            try {
+                return JsonUtil.deserialize(new String(Files.readAllBytes(path), StandardCharsets.UTF_8),
+                        CacheEntry.class);
+            } catch (IOException | IllegalArgumentException exception) {
+                LOG.warn("Unable to read the cache entry '" + path + "': " + exception.getMessage());
+                return null;
+            }
+        }
+
+        void save(Path path) throws IOException {
+            final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temporary, JsonUtil.serialize(this));
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        void reset(HttpURLConnection connection) {
+            etag = null;
+            lastModified = null;
+            if (connection != null) {
+                final String tag = connection.getHeaderField("ETag");
+                etag = tag != null && !tag.startsWith("W/") ? tag : null;
+                lastModified = connection.getHeaderField("Last-Modified");
+                size = connection.getContentLengthLong();
+            } else {
+                size = -1;
+            }
+            complete = false;
+            hash = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+/**
+ * Retransmission timeout for chunk requests, calculated from a smoothed round trip time like in TCP (RFC 6298).
+ * Round trips of retransmitted requests are not sampled, as it is not known which request was answered.
+ */
+final class RetransmissionTimeout {
+
+    static final long INITIAL_MILLIS = 1000;
+    static final long MIN_MILLIS = 200;
+    static final long MAX_MILLIS = 60_000;
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int K = 4;
+    private static final double CLOCK_GRANULARITY_MILLIS = 1;
+
+    private double smoothedRtt;
+    private double rttVariation;
+    private boolean sampled;
+    private long timeout = INITIAL_MILLIS;
+
+    /**
+     * Updates the estimate with a measured round trip, and resets any backoff.
+     */
+    void sample(double rttMillis) {
+        if (!sampled) {
+            smoothedRtt = rttMillis;
+            rttVariation = rttMillis / 2;
+            sampled = true;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rttMillis);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rttMillis;
+        }
+
+        final double calculated = smoothedRtt + Math.max(CLOCK_GRANULARITY_MILLIS, K * rttVariation);
+        timeout = Math.min(MAX_MILLIS, Math.max(MIN_MILLIS, (long) Math.ceil(calculated)));
+    }
+
+    /**
+     * Doubles the timeout after it expired.
+     */
+    void backoff() {
+        timeout = Math.min(MAX_MILLIS, timeout * 2);
+    }
+
+    long millis() {
+        return timeout;
+    }
+
+    /**
+     * @return The smoothed round trip in milliseconds, or 0 if none was measured yet.
+     */
+    double smoothedRttMillis() {
+        return smoothedRtt;
+    }
+}
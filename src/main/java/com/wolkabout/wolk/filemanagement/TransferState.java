@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wolkabout.wolk.filemanagement.model.platform2device.FileInit;
+import com.wolkabout.wolk.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This class represents the progress of a file transfer, saved next to the file the data is written to,
+ * so the transfer can continue after a disconnect or a restart.
+ */
+class TransferState {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransferState.class);
+    private static final String EXTENSION = ".state";
+
+    @JsonProperty("name")
+    private String fileName;
+
+    @JsonProperty("size")
+    private long fileSize;
+
+    @JsonProperty("hash")
+    private String fileHash;
+
+    @JsonProperty("chunkSize")
+    private long chunkSize;
+
+    @JsonProperty("verifiedChunks")
+    private int verifiedChunks;
+
+    @JsonProperty("lastHash")
+    private String lastHash;
+
+    TransferState() {
+    }
+
+    TransferState(FileInit initMessage, long chunkSize) {
+        this.fileName = initMessage.getFileName();
+        this.fileSize = initMessage.getFileSize();
+        this.fileHash = initMessage.getFileHash();
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return Path of the state saved for the given transfer file.
+     */
+    static Path pathFor(Path transferFile) {
+        return transferFile.resolveSibling(transferFile.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Reads the saved state of a transfer.
+     *
+     * @return The state, or null if there is none, or it can not be read.
+     */
+    static TransferState load(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            return JsonUtil.deserialize(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), TransferState.class);
+        } catch (IOException | IllegalArgumentException exception) {
+            LOG.warn("Unable to read the state of the transfer from '" + path + "': " + exception.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the state next to the previous one, and replaces it, so a state is never partially written.
+     */
+    void save(Path path) throws IOException {
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temporary, JsonUtil.serialize(this));
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Whether the state belongs to the same file, transferred in chunks of the same size.
+     */
+    boolean matches(FileInit initMessage, long chunkSize) {
+        return this.chunkSize == chunkSize && fileSize == initMessage.getFileSize()
+                && fileName != null && fileName.equals(initMessage.getFileName())
+                && fileHash != null && fileHash.equalsIgnoreCase(initMessage.getFileHash());
+    }
+
+    int getVerifiedChunks() {
+        return verifiedChunks;
+    }
+
+    byte[] getLastHash() {
+        return lastHash == null ? new byte[0] : DatatypeConverter.parseHexBinary(lastHash);
+    }
+
+    void setProgress(int verifiedChunks, byte[] lastHash) {
+        this.verifiedChunks = verifiedChunks;
+        this.lastHash = DatatypeConverter.printHexBinary(lastHash);
+    }
+}
@@ -25,17 +25,27 @@ public class UrlFileDownloadResult {
     private final FileTransferStatus status;
     private final FileTransferError error;
     private final String fileName;
+    private final String fileHash;
 
     public UrlFileDownloadResult(FileTransferStatus status, String fileName) {
+        this(status, fileName, null);
+    }
+
+    /**
+     * @param fileHash The MD5 hash of the downloaded file, if it was calculated during the download.
+     */
+    public UrlFileDownloadResult(FileTransferStatus status, String fileName, String fileHash) {
         this.status = status;
         this.error = null;
         this.fileName = fileName;
+        this.fileHash = fileHash;
     }
 
     public UrlFileDownloadResult(FileTransferError error) {
         this.status = FileTransferStatus.ERROR;
         this.error = error;
         this.fileName = StringUtils.EMPTY;
+        this.fileHash = null;
     }
 
     public FileTransferStatus getStatus() {
@@ -50,12 +60,17 @@ public class UrlFileDownloadResult {
         return fileName;
     }
 
+    public String getFileHash() {
+        return fileHash;
+    }
+
     @Override
     public String toString() {
         return "UrlFileDownloadResult{" +
                 "status=" + status +
                 ", error=" + error +
                 ", fileName='" + fileName + '\'' +
+                ", fileHash='" + fileHash + '\'' +
                 '}';
     }
 }
@@ -22,10 +22,21 @@ import com.wolkabout.wolk.filemanagement.model.platform2device.UrlInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.bind.DatatypeConverter;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -42,15 +53,18 @@ public class UrlFileDownloadSession {
     private static final int DEFAULT_DOWNLOAD_CHUNK_SIZE = 16384;
 
     // The executor
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor;
     // The input data
     private final UrlInfo initMessage;
     private final Callback callback;
     private Future<?> downloadTask;
     private final UrlFileDownloader urlFileDownloader;
+    // The file the download is streamed into, or null to keep the data in memory
+    private final Path file;
     // The end result data
     private byte[] fileData;
     private String fileName = "";
+    private String fileHash;
     // The end status variables
     private FileTransferStatus status;
     private FileTransferError error;
@@ -64,24 +78,7 @@ public class UrlFileDownloadSession {
      * @param callback    The object containing external calls for notifying of finish.
      */
     public UrlFileDownloadSession(UrlInfo initMessage, Callback callback) {
-        if (initMessage == null) {
-            throw new IllegalArgumentException("The initial message object can not be null.");
-        }
-        if (callback == null) {
-            throw new IllegalArgumentException("The callback object can not be null.");
-        }
-
-        this.initMessage = initMessage;
-        this.callback = callback;
-
-        this.fileData = new byte[0];
-
-        this.urlFileDownloader = this::defaultDownloadFile;
-
-        // Start the download
-        status = FileTransferStatus.FILE_TRANSFER;
-        error = null;
-        downloadTask = executor.submit(new DownloadRunnable(initMessage.getFileUrl()));
+        this(initMessage, callback, null, Executors.newCachedThreadPool());
     }
 
     /**
@@ -95,19 +92,52 @@ public class UrlFileDownloadSession {
      * @param urlFileDownloader The implementation of the interface that allows custom URL download logic.
      */
     public UrlFileDownloadSession(UrlInfo initMessage, Callback callback, UrlFileDownloader urlFileDownloader) {
+        this(initMessage, callback, urlFileDownloader, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * The constructor for the class that runs the download on the given executor.
+     *
+     * @param initMessage       The parsed message object that contains the url.
+     * @param callback          The object containing external calls for notifying of finish.
+     * @param urlFileDownloader The custom URL download logic, or null for the default one.
+     * @param executor          The executor used to run the download and report the finished status.
+     */
+    public UrlFileDownloadSession(UrlInfo initMessage, Callback callback, UrlFileDownloader urlFileDownloader,
+                                  ExecutorService executor) {
+        this(initMessage, callback, urlFileDownloader, executor, null);
+    }
+
+    /**
+     * The constructor for the class that streams the downloaded data into the given file, instead of keeping it
+     * in memory. The file is deleted if the download does not succeed.
+     *
+     * @param initMessage       The parsed message object that contains the url.
+     * @param callback          The object containing external calls for notifying of finish.
+     * @param urlFileDownloader The custom URL download logic, or null for the default one.
+     * @param executor          The executor used to run the download and report the finished status.
+     * @param file              The file where the default download logic writes the data, or null.
+     */
+    public UrlFileDownloadSession(UrlInfo initMessage, Callback callback, UrlFileDownloader urlFileDownloader,
+                                  ExecutorService executor, Path file) {
         if (initMessage == null) {
             throw new IllegalArgumentException("The initial message object can not be null.");
         }
         if (callback == null) {
             throw new IllegalArgumentException("The callback object can not be null.");
         }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor can not be null.");
+        }
 
         this.initMessage = initMessage;
         this.callback = callback;
+        this.executor = executor;
+        this.file = file;
 
         this.fileData = new byte[0];
 
-        this.urlFileDownloader = urlFileDownloader;
+        this.urlFileDownloader = urlFileDownloader != null ? urlFileDownloader : this::defaultDownloadFile;
 
         // Start the download
         status = FileTransferStatus.FILE_TRANSFER;
@@ -127,6 +157,20 @@ public class UrlFileDownloadSession {
         return fileData;
     }
 
+    /**
+     * @return The file the download is streamed into, or null if the data is kept in memory.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The MD5 hash of the downloaded file calculated while streaming it, or null if it is not known.
+     */
+    public String getFileHash() {
+        return fileHash;
+    }
+
     public FileTransferStatus getStatus() {
         return status;
     }
@@ -161,6 +205,7 @@ public class UrlFileDownloadSession {
                 }
                 this.fileData = new byte[0];
                 this.fileName = "";
+                deleteFile();
 
                 // Set the state for aborted
                 this.status = FileTransferStatus.ABORTED;
@@ -184,16 +229,24 @@ public class UrlFileDownloadSession {
      */
     public synchronized boolean downloadFile(String url) {
         // Obtain the status and do the operation
-        UrlFileDownloadResult result = urlFileDownloader.downloadFile(url);
+        UrlFileDownloadResult result = file != null ? urlFileDownloader.downloadFile(url, file)
+                : urlFileDownloader.downloadFile(url);
         if (status == FileTransferStatus.ABORTED) {
             fileData = new byte[0];
             fileName = "";
+            deleteFile();
             return false;
         }
         // Store the result
         status = result.getStatus();
         error = result.getError();
         fileName = result.getFileName();
+        if (result.getFileHash() != null) {
+            fileHash = result.getFileHash();
+        }
+        if (status != FileTransferStatus.FILE_READY) {
+            deleteFile();
+        }
         // Call the returns with appropriate values
         executor.execute(new FinishRunnable(status, fileName, error));
         return status == FileTransferStatus.FILE_READY;
@@ -202,6 +255,12 @@ public class UrlFileDownloadSession {
     public UrlFileDownloadResult defaultDownloadFile(String fileUrl) {
         try {
             final URL remoteFile = new URL(fileUrl);
+            final String fileName = fileNameOf(fileUrl);
+            if (file != null) {
+                return new UrlFileDownloadResult(FileTransferStatus.FILE_READY, fileName,
+                        streamToFile(remoteFile.openConnection(), file));
+            }
+
             final InputStream inputStream = remoteFile.openStream();
             final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
@@ -212,8 +271,6 @@ public class UrlFileDownloadSession {
             }
             buffer.flush();
 
-            final String[] urlParts = fileUrl.split("/");
-            final String fileName = urlParts[urlParts.length - 1];
             fileData = buffer.toByteArray();
 
             return new UrlFileDownloadResult(FileTransferStatus.FILE_READY, fileName);
@@ -224,6 +281,63 @@ public class UrlFileDownloadSession {
         }
     }
 
+    /**
+     * Writes the response into the file through a single reused buffer, and hashes it on the way. The file is
+     * extended to the announced content length up front, and the download fails if the response ends before it.
+     *
+     * @return The MD5 hash of the file.
+     * @throws IOException If fewer or more bytes than the announced content length were received.
+     */
+    static String streamToFile(URLConnection connection, Path file) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("MD5");
+        final long contentLength = connection.getContentLengthLong();
+
+        try (ReadableByteChannel source = Channels.newChannel(connection.getInputStream());
+             FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (contentLength > 0) {
+                target.write(ByteBuffer.wrap(new byte[1]), contentLength - 1);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_DOWNLOAD_CHUNK_SIZE);
+            long written = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.array(), 0, buffer.limit());
+                while (buffer.hasRemaining()) {
+                    written += target.write(buffer, written);
+                }
+                buffer.clear();
+            }
+            if (contentLength > 0 && written != contentLength) {
+                throw new IOException("Received " + written + " of " + contentLength + " bytes.");
+            }
+            target.truncate(written);
+            target.force(false);
+        }
+
+        return DatatypeConverter.printHexBinary(digest.digest());
+    }
+
+    /**
+     * @return The name of the file, which is the last part of its URL.
+     */
+    static String fileNameOf(String fileUrl) {
+        final String[] urlParts = fileUrl.split("/");
+        return urlParts[urlParts.length - 1];
+    }
+
+    private void deleteFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException exception) {
+            LOG.warn("Failed to delete the file of the URL download '" + file + "'.", exception);
+        }
+    }
+
     /**
      * This is the public Callback interface for this class. Only call here needed is for
      * announcing the external of status.
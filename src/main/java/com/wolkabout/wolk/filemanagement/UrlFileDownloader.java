@@ -16,7 +16,21 @@
  */
 package com.wolkabout.wolk.filemanagement;
 
+import java.nio.file.Path;
+
 public interface UrlFileDownloader {
 
     UrlFileDownloadResult downloadFile(String fileUrl);
+
+    /**
+     * Downloads the file into the given path, which is moved into the file management folder when the download
+     * is successful. Implementations that do not write the file themselves can leave this as it is.
+     *
+     * @param fileUrl The URL of the file.
+     * @param file    The file where the data should be written.
+     * @return The result of the download.
+     */
+    default UrlFileDownloadResult downloadFile(String fileUrl, Path file) {
+        return downloadFile(fileUrl);
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement.model.device2platform;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * This class represents the payload sent by the device to the platform
+ * to the `d2p/file_list/d/` endpoint when the file list is too long for a single message,
+ * and is sent in several pages.
+ */
+public class FileListPage {
+
+    @JsonProperty("page")
+    private int page;
+
+    @JsonProperty("pages")
+    private int pages;
+
+    @JsonProperty("files")
+    private List<FileInformation> files;
+
+    public FileListPage(int page, int pages, List<FileInformation> files) {
+        this.page = page;
+        this.pages = pages;
+        this.files = files;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    public List<FileInformation> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<FileInformation> files) {
+        this.files = files;
+    }
+
+    @Override
+    public String toString() {
+        return "FileListPage{" +
+                "page=" + page +
+                ", pages=" + pages +
+                ", files=" + files +
+                '}';
+    }
+}
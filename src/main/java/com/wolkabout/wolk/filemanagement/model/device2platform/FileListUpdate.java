@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement.model.device2platform;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * This class represents the payload sent by the device to the platform
+ * to the `d2p/file_list_update/d/` endpoint to notify of the files that changed since the last file list.
+ */
+public class FileListUpdate {
+
+    @JsonProperty("added")
+    private List<FileInformation> added;
+
+    @JsonProperty("changed")
+    private List<FileInformation> changed;
+
+    @JsonProperty("removed")
+    private List<String> removed;
+
+    public FileListUpdate(List<FileInformation> added, List<FileInformation> changed, List<String> removed) {
+        this.added = added;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    public List<FileInformation> getAdded() {
+        return added;
+    }
+
+    public void setAdded(List<FileInformation> added) {
+        this.added = added;
+    }
+
+    public List<FileInformation> getChanged() {
+        return changed;
+    }
+
+    public void setChanged(List<FileInformation> changed) {
+        this.changed = changed;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<String> removed) {
+        this.removed = removed;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "FileListUpdate{" +
+                "added=" + added +
+                ", changed=" + changed +
+                ", removed=" + removed +
+                '}';
+    }
+}
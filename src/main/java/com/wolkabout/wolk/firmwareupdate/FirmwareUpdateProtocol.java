@@ -21,6 +21,7 @@ import com.wolkabout.wolk.firmwareupdate.model.FirmwareUpdateError;
 import com.wolkabout.wolk.firmwareupdate.model.FirmwareUpdateStatus;
 import com.wolkabout.wolk.firmwareupdate.model.device2platform.UpdateStatus;
 import com.wolkabout.wolk.firmwareupdate.model.platform2device.UpdateInit;
+import com.wolkabout.wolk.protocol.QosPolicy;
 import com.wolkabout.wolk.util.JsonUtil;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -56,6 +57,7 @@ public class FirmwareUpdateProtocol {
     protected final FileSystemManagement management;
     protected final FirmwareInstaller installer;
     protected FirmwareUpdateStatus lastSentStatus;
+    protected QosPolicy qosPolicy = QosPolicy.DEFAULT;
 
     /**
      * This is the default constructor for the FirmwareUpdate feature.
@@ -66,6 +68,19 @@ public class FirmwareUpdateProtocol {
      */
     public FirmwareUpdateProtocol(MqttClient client, FileSystemManagement management,
                                   FirmwareInstaller installer) {
+        this(client, management, installer, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * This is the constructor for the FirmwareUpdate feature that runs its tasks on the given executor.
+     *
+     * @param client     The MQTT client passed by the Wolk instance.
+     * @param management The File System management logic that actually interacts with the file system.
+     *                   Passed by the Wolk instance.
+     * @param executor   The executor passed by the Wolk instance.
+     */
+    public FirmwareUpdateProtocol(MqttClient client, FileSystemManagement management,
+                                  FirmwareInstaller installer, ExecutorService executor) {
         if (client == null) {
             throw new IllegalArgumentException("The client cannot be null.");
         }
@@ -75,12 +90,25 @@ public class FirmwareUpdateProtocol {
         if (installer == null) {
             throw new IllegalArgumentException("The firmware installer cannot be null.");
         }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor cannot be null.");
+        }
 
         this.client = client;
         this.management = management;
         this.installer = installer;
-        // Inject ourselves into the installer
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the quality of service used for the messages this feature publishes.
+     */
+    public void setQosPolicy(QosPolicy qosPolicy) {
+        if (qosPolicy == null) {
+            throw new IllegalArgumentException("QoS policy must be set");
+        }
+
+        this.qosPolicy = qosPolicy;
     }
 
     public void checkFirmwareVersion() {
@@ -220,7 +248,7 @@ public class FirmwareUpdateProtocol {
     private void publish(String topic, Object payload) {
         try {
             LOG.debug("Publishing to '" + topic + "' payload: " + new String(JsonUtil.serialize(payload), StandardCharsets.UTF_8));
-            client.publish(topic, JsonUtil.serialize(payload), QOS, false);
+            client.publish(topic, JsonUtil.serialize(payload), qosPolicy.qosFor(QosPolicy.MessageClass.FIRMWARE_STATUS), false);
         } catch (Exception e) {
             throw new IllegalArgumentException("Could not publish message to: " + topic + " with payload: " + payload, e);
         }
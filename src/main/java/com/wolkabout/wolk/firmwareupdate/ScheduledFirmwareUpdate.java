@@ -42,6 +42,7 @@ public class ScheduledFirmwareUpdate {
 
     private final ScheduledExecutorService scheduler;
     private ScheduledFuture task;
+    private volatile boolean cancelled;
 
     private static final long RANDOMIZED_MAX_DELAY = TimeUnit.MINUTES.toSeconds(15);
 
@@ -69,9 +70,24 @@ public class ScheduledFirmwareUpdate {
         reschedule();
     }
 
+    /**
+     * Stops scheduling updates. The scheduler may be shared, so it is left running.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
     void schedule() {
         LOG.debug("Scheduling");
 
+        if (cancelled) {
+            LOG.debug("Firmware update not scheduled, cancelled");
+            return;
+        }
+
         if (cron == null) {
             LOG.info("Firmware update not scheduled, time is not set");
             return;
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Feed holding a single double value, without boxing it.
+ */
+public class DoubleFeed extends Feed {
+
+    private final double value;
+
+    public DoubleFeed(String reference, double value) {
+        this(reference, value, System.currentTimeMillis());
+    }
+
+    public DoubleFeed(String reference, double value, long utc) {
+        this(FeedReference.of(reference), value, utc);
+    }
+
+    public DoubleFeed(FeedReference reference, double value, long utc) {
+        super(reference, utc);
+        this.value = value;
+    }
+
+    public double getDouble() {
+        return value;
+    }
+
+    @Override
+    public List<Object> getValues() {
+        return Collections.singletonList(value);
+    }
+
+    @Override
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String getStringValue() {
+        return Double.toString(value);
+    }
+
+    @Override
+    public Double getNumericValue() {
+        return value;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Multi-value feed holding its values in a double array, without boxing them.
+ * The array is not copied, so it must not be changed after the feed is created.
+ */
+public class DoubleVectorFeed extends Feed {
+
+    private final double[] values;
+
+    public DoubleVectorFeed(String reference, double[] values) {
+        this(reference, values, System.currentTimeMillis());
+    }
+
+    public DoubleVectorFeed(String reference, double[] values, long utc) {
+        this(FeedReference.of(reference), values, utc);
+    }
+
+    public DoubleVectorFeed(FeedReference reference, double[] values, long utc) {
+        super(reference, utc);
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Feed must have at least one value");
+        }
+        this.values = values;
+    }
+
+    public double[] getDoubles() {
+        return values;
+    }
+
+    /**
+     * Boxes the values only as they are read.
+     */
+    @Override
+    public List<Object> getValues() {
+        return new DoubleListView(values);
+    }
+
+    @Override
+    public Object getValue() {
+        return values[0];
+    }
+
+    @Override
+    public Double getNumericValue() {
+        return values[0];
+    }
+
+    private static class DoubleListView extends AbstractList<Object> implements RandomAccess {
+
+        private final double[] values;
+
+        DoubleListView(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
@@ -22,7 +22,7 @@ import java.util.stream.Collectors;
 
 public class Feed {
 
-    private final String reference;
+    private final FeedReference reference;
 
     private final List<Object> values;
 
@@ -41,12 +41,29 @@ public class Feed {
     }
 
     public Feed(String reference, List<Object> values, long utc) {
+        this(FeedReference.of(reference), values, utc);
+    }
+
+    public Feed(FeedReference reference, List<Object> values, long utc) {
         this.reference = reference;
         this.values = values;
         this.utc = utc;
     }
 
+    /**
+     * Used by the primitive feed types, which keep their values themselves and override {@link #getValues()}.
+     */
+    protected Feed(FeedReference reference, long utc) {
+        this.reference = reference;
+        this.values = null;
+        this.utc = utc;
+    }
+
     public String getReference() {
+        return reference.getReference();
+    }
+
+    public FeedReference getFeedReference() {
         return reference;
     }
 
@@ -55,31 +72,31 @@ public class Feed {
     }
 
     public Object getValue() {
-        return values.get(0);
+        return getValues().get(0);
     }
 
     public List<String> getStringValues() {
-        return values.stream().map(Object::toString).collect(Collectors.toList());
+        return getValues().stream().map(Object::toString).collect(Collectors.toList());
     }
 
     public String getStringValue() {
-        return values.get(0).toString();
+        return getValue().toString();
     }
 
     public List<Double> getNumericValues() {
-        return values.stream().map(this::toDouble).collect(Collectors.toList());
+        return getValues().stream().map(this::toDouble).collect(Collectors.toList());
     }
 
     public Double getNumericValue() {
-        return toDouble(values.get(0));
+        return toDouble(getValue());
     }
 
     public List<Boolean> getBooleanValues() {
-        return values.stream().map(this::toBool).collect(Collectors.toList());
+        return getValues().stream().map(this::toBool).collect(Collectors.toList());
     }
 
     public Boolean getBooleanValue() {
-        return toBool(values.get(0));
+        return toBool(getValue());
     }
 
     public long getUtc() {
@@ -87,6 +104,10 @@ public class Feed {
     }
 
     private Double toDouble(Object obj) {
+        if (obj instanceof Number) {
+            return ((Number) obj).doubleValue();
+        }
+
         try {
             return (Double) obj;
         } catch (ClassCastException e) {
@@ -105,8 +126,8 @@ public class Feed {
     @Override
     public String toString() {
         return "Feed{" +
-                "reference='" + reference + '\'' +
-                ", values=" + values +
+                "reference='" + getReference() + '\'' +
+                ", values=" + getValues() +
                 ", utc=" + utc +
                 '}';
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.model;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interned feed reference, with a dense integer id and the reference pre-encoded as a JSON key.
+ * <p>
+ * There is a single interned instance per reference string, so feeds sharing a reference also share its encoded form,
+ * and references can be compared by id. References are never released, as devices use a fixed set of them,
+ * but at most {@link #MAX_REGISTERED} are interned. References past that limit, and inbound references looked up
+ * with {@link #lookup(String)}, get an instance of their own with the id {@link #UNREGISTERED}.
+ */
+public final class FeedReference {
+
+    /**
+     * Id of a reference that is not interned.
+     */
+    public static final int UNREGISTERED = -1;
+
+    /**
+     * Largest number of interned references.
+     */
+    public static final int MAX_REGISTERED = 16 * 1024;
+
+    private static final ConcurrentMap<String, FeedReference> registry = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final String reference;
+    private final SerializedString jsonKey;
+    private final int jsonKeySize;
+
+    private FeedReference(int id, String reference) {
+        this.id = id;
+        this.reference = reference;
+        this.jsonKey = new SerializedString(reference);
+        this.jsonKeySize = jsonKey.asQuotedUTF8().length + 2;
+    }
+
+    /**
+     * Returns the interned instance for the reference, registering it if it was not seen before.
+     * Once the registry is full, references that were not seen before are not interned.
+     *
+     * @param reference Feed reference.
+     * @return The interned reference, or an unregistered one if the registry is full.
+     */
+    public static FeedReference of(String reference) {
+        final FeedReference existing = lookupRegistered(reference);
+        return existing != null ? existing : register(reference);
+    }
+
+    /**
+     * Returns the interned instance for the reference if it was registered, without registering it otherwise.
+     * Meant for references received from the platform, which should not grow the registry.
+     *
+     * @param reference Feed reference.
+     * @return The interned reference, or an unregistered one.
+     */
+    public static FeedReference lookup(String reference) {
+        final FeedReference existing = lookupRegistered(reference);
+        return existing != null ? existing : new FeedReference(UNREGISTERED, reference);
+    }
+
+    private static FeedReference lookupRegistered(String reference) {
+        if (reference == null) {
+            throw new IllegalArgumentException("Feed reference must not be null");
+        }
+
+        return registry.get(reference);
+    }
+
+    private static synchronized FeedReference register(String reference) {
+        final FeedReference existing = registry.get(reference);
+        if (existing != null) {
+            return existing;
+        }
+
+        final int id = registry.size();
+        if (id >= MAX_REGISTERED) {
+            return new FeedReference(UNREGISTERED, reference);
+        }
+
+        final FeedReference feedReference = new FeedReference(id, reference);
+        registry.put(reference, feedReference);
+
+        return feedReference;
+    }
+
+    /**
+     * @return Dense id of the interned reference, or {@link #UNREGISTERED}.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    /**
+     * Reference as a JSON string with quotes and escapes, encoded once and reused by every serializer.
+     */
+    public SerializableString getJsonKey() {
+        return jsonKey;
+    }
+
+    /**
+     * Size of the JSON key in UTF-8, including the quotes.
+     */
+    public int getJsonKeySize() {
+        return jsonKeySize;
+    }
+
+    @Override
+    public String toString() {
+        return reference;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.BooleanFeed;
+import com.wolkabout.wolk.model.DoubleFeed;
+import com.wolkabout.wolk.model.DoubleVectorFeed;
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.model.FeedReference;
+import com.wolkabout.wolk.model.LongFeed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of a single {@link Feed} as it is stored inside a journal segment.
+ * <p>
+ * Layout: reference id from the journal's {@link ReferenceDictionary} (int), utc (long), value count (int),
+ * followed by each value as a type tag and its raw representation.
+ */
+final class FeedRecord {
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_DOUBLE = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_BOOLEAN = 4;
+
+    private FeedRecord() {
+        // Not meant to be instantiated.
+    }
+
+    /**
+     * Encodes the feed into the given buffer, starting at its current position.
+     *
+     * @param feed        Feed to encode.
+     * @param referenceId Journal id of the feed reference.
+     * @param buffer      Destination buffer.
+     * @throws java.nio.BufferOverflowException If the buffer does not have enough room for the record.
+     */
+    static void encode(Feed feed, int referenceId, ByteBuffer buffer) {
+        buffer.putInt(referenceId);
+        buffer.putLong(feed.getUtc());
+
+        if (feed instanceof DoubleFeed) {
+            buffer.putInt(1);
+            buffer.put(TAG_DOUBLE);
+            buffer.putDouble(((DoubleFeed) feed).getDouble());
+            return;
+        } else if (feed instanceof LongFeed) {
+            buffer.putInt(1);
+            buffer.put(TAG_LONG);
+            buffer.putLong(((LongFeed) feed).getLong());
+            return;
+        } else if (feed instanceof BooleanFeed) {
+            buffer.putInt(1);
+            buffer.put(TAG_BOOLEAN);
+            buffer.put((byte) (((BooleanFeed) feed).getBoolean() ? 1 : 0));
+            return;
+        } else if (feed instanceof DoubleVectorFeed) {
+            final double[] doubles = ((DoubleVectorFeed) feed).getDoubles();
+            buffer.putInt(doubles.length);
+            for (double value : doubles) {
+                buffer.put(TAG_DOUBLE);
+                buffer.putDouble(value);
+            }
+            return;
+        }
+
+        final List<Object> values = feed.getValues();
+        buffer.putInt(values.size());
+        for (Object value : values) {
+            encodeValue(value, buffer);
+        }
+    }
+
+    /**
+     * Decodes a feed from the given buffer, starting at its current position.
+     * Single double, long and boolean values, and values that are all doubles, come back as primitive feeds.
+     *
+     * @param buffer     Source buffer, positioned at the start of an encoded record.
+     * @param references Dictionary the reference ids were taken from.
+     * @return The decoded feed.
+     */
+    static Feed decode(ByteBuffer buffer, ReferenceDictionary references) {
+        final FeedReference reference = references.get(buffer.getInt());
+        final long utc = buffer.getLong();
+
+        final int count = buffer.getInt();
+        if (count == 1) {
+            final int position = buffer.position();
+            switch (buffer.get()) {
+                case TAG_DOUBLE:
+                    return new DoubleFeed(reference, buffer.getDouble(), utc);
+                case TAG_LONG:
+                    return new LongFeed(reference, buffer.getLong(), utc);
+                case TAG_BOOLEAN:
+                    return new BooleanFeed(reference, buffer.get() != 0, utc);
+                default:
+                    buffer.position(position);
+            }
+        } else if (count > 1 && allDoubles(buffer, count)) {
+            final double[] doubles = new double[count];
+            for (int i = 0; i < count; i++) {
+                buffer.get();
+                doubles[i] = buffer.getDouble();
+            }
+            return new DoubleVectorFeed(reference, doubles, utc);
+        }
+
+        final List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(decodeValue(buffer));
+        }
+
+        return new Feed(reference, values, utc);
+    }
+
+    private static boolean allDoubles(ByteBuffer buffer, int count) {
+        int position = buffer.position();
+        for (int i = 0; i < count; i++) {
+            if (position >= buffer.limit() || buffer.get(position) != TAG_DOUBLE) {
+                return false;
+            }
+            position += 1 + Double.BYTES;
+        }
+        return true;
+    }
+
+    private static void encodeValue(Object value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.put(TAG_NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.put(TAG_DOUBLE);
+            buffer.putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            buffer.put(TAG_LONG);
+            buffer.putLong(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            buffer.put(TAG_BOOLEAN);
+            buffer.put((byte) ((Boolean) value ? 1 : 0));
+        } else {
+            final byte[] string = value.toString().getBytes(StandardCharsets.UTF_8);
+            buffer.put(TAG_STRING);
+            buffer.putInt(string.length);
+            buffer.put(string);
+        }
+    }
+
+    private static Object decodeValue(ByteBuffer buffer) {
+        final byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_DOUBLE:
+                return buffer.getDouble();
+            case TAG_LONG:
+                return buffer.getLong();
+            case TAG_BOOLEAN:
+                return buffer.get() != 0;
+            case TAG_STRING:
+                final byte[] string = new byte[buffer.getInt()];
+                buffer.get(string);
+                return new String(string, StandardCharsets.UTF_8);
+            default:
+                throw new IllegalStateException("Unknown value tag in journal record: " + tag);
+        }
+    }
+}
@@ -17,16 +17,18 @@
 package com.wolkabout.wolk.persistence;
 
 import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.util.FeedSizeEstimator;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 
 public class InMemoryPersistence implements Persistence {
 
-    private final Queue<Feed> store = new LinkedBlockingQueue<>();
+    private final BlockingDeque<Feed> store = new LinkedBlockingDeque<>();
+    private final List<Feed> pending = new ArrayList<>();
 
     @Override
     public void addFeed(Feed feed) {
@@ -45,8 +47,8 @@ public class InMemoryPersistence implements Persistence {
 
     @Override
     public List<Feed> getAll() {
-        final ArrayList<Feed> feeds = new ArrayList<>(store);
-        store.clear();
+        final ArrayList<Feed> feeds = new ArrayList<>(store.size());
+        store.drainTo(feeds);
         return feeds;
     }
 
@@ -60,4 +62,44 @@ public class InMemoryPersistence implements Persistence {
         store.clear();
     }
 
+    @Override
+    public synchronized int drain(List<Feed> batch, int maxFeeds, long maxBytes) {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Previous batch was neither committed nor rolled back.");
+        }
+
+        batch.clear();
+        long bytes = 0;
+        while (batch.size() < maxFeeds) {
+            final Feed feed = store.pollFirst();
+            if (feed == null) {
+                break;
+            }
+
+            final int size = FeedSizeEstimator.estimate(feed);
+            if (!batch.isEmpty() && bytes + size > maxBytes) {
+                store.addFirst(feed);
+                break;
+            }
+
+            pending.add(feed);
+            batch.add(feed);
+            bytes += size;
+        }
+
+        return batch.size();
+    }
+
+    @Override
+    public synchronized void commit(List<Feed> batch) {
+        pending.clear();
+    }
+
+    @Override
+    public synchronized void rollback(List<Feed> batch) {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            store.addFirst(pending.get(i));
+        }
+        pending.clear();
+    }
 }
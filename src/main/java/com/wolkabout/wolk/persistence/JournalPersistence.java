@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.util.FeedSizeEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Persistence that stores feeds in a journal on disk, so they survive restarts and do not occupy the heap.
+ * <p>
+ * Feeds are appended to fixed-size, memory-mapped segment files. Once every feed in a segment has been read,
+ * the whole segment file is deleted. The read position is kept in a small checkpoint file, so after a restart
+ * reading continues from the first feed that was not yet taken out of the journal.
+ * Feed references are written once, into a dictionary file, and records refer to them by id.
+ * Feeds of a batch taken with {@link #drain(List, int, long)} stay in the journal, and are delivered again
+ * after a restart, until the batch is committed.
+ * <p>
+ * Data is handed to the operating system on every write, and forced to the disk when a segment is filled,
+ * on {@link #force()} and on {@link #close()}.
+ */
+public class JournalPersistence implements Persistence, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalPersistence.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int MINIMUM_SEGMENT_SIZE = 4 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_SIZE = 16;
+    private static final String REFERENCES_FILE = "references";
+
+    private final Path directory;
+    private final int segmentSize;
+    // Identifiers of the segments between the read and the write segment, inclusive
+    private final NavigableSet<Long> segments = new TreeSet<>();
+    private final MappedByteBuffer checkpoint;
+    private final ReferenceDictionary references;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private JournalSegment writeSegment;
+    // Position of the first feed that was not committed, this is what the checkpoint holds
+    private JournalSegment readSegment;
+    private int readPosition;
+    // Position of the first feed that was not drained into the outstanding batch
+    private JournalSegment cursorSegment;
+    private int cursorPosition;
+    private boolean transaction;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the given directory, creating it if needed, with the default segment size.
+     *
+     * @param directory Path of the directory that holds the journal files.
+     */
+    public JournalPersistence(String directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if needed.
+     *
+     * @param directory   Path of the directory that holds the journal files.
+     * @param segmentSize Size of a single segment file in bytes. A single feed has to fit into one segment.
+     */
+    public JournalPersistence(String directory, int segmentSize) {
+        if (segmentSize < MINIMUM_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MINIMUM_SEGMENT_SIZE + " bytes.");
+        }
+
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(this.directory);
+            checkpoint = mapCheckpoint();
+            references = new ReferenceDictionary(this.directory.resolve(REFERENCES_FILE));
+            recover();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to open journal in '" + directory + "'.", e);
+        }
+
+        LOG.debug("Opened journal in '" + this.directory.toAbsolutePath() + "' with " + segments.size() + " segments.");
+    }
+
+    @Override
+    public synchronized void addFeed(Feed feed) {
+        ensureOpen();
+
+        final ByteBuffer record = encode(feed);
+        if (writeSegment.append(record)) {
+            return;
+        }
+
+        record.rewind();
+        rollWriteSegment();
+        if (!writeSegment.append(record)) {
+            throw new IllegalStateException("Unable to append feed to journal: " + feed.getReference());
+        }
+    }
+
+    @Override
+    public synchronized void addFeeds(Collection<Feed> feeds) {
+        for (Feed feed : feeds) {
+            addFeed(feed);
+        }
+    }
+
+    @Override
+    public synchronized Feed poll() {
+        ensureOpen();
+        ensureNoTransaction();
+
+        final int length = nextRecordLength();
+        if (length < 0) {
+            return null;
+        }
+
+        final Feed feed = FeedRecord.decode(cursorSegment.record(cursorPosition, length), references);
+        cursorPosition += JournalSegment.RECORD_HEADER_SIZE + length;
+        commitCursor();
+
+        return feed;
+    }
+
+    @Override
+    public synchronized List<Feed> getAll() {
+        final List<Feed> feeds = new ArrayList<>();
+
+        Feed feed;
+        while ((feed = poll()) != null) {
+            feeds.add(feed);
+        }
+
+        return feeds;
+    }
+
+    /**
+     * Removes the oldest feed that was not yet taken out of the journal and has the same reference,
+     * timestamp and values as the given one.
+     * The feed at the read position is simply read past, any other one is marked as removed in its segment.
+     */
+    @Override
+    public synchronized void remove(Feed feed) {
+        ensureOpen();
+
+        final int referenceId = references.find(feed.getFeedReference());
+        if (referenceId < 0) {
+            return;
+        }
+
+        final ByteBuffer expected = encode(feed, referenceId);
+        JournalSegment segment = cursorSegment;
+        int position = cursorPosition;
+        while (true) {
+            final int length = segment.recordLength(position);
+            if (length < 0) {
+                if (segment == writeSegment) {
+                    return;
+                }
+
+                try {
+                    segment = openSegment(segments.higher(segment.getId()));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to read journal in '" + directory + "'.", e);
+                }
+                position = JournalSegment.HEADER_SIZE;
+                continue;
+            }
+
+            if (!segment.isRemoved(position) && segment.record(position, length).equals(expected)) {
+                if (!transaction && segment == cursorSegment && position == cursorPosition) {
+                    cursorPosition += JournalSegment.RECORD_HEADER_SIZE + length;
+                    commitCursor();
+                } else {
+                    segment.markRemoved(position);
+                }
+                return;
+            }
+
+            position += JournalSegment.RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        ensureOpen();
+
+        try {
+            while (!segments.isEmpty()) {
+                Files.deleteIfExists(segmentPath(segments.pollFirst()));
+            }
+
+            final long id = writeSegment.getId() + 1;
+            writeSegment = JournalSegment.create(segmentPath(id), id, segmentSize);
+            segments.add(id);
+            readSegment = writeSegment;
+            readPosition = JournalSegment.HEADER_SIZE;
+            resetCursor();
+            saveCheckpoint();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to clear journal in '" + directory + "'.", e);
+        }
+    }
+
+    @Override
+    public synchronized int drain(List<Feed> batch, int maxFeeds, long maxBytes) {
+        ensureOpen();
+        ensureNoTransaction();
+
+        batch.clear();
+        long bytes = 0;
+        int length;
+        while (batch.size() < maxFeeds && (length = nextRecordLength()) >= 0) {
+            final Feed feed = FeedRecord.decode(cursorSegment.record(cursorPosition, length), references);
+            final int size = FeedSizeEstimator.estimate(feed);
+            if (!batch.isEmpty() && bytes + size > maxBytes) {
+                break;
+            }
+
+            batch.add(feed);
+            bytes += size;
+            cursorPosition += JournalSegment.RECORD_HEADER_SIZE + length;
+        }
+
+        transaction = !batch.isEmpty();
+        return batch.size();
+    }
+
+    @Override
+    public synchronized void commit(List<Feed> batch) {
+        ensureOpen();
+
+        commitCursor();
+        transaction = false;
+    }
+
+    @Override
+    public synchronized void rollback(List<Feed> batch) {
+        resetCursor();
+    }
+
+    /**
+     * Forces all written feeds and the read position to the storage device.
+     */
+    public synchronized void force() {
+        ensureOpen();
+
+        writeSegment.force();
+        checkpoint.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        force();
+        closed = true;
+        writeSegment = null;
+        readSegment = null;
+
+        try {
+            references.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close journal reference dictionary.", e);
+        }
+    }
+
+    private void recover() throws IOException {
+        final TreeMap<Long, Path> existing = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    existing.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unknown file in journal directory: " + name);
+                }
+            }
+        }
+
+        final boolean checkpointValid = checkpoint.getInt(12) == checkpointChecksum();
+        final long checkpointSegment = checkpointValid ? checkpoint.getLong(0) : Long.MIN_VALUE;
+
+        // Everything before the checkpoint segment has already been read
+        while (!existing.isEmpty() && existing.firstKey() < checkpointSegment) {
+            Files.deleteIfExists(existing.pollFirstEntry().getValue());
+        }
+
+        while (!existing.isEmpty() && readSegment == null) {
+            final long id = existing.firstKey();
+            readSegment = JournalSegment.open(existing.pollFirstEntry().getValue(), id);
+            if (readSegment == null) {
+                LOG.warn("Discarding invalid journal segment " + id + ".");
+                Files.deleteIfExists(segmentPath(id));
+                continue;
+            }
+
+            segments.add(id);
+            readPosition = id == checkpointSegment ? checkpoint.getInt(8) : JournalSegment.HEADER_SIZE;
+        }
+        for (Long id : existing.keySet()) {
+            if (JournalSegment.hasValidHeader(existing.get(id))) {
+                segments.add(id);
+            } else {
+                LOG.warn("Discarding invalid journal segment " + id + ".");
+                Files.deleteIfExists(existing.get(id));
+            }
+        }
+
+        // Writing always continues in a fresh segment, so nothing is written after a possibly torn record
+        final long writeId = segments.isEmpty() ? Math.max(checkpointSegment, 0) : segments.last() + 1;
+        writeSegment = JournalSegment.create(segmentPath(writeId), writeId, segmentSize);
+        segments.add(writeId);
+
+        if (readSegment == null) {
+            readSegment = writeSegment;
+            readPosition = JournalSegment.HEADER_SIZE;
+        }
+        resetCursor();
+        saveCheckpoint();
+    }
+
+    private MappedByteBuffer mapCheckpoint() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_SIZE);
+        }
+    }
+
+    private void saveCheckpoint() {
+        checkpoint.putLong(0, readSegment.getId());
+        checkpoint.putInt(8, readPosition);
+        checkpoint.putInt(12, checkpointChecksum());
+    }
+
+    private int checkpointChecksum() {
+        final long segment = checkpoint.getLong(0);
+        final int position = checkpoint.getInt(8);
+        return (int) (segment ^ (segment >>> 32)) * 31 + position + 0x5EED;
+    }
+
+    /**
+     * Moves the cursor to the next valid record, stepping over removed records and segments that have been fully read.
+     *
+     * @return Length of the record at the cursor, or -1 if there are no more records.
+     */
+    private int nextRecordLength() {
+        int length;
+        while ((length = cursorSegment.recordLength(cursorPosition)) < 0 || cursorSegment.isRemoved(cursorPosition)) {
+            if (length >= 0) {
+                cursorPosition += JournalSegment.RECORD_HEADER_SIZE + length;
+                continue;
+            }
+            if (cursorSegment == writeSegment) {
+                return -1;
+            }
+
+            final long id = segments.higher(cursorSegment.getId());
+            try {
+                cursorSegment = openSegment(id);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read journal in '" + directory + "'.", e);
+            }
+            cursorPosition = JournalSegment.HEADER_SIZE;
+        }
+
+        return length;
+    }
+
+    private JournalSegment openSegment(long id) throws IOException {
+        if (id == writeSegment.getId()) {
+            return writeSegment;
+        }
+
+        final JournalSegment segment = JournalSegment.open(segmentPath(id), id);
+        if (segment == null) {
+            throw new IOException("Journal segment " + id + " is not valid.");
+        }
+
+        return segment;
+    }
+
+    /**
+     * Moves the cursor back to the read position, ending the outstanding batch.
+     */
+    private void resetCursor() {
+        cursorSegment = readSegment;
+        cursorPosition = readPosition;
+        transaction = false;
+    }
+
+    /**
+     * Moves the read position up to the cursor, and deletes the segments that are now fully read.
+     */
+    private void commitCursor() {
+        try {
+            while (segments.first() < cursorSegment.getId()) {
+                Files.deleteIfExists(segmentPath(segments.pollFirst()));
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to delete read journal segment.", e);
+        }
+
+        readSegment = cursorSegment;
+        readPosition = cursorPosition;
+        saveCheckpoint();
+    }
+
+    private void rollWriteSegment() {
+        writeSegment.force();
+
+        final long id = writeSegment.getId() + 1;
+        try {
+            writeSegment = JournalSegment.create(segmentPath(id), id, segmentSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create journal segment in '" + directory + "'.", e);
+        }
+        segments.add(id);
+    }
+
+    private ByteBuffer encode(Feed feed) {
+        final int referenceId;
+        try {
+            referenceId = references.idOf(feed.getFeedReference());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to store feed reference in journal: " + feed.getReference(), e);
+        }
+
+        return encode(feed, referenceId);
+    }
+
+    private ByteBuffer encode(Feed feed, int referenceId) {
+        while (true) {
+            scratch.clear();
+            try {
+                FeedRecord.encode(feed, referenceId, scratch);
+                scratch.flip();
+                return scratch;
+            } catch (BufferOverflowException e) {
+                if (scratch.capacity() >= JournalSegment.maxRecordSize(segmentSize)) {
+                    throw new IllegalArgumentException("Feed does not fit into a journal segment: " + feed.getReference());
+                }
+                scratch = ByteBuffer.allocate(Math.min(scratch.capacity() * 2, JournalSegment.maxRecordSize(segmentSize)));
+            }
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%019d", id) + SEGMENT_SUFFIX);
+    }
+
+    private void ensureNoTransaction() {
+        if (transaction) {
+            throw new IllegalStateException("Previous batch was neither committed nor rolled back.");
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal in '" + directory + "' is closed.");
+        }
+    }
+}
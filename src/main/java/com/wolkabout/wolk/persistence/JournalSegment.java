@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A single fixed-size, memory-mapped journal file.
+ * <p>
+ * The file starts with a header (magic number and segment size), followed by records laid out back to back.
+ * Every record is prefixed by its payload length and the CRC32 of the payload. A zero length, or a record that
+ * does not pass the checksum, marks the end of the data in the segment. A removed record keeps its place, and is
+ * marked by the highest bit of its length.
+ */
+final class JournalSegment {
+
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAGIC = 0x574B4A32;
+    private static final int REMOVED = Integer.MIN_VALUE;
+
+    private final long id;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer view;
+    private final CRC32 crc = new CRC32();
+    private int writePosition;
+
+    private JournalSegment(long id, MappedByteBuffer buffer, int writePosition) {
+        this.id = id;
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.writePosition = writePosition;
+    }
+
+    /**
+     * Creates a new, empty segment file of the given size.
+     */
+    static JournalSegment create(Path path, long id, int size) throws IOException {
+        final MappedByteBuffer buffer = map(path, size, StandardOpenOption.CREATE_NEW);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, size);
+        return new JournalSegment(id, buffer, HEADER_SIZE);
+    }
+
+    /**
+     * Opens an existing segment file, and finds the end of its valid records.
+     *
+     * @return The segment, or null if the file is not a journal segment.
+     */
+    static JournalSegment open(Path path, long id) throws IOException {
+        final long size = Files.size(path);
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        final MappedByteBuffer buffer = map(path, (int) size, StandardOpenOption.READ);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != size) {
+            return null;
+        }
+
+        final JournalSegment segment = new JournalSegment(id, buffer, buffer.capacity());
+        int position = HEADER_SIZE;
+        int length;
+        while ((length = segment.recordLength(position)) >= 0) {
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.writePosition = position;
+
+        return segment;
+    }
+
+    /**
+     * Checks only the header of a segment file, without mapping it.
+     */
+    static boolean hasValidHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == channel.size();
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int size, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Largest record payload that fits into an empty segment of the given size.
+     */
+    static int maxRecordSize(int segmentSize) {
+        return segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Appends the remaining bytes of the record as a new entry.
+     *
+     * @return False if there is not enough room left in this segment.
+     */
+    boolean append(ByteBuffer record) {
+        final int length = record.remaining();
+        if (writePosition + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return false;
+        }
+
+        crc.reset();
+        crc.update(record.array(), record.arrayOffset() + record.position(), length);
+
+        // The length goes in last, so a partially written record is never seen as complete.
+        view.clear();
+        view.position(writePosition + RECORD_HEADER_SIZE);
+        view.put(record);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.putInt(writePosition, length);
+
+        writePosition += RECORD_HEADER_SIZE + length;
+        return true;
+    }
+
+    /**
+     * Validates the record at the given position. Removed records are valid as well.
+     *
+     * @return Payload length of the record, or -1 if there is no complete record at the position.
+     */
+    int recordLength(int position) {
+        if (position + RECORD_HEADER_SIZE > writePosition) {
+            return -1;
+        }
+
+        final int length = buffer.getInt(position) & ~REMOVED;
+        if (length == 0 || position + RECORD_HEADER_SIZE + length > writePosition) {
+            return -1;
+        }
+
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.limit(position + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(view);
+
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : -1;
+    }
+
+    /**
+     * Returns a view of the payload of a record previously validated with {@link #recordLength(int)}.
+     * The view is reused, and is only valid until the next call on this segment.
+     */
+    ByteBuffer record(int position, int length) {
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.limit(position + RECORD_HEADER_SIZE + length);
+        return view;
+    }
+
+    /**
+     * Checks whether the record at the given position, previously validated with {@link #recordLength(int)},
+     * was removed.
+     */
+    boolean isRemoved(int position) {
+        return (buffer.getInt(position) & REMOVED) != 0;
+    }
+
+    /**
+     * Marks the record at the given position, previously validated with {@link #recordLength(int)}, as removed.
+     */
+    void markRemoved(int position) {
+        buffer.putInt(position, buffer.getInt(position) | REMOVED);
+    }
+
+    void force() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Persistence for inflight MQTT messages that keeps them in a single append-only, memory-mapped log file,
+ * instead of a file per message like {@link org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence}.
+ * <p>
+ * Every put and remove is appended to the log as a record with a CRC32 checksum, and an index of the live records
+ * is kept in memory. When the log is full, the live records are copied into a log file of the next generation,
+ * and the file grows if the live records take up more than half of it. The new file is only marked valid once it is
+ * complete, and the old one is then deleted; it is never replaced while mapped, which some platforms do not allow.
+ * On open, the newest valid log is replayed up to the first incomplete record.
+ * <p>
+ * Writes are handed to the operating system right away, so they survive the process stopping, but are only forced to
+ * the storage device on compaction and on close. Unlike the default paho persistence, which syncs every message,
+ * messages put shortly before a power loss may be lost.
+ */
+public class MqttLogPersistence implements MqttClientPersistence {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MqttLogPersistence.class);
+
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private static final String LOG_PREFIX = "inflight.";
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final int MAGIC = 0x574B4D31;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path baseDirectory;
+    private final int initialSize;
+    private final CRC32 crc = new CRC32();
+
+    // Position of the live record of each key
+    private final Map<String, Integer> index = new HashMap<>();
+    private int liveBytes;
+
+    private Path directory;
+    private long generation;
+    private Path file;
+    private MappedByteBuffer buffer;
+    private ByteBuffer view;
+    private int writePosition;
+
+    /**
+     * Keeps the log in a subdirectory of the working directory, like the default paho persistence.
+     */
+    public MqttLogPersistence() {
+        this(System.getProperty("user.dir"));
+    }
+
+    /**
+     * @param directory Directory under which every client gets its own subdirectory for the log.
+     */
+    public MqttLogPersistence(String directory) {
+        this(directory, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param directory   Directory under which every client gets its own subdirectory for the log.
+     * @param initialSize Initial size of the log file in bytes.
+     */
+    public MqttLogPersistence(String directory, int initialSize) {
+        if (initialSize < 1024) {
+            throw new IllegalArgumentException("Log size must be at least 1024 bytes.");
+        }
+
+        this.baseDirectory = Paths.get(directory);
+        this.initialSize = initialSize;
+    }
+
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+        if (buffer != null) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+        }
+
+        final String name = (clientId + "-" + serverURI).replaceAll("[^a-zA-Z0-9._-]", "");
+        try {
+            directory = baseDirectory.resolve(name);
+            Files.createDirectories(directory);
+
+            final TreeSet<Long> generations = generations();
+            for (Long candidate : generations.descendingSet()) {
+                if (openLog(candidate)) {
+                    break;
+                }
+            }
+
+            if (buffer == null) {
+                generation = generations.isEmpty() ? 0 : generations.last() + 1;
+                file = logFile(generation);
+                map(file, initialSize);
+                buffer.putInt(0, MAGIC);
+                writePosition = HEADER_SIZE;
+            }
+
+            for (Long stale : generations) {
+                if (stale != generation) {
+                    deleteLog(logFile(stale));
+                }
+            }
+        } catch (IOException e) {
+            buffer = null;
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        checkIsOpen();
+
+        buffer.force();
+        buffer = null;
+        view = null;
+
+        // Like the default paho persistence, leave nothing behind when there is nothing in flight
+        if (index.isEmpty()) {
+            try {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(file.getParent());
+            } catch (IOException e) {
+                LOG.debug("Unable to delete empty MQTT persistence log '" + file + "'.", e);
+            }
+        }
+
+        index.clear();
+        liveBytes = 0;
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkIsOpen();
+
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int headerLength = persistable.getHeaderLength();
+        final int payloadLength = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+        final int size = RECORD_HEADER_SIZE + 1 + 2 + keyBytes.length + 4 + headerLength + payloadLength;
+        final int position = reserve(size);
+
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.put(PUT);
+        view.putShort((short) keyBytes.length);
+        view.put(keyBytes);
+        view.putInt(headerLength);
+        view.put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        if (payloadLength > 0) {
+            view.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        }
+        publish(position, size);
+
+        final Integer previous = index.put(key, position);
+        if (previous != null) {
+            liveBytes -= recordSize(previous);
+        }
+        liveBytes += size;
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkIsOpen();
+
+        final Integer position = index.get(key);
+        if (position == null) {
+            return null;
+        }
+
+        final int end = position + recordSize(position);
+        final int keyLength = buffer.getShort(position + RECORD_HEADER_SIZE + 1) & 0xFFFF;
+        final int headerPosition = position + RECORD_HEADER_SIZE + 3 + keyLength;
+
+        final byte[] header = new byte[buffer.getInt(headerPosition)];
+        final byte[] payload = new byte[end - headerPosition - 4 - header.length];
+        view.clear();
+        view.position(headerPosition + 4);
+        view.get(header);
+        view.get(payload);
+
+        return new StoredMessage(header, payload);
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkIsOpen();
+
+        final Integer position = index.get(key);
+        if (position == null) {
+            return;
+        }
+
+        // Append the removal first, the index may move records around while making room for it
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int size = RECORD_HEADER_SIZE + 1 + 2 + keyBytes.length;
+        final int recordPosition = reserve(size);
+
+        view.clear();
+        view.position(recordPosition + RECORD_HEADER_SIZE);
+        view.put(REMOVE);
+        view.putShort((short) keyBytes.length);
+        view.put(keyBytes);
+        publish(recordPosition, size);
+
+        liveBytes -= recordSize(index.remove(key));
+    }
+
+    @Override
+    public synchronized Enumeration<String> keys() throws MqttPersistenceException {
+        checkIsOpen();
+
+        return Collections.enumeration(new ArrayList<>(index.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkIsOpen();
+
+        index.clear();
+        liveBytes = 0;
+        writePosition = HEADER_SIZE;
+        buffer.putInt(writePosition, 0);
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkIsOpen();
+
+        return index.containsKey(key);
+    }
+
+    /**
+     * Generations of the log files in the client directory.
+     */
+    private TreeSet<Long> generations() throws IOException {
+        final TreeSet<Long> generations = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path log : files) {
+                final String name = log.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unknown file in MQTT persistence directory: " + name);
+                }
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Maps and replays the log of the given generation.
+     *
+     * @return False if the file is not a complete log.
+     */
+    private boolean openLog(long candidate) throws IOException {
+        final Path log = logFile(candidate);
+        final long size = Files.size(log);
+        if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+            map(log, (int) size);
+            if (buffer.getInt(0) == MAGIC) {
+                generation = candidate;
+                file = log;
+                replay();
+                return true;
+            }
+        }
+
+        LOG.warn("Discarding invalid MQTT persistence log '" + log + "'.");
+        buffer = null;
+        view = null;
+        return false;
+    }
+
+    private Path logFile(long generation) {
+        return directory.resolve(LOG_PREFIX + generation + LOG_SUFFIX);
+    }
+
+    /**
+     * Deletes a log that is no longer used. Where a file can not be deleted while it is still mapped,
+     * it is left behind and deleted on the next open.
+     */
+    private static void deleteLog(Path log) {
+        try {
+            Files.deleteIfExists(log);
+        } catch (IOException e) {
+            LOG.debug("Unable to delete old MQTT persistence log '" + log + "', it will be deleted later.", e);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log, and finds the end of its valid records.
+     */
+    private void replay() {
+        int position = HEADER_SIZE;
+        int length;
+        while ((length = validRecordLength(position)) > 0) {
+            final int size = RECORD_HEADER_SIZE + length;
+            final byte operation = buffer.get(position + RECORD_HEADER_SIZE);
+            final String key = readKey(position);
+
+            final Integer previous = operation == PUT ? index.put(key, position) : index.remove(key);
+            if (previous != null) {
+                liveBytes -= recordSize(previous);
+            }
+            if (operation == PUT) {
+                liveBytes += size;
+            }
+
+            position += size;
+        }
+
+        writePosition = position;
+        LOG.debug("Restored " + index.size() + " inflight MQTT messages from '" + file + "'.");
+    }
+
+    /**
+     * Makes sure a record of the given size fits at the end of the log, compacting or growing it if needed.
+     *
+     * @return Position of the new record.
+     */
+    private int reserve(int size) throws MqttPersistenceException {
+        // Leaves room to mark the end of the log after the record
+        final int needed = size + 4;
+        if (writePosition + needed <= buffer.capacity()) {
+            return writePosition;
+        }
+
+        int capacity = buffer.capacity();
+        while (HEADER_SIZE + liveBytes + needed > capacity / 2 && capacity < Integer.MAX_VALUE / 2) {
+            capacity *= 2;
+        }
+
+        try {
+            compact(capacity);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+
+        if (writePosition + needed > buffer.capacity()) {
+            throw new MqttPersistenceException(new IllegalStateException("Message does not fit into the persistence log."));
+        }
+        return writePosition;
+    }
+
+    /**
+     * Copies the live records into a log file of the next generation with the given size, which then takes over
+     * from the current log.
+     */
+    private void compact(int capacity) throws IOException {
+        final Path compaction = logFile(generation + 1);
+        Files.deleteIfExists(compaction);
+
+        final MappedByteBuffer target = mapFile(compaction, capacity);
+        target.position(HEADER_SIZE);
+
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            final int position = entry.getValue();
+            view.clear();
+            view.position(position);
+            view.limit(position + recordSize(position));
+
+            entry.setValue(target.position());
+            target.put(view);
+        }
+        target.putInt(target.position(), 0);
+        target.force();
+        // Only a complete log is marked valid, so a compaction cut short is discarded on open
+        target.putInt(0, MAGIC);
+        target.force();
+
+        LOG.debug("Compacted MQTT persistence log from " + (writePosition - HEADER_SIZE) + " to " + liveBytes + " bytes.");
+        final Path previous = file;
+        generation++;
+        file = compaction;
+        buffer = target;
+        view = target.duplicate();
+        writePosition = target.position();
+
+        deleteLog(previous);
+    }
+
+    /**
+     * Checksums a record whose body is already written, and makes it visible by writing its length last.
+     */
+    private void publish(int position, int size) {
+        final int length = size - RECORD_HEADER_SIZE;
+
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.limit(position + size);
+        crc.reset();
+        crc.update(view);
+
+        buffer.putInt(position + size, 0);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, length);
+        writePosition = position + size;
+    }
+
+    private int validRecordLength(int position) {
+        if (position + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return -1;
+        }
+
+        final int length = buffer.getInt(position);
+        if (length < 3 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return -1;
+        }
+
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.limit(position + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(view);
+
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : -1;
+    }
+
+    private String readKey(int position) {
+        final byte[] key = new byte[buffer.getShort(position + RECORD_HEADER_SIZE + 1) & 0xFFFF];
+        view.clear();
+        view.position(position + RECORD_HEADER_SIZE + 3);
+        view.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private int recordSize(int position) {
+        return RECORD_HEADER_SIZE + buffer.getInt(position);
+    }
+
+    private void map(Path path, int size) throws IOException {
+        buffer = mapFile(path, size);
+        view = buffer.duplicate();
+    }
+
+    private static MappedByteBuffer mapFile(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void checkIsOpen() throws MqttPersistenceException {
+        if (buffer == null) {
+            throw new MqttPersistenceException();
+        }
+    }
+
+    private static class StoredMessage implements MqttPersistable {
+
+        private final byte[] header;
+        private final byte[] payload;
+
+        StoredMessage(byte[] header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
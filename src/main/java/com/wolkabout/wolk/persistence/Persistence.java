@@ -17,6 +17,7 @@
 package com.wolkabout.wolk.persistence;
 
 import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.util.FeedSizeEstimator;
 
 import java.util.Collection;
 import java.util.List;
@@ -34,4 +35,57 @@ public interface Persistence {
     void remove(Feed feed);
 
     void removeAll();
+
+    /**
+     * Takes the oldest feeds out of the store into the given batch, which is cleared first.
+     * Feeds are added until either limit is reached, but the batch always gets at least one feed if any is stored.
+     * Stores that override this keep the feeds until {@link #commit(List)} removes them for good,
+     * or {@link #rollback(List)} returns them to the front of the store, and allow one outstanding batch at a time.
+     * <p>
+     * By default the feeds are taken out with {@link #poll()}, so they leave the store right away,
+     * and the last feed may go over the byte limit, as it can not be put back.
+     *
+     * @param batch    Reusable list that receives the feeds.
+     * @param maxFeeds Maximum number of feeds in the batch.
+     * @param maxBytes Maximum estimated serialized size of the feeds in the batch, in bytes.
+     * @return Number of feeds in the batch, zero if the store is empty.
+     * @throws IllegalStateException If the previous batch was neither committed nor rolled back.
+     */
+    default int drain(List<Feed> batch, int maxFeeds, long maxBytes) {
+        batch.clear();
+        long bytes = 0;
+        while (batch.size() < maxFeeds) {
+            final Feed feed = poll();
+            if (feed == null) {
+                break;
+            }
+
+            batch.add(feed);
+            bytes += FeedSizeEstimator.estimate(feed);
+            if (bytes >= maxBytes) {
+                break;
+            }
+        }
+
+        return batch.size();
+    }
+
+    /**
+     * Removes the feeds of the outstanding batch from the store.
+     * By default there is nothing left to remove, as {@link #drain(List, int, long)} already took the feeds out.
+     *
+     * @param batch The batch filled by {@link #drain(List, int, long)}.
+     */
+    default void commit(List<Feed> batch) {
+    }
+
+    /**
+     * Returns the feeds of the outstanding batch to the front of the store, in their original order.
+     * By default the feeds are added back with {@link #addFeeds(Collection)}, after the feeds stored in the meantime.
+     *
+     * @param batch The batch filled by {@link #drain(List, int, long)}.
+     */
+    default void rollback(List<Feed> batch) {
+        addFeeds(batch);
+    }
 }
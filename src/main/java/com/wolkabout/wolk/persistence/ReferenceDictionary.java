@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.FeedReference;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file that assigns journal ids to feed references, so records store an int instead of the reference.
+ * <p>
+ * Each entry is the reference length (unsigned short) followed by the reference in UTF-8, and its position in the
+ * file is its id. A new entry is forced to the disk before any record can refer to it.
+ */
+final class ReferenceDictionary implements Closeable {
+
+    private static final int MAX_REFERENCE_LENGTH = 0xFFFF;
+
+    private final FileChannel channel;
+    private final List<FeedReference> references = new ArrayList<>();
+    // Journal id plus one for each registry id, zero if the reference has no journal id yet
+    private int[] journalIds = new int[64];
+    // Journal ids of references that are not interned
+    private final Map<String, Integer> unregisteredIds = new HashMap<>();
+
+    ReferenceDictionary(Path path) throws IOException {
+        final ByteBuffer content = ByteBuffer.wrap(Files.exists(path) ? Files.readAllBytes(path) : new byte[0]);
+        while (content.remaining() >= 2) {
+            final int length = content.getShort(content.position()) & MAX_REFERENCE_LENGTH;
+            if (content.remaining() < 2 + length) {
+                break;
+            }
+
+            final byte[] reference = new byte[length];
+            content.position(content.position() + 2);
+            content.get(reference);
+            register(FeedReference.of(new String(reference, StandardCharsets.UTF_8)));
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Drops an entry that was only partially written
+        channel.truncate(content.position());
+        channel.position(content.position());
+    }
+
+    /**
+     * Returns the journal id of the reference, adding the reference to the dictionary if needed.
+     */
+    int idOf(FeedReference reference) throws IOException {
+        final int existing = find(reference);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        final byte[] bytes = reference.getReference().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_REFERENCE_LENGTH) {
+            throw new IllegalArgumentException("Feed reference is too long: " + reference);
+        }
+
+        final ByteBuffer entry = ByteBuffer.allocate(2 + bytes.length);
+        entry.putShort((short) bytes.length).put(bytes).flip();
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+        channel.force(false);
+
+        return register(reference);
+    }
+
+    /**
+     * Returns the journal id of the reference, or -1 if the reference is not in the dictionary.
+     */
+    int find(FeedReference reference) {
+        final int registryId = reference.getId();
+        if (registryId == FeedReference.UNREGISTERED) {
+            return unregisteredIds.getOrDefault(reference.getReference(), -1);
+        }
+        return registryId < journalIds.length ? journalIds[registryId] - 1 : -1;
+    }
+
+    /**
+     * Returns the reference with the given journal id.
+     */
+    FeedReference get(int id) {
+        if (id < 0 || id >= references.size()) {
+            throw new IllegalStateException("Unknown feed reference id in journal record: " + id);
+        }
+        return references.get(id);
+    }
+
+    private int register(FeedReference reference) {
+        final int id = references.size();
+        references.add(reference);
+
+        final int registryId = reference.getId();
+        if (registryId == FeedReference.UNREGISTERED) {
+            unregisteredIds.put(reference.getReference(), id);
+            return id;
+        }
+        if (registryId >= journalIds.length) {
+            journalIds = Arrays.copyOf(journalIds, Math.max(registryId + 1, journalIds.length * 2));
+        }
+        journalIds[registryId] = id + 1;
+        return id;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
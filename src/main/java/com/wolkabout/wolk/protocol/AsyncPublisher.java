@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.protocol;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Publishes messages without waiting for each one to be delivered, keeping up to a fixed number of them in flight.
+ * <p>
+ * A publish blocks only while the limit is reached, and returns a future that completes once the broker has
+ * acknowledged the message for its QoS, or completes exceptionally if the message could not be delivered.
+ */
+public class AsyncPublisher {
+
+    private final IMqttAsyncClient client;
+    private final Semaphore inflight;
+
+    /**
+     * @param client      Client used for publishing.
+     * @param maxInflight Maximum number of messages in flight, should not exceed the client's own limit.
+     */
+    public AsyncPublisher(IMqttAsyncClient client, int maxInflight) {
+        if (maxInflight < 1) {
+            throw new IllegalArgumentException("Max inflight must be a positive number");
+        }
+
+        this.client = client;
+        this.inflight = new Semaphore(maxInflight, true);
+    }
+
+    public CompletableFuture<Void> publish(String topic, byte[] payload, int qos, boolean retained) {
+        final MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        return publish(topic, message);
+    }
+
+    public CompletableFuture<Void> publish(String topic, MqttMessage message) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        try {
+            inflight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        try {
+            client.publish(topic, message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    inflight.release();
+                    future.complete(null);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    inflight.release();
+                    future.completeExceptionally(exception);
+                }
+            });
+        } catch (MqttException | RuntimeException e) {
+            inflight.release();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Publishes a message and waits for its delivery on the token. The client calls the action listeners and the
+     * subscription listeners on the same thread, so waiting for a listener, or for a slot that a listener frees,
+     * would never end when publishing from a subscription listener. The message takes a free slot if there is one,
+     * and is published without one otherwise.
+     *
+     * @param timeToWait Time to wait for the delivery in milliseconds, or -1 to wait until it is done.
+     * @throws MqttException If the message could not be published or delivered in time.
+     */
+    void publishAndWait(String topic, MqttMessage message, long timeToWait) throws MqttException {
+        final boolean slot = inflight.tryAcquire();
+        try {
+            client.publish(topic, message).waitForCompletion(timeToWait);
+        } finally {
+            if (slot) {
+                inflight.release();
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages that can be published before the limit is reached.
+     */
+    public int availableSlots() {
+        return inflight.availablePermits();
+    }
+}
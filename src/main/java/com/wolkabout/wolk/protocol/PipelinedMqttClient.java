@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.protocol;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Blocking MQTT client that also exposes an {@link AsyncPublisher} on top of its asynchronous client.
+ * <p>
+ * Blocking publishes go through the same publisher, and take one of its slots if one is free. They never wait
+ * for a slot, as they may be made from a subscription listener, which runs on the thread that frees the slots.
+ */
+public class PipelinedMqttClient extends MqttClient {
+
+    private final AsyncPublisher publisher;
+
+    public PipelinedMqttClient(String serverURI, String clientId, MqttClientPersistence persistence, int maxInflight) throws MqttException {
+        super(serverURI, clientId, persistence);
+        this.publisher = new AsyncPublisher(aClient, maxInflight);
+    }
+
+    public AsyncPublisher getPublisher() {
+        return publisher;
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, int qos, boolean retained) throws MqttException {
+        final MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        publish(topic, message);
+    }
+
+    @Override
+    public void publish(String topic, MqttMessage message) throws MqttException {
+        publisher.publishAndWait(topic, message, getTimeToWait());
+    }
+}
@@ -31,6 +31,8 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public abstract class Protocol {
 
@@ -44,22 +46,95 @@ public abstract class Protocol {
 
     protected static final int QOS = 2;
 
+    protected int maxMessageSize = 0;
+
+    protected QosPolicy qosPolicy = QosPolicy.DEFAULT;
+
+    private final AsyncPublisher publisher;
+
     public Protocol(MqttClient client, FeedHandler feedHandler, TimeHandler timeHandler, ParameterHandler parameterHandler, ErrorHandler errorHandler) {
         this.client = client;
         this.feedHandler = feedHandler;
         this.timeHandler = timeHandler;
         this.parameterHandler = parameterHandler;
         this.errorHandler = errorHandler;
+        this.publisher = client instanceof PipelinedMqttClient ? ((PipelinedMqttClient) client).getPublisher() : null;
     }
 
     public abstract void subscribe() throws Exception;
 
-    protected void publish(String topic, Object payload) {
+    /**
+     * Limits the size of outbound feed messages. Larger feed collections are split into several messages.
+     *
+     * @param maxMessageSize Maximum message size in bytes, 0 for no limit.
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < 0) {
+            throw new IllegalArgumentException("Max message size must be a non negative number");
+        }
+
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Sets the quality of service used for each class of outbound messages.
+     */
+    public void setQosPolicy(QosPolicy qosPolicy) {
+        if (qosPolicy == null) {
+            throw new IllegalArgumentException("QoS policy must be set");
+        }
+
+        this.qosPolicy = qosPolicy;
+    }
+
+    protected void publish(String topic, Object payload, QosPolicy.MessageClass messageClass) {
+        publish(topic, JsonUtil.serialize(payload), qosPolicy.qosFor(messageClass));
+    }
+
+    protected void publish(String topic, byte[] payload, int qos) {
         try {
-            LOG.debug("Publishing to '" + topic + "' payload: " + new String(JsonUtil.serialize(payload), StandardCharsets.UTF_8));
-            client.publish(topic, JsonUtil.serialize(payload), QOS, false);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Publishing to '" + topic + "' payload: " + new String(payload, StandardCharsets.UTF_8));
+            }
+            client.publish(topic, payload, qos, false);
         } catch (Exception e) {
-            throw new IllegalArgumentException("Could not publish message to: " + topic + " with payload: " + payload, e);
+            throw new IllegalArgumentException("Could not publish message to: " + topic + " with payload: " + new String(payload, StandardCharsets.UTF_8), e);
+        }
+    }
+
+    /**
+     * Publishes without waiting for the delivery, if the client supports it, see {@link PipelinedMqttClient}.
+     * Other clients publish right away, and return a completed future.
+     */
+    protected CompletableFuture<Void> publishAsync(String topic, byte[] payload, int qos) {
+        if (publisher == null) {
+            try {
+                publish(topic, payload, qos);
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Publishing to '" + topic + "' payload: " + new String(payload, StandardCharsets.UTF_8));
+        }
+        return publisher.publish(topic, payload, qos, false);
+    }
+
+    /**
+     * Waits for an asynchronous publish, and rethrows its failure.
+     */
+    protected static void await(CompletableFuture<?> publish) {
+        try {
+            publish.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException("Could not publish message", e.getCause());
         }
     }
 
@@ -67,6 +142,10 @@ public abstract class Protocol {
 
     public abstract void publishFeeds(Collection<Feed> feeds);
 
+    public abstract CompletableFuture<Void> publishFeedAsync(Feed feed);
+
+    public abstract CompletableFuture<Void> publishFeedsAsync(Collection<Feed> feeds);
+
     public abstract void registerFeeds(Collection<FeedTemplate> feeds);
 
     public abstract void removeFeeds(Collection<String> feedReferences);
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.protocol;
+
+import com.wolkabout.wolk.model.FeedReference;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns the MQTT quality of service to outbound messages, by the class of the message.
+ * <p>
+ * Telemetry can additionally be given a quality of service per feed reference, so bulk readings can be sent
+ * with QoS 0 or 1 while important feeds keep QoS 2. Every class defaults to QoS 2.
+ */
+public class QosPolicy {
+
+    public enum MessageClass {
+        /**
+         * Feed values.
+         */
+        TELEMETRY,
+        /**
+         * Parameter updates and synchronization, and pull requests for feeds, parameters and time.
+         */
+        PARAMETERS,
+        /**
+         * Feed and attribute registration, and feed removal.
+         */
+        REGISTRATION,
+        /**
+         * File chunk requests, transfer and URL download statuses, and file lists.
+         */
+        FILE_TRANSFER,
+        /**
+         * Firmware update statuses and firmware versions.
+         */
+        FIRMWARE_STATUS
+    }
+
+    public static final int DEFAULT_QOS = 2;
+
+    public static final QosPolicy DEFAULT = builder().build();
+
+    private static final int NO_OVERRIDE = -1;
+
+    private final int[] classQos;
+    private final int[] feedQos;
+    // Overrides for references that are not interned, by reference
+    private final Map<String, Integer> unregisteredFeedQos;
+    private final boolean hasFeedOverrides;
+
+    private QosPolicy(int[] classQos, int[] feedQos, Map<String, Integer> unregisteredFeedQos) {
+        this.classQos = classQos;
+        this.feedQos = feedQos;
+        this.unregisteredFeedQos = unregisteredFeedQos;
+        this.hasFeedOverrides = feedQos.length > 0 || !unregisteredFeedQos.isEmpty();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int qosFor(MessageClass messageClass) {
+        return classQos[messageClass.ordinal()];
+    }
+
+    /**
+     * Quality of service for the values of a feed, its own override if it has one, otherwise the telemetry QoS.
+     */
+    public int qosFor(FeedReference reference) {
+        final int id = reference.getId();
+        if (id == FeedReference.UNREGISTERED) {
+            return unregisteredFeedQos.getOrDefault(reference.getReference(), classQos[MessageClass.TELEMETRY.ordinal()]);
+        }
+        if (id < feedQos.length && feedQos[id] != NO_OVERRIDE) {
+            return feedQos[id];
+        }
+        return classQos[MessageClass.TELEMETRY.ordinal()];
+    }
+
+    /**
+     * @return True if any feed reference has its own quality of service.
+     */
+    public boolean hasFeedOverrides() {
+        return hasFeedOverrides;
+    }
+
+    private static int validate(int qos) {
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("QoS must be 0, 1 or 2");
+        }
+        return qos;
+    }
+
+    public static class Builder {
+
+        private final Map<MessageClass, Integer> classQos = new EnumMap<>(MessageClass.class);
+        private final Map<String, Integer> feedQos = new HashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder qos(MessageClass messageClass, int qos) {
+            classQos.put(messageClass, validate(qos));
+            return this;
+        }
+
+        public Builder telemetry(int qos) {
+            return qos(MessageClass.TELEMETRY, qos);
+        }
+
+        public Builder parameters(int qos) {
+            return qos(MessageClass.PARAMETERS, qos);
+        }
+
+        public Builder registration(int qos) {
+            return qos(MessageClass.REGISTRATION, qos);
+        }
+
+        public Builder fileTransfer(int qos) {
+            return qos(MessageClass.FILE_TRANSFER, qos);
+        }
+
+        public Builder firmwareStatus(int qos) {
+            return qos(MessageClass.FIRMWARE_STATUS, qos);
+        }
+
+        /**
+         * Overrides the telemetry quality of service for the values of a single feed.
+         */
+        public Builder feed(String reference, int qos) {
+            if (reference == null || reference.isEmpty()) {
+                throw new IllegalArgumentException("Feed reference must be set");
+            }
+            feedQos.put(reference, validate(qos));
+            return this;
+        }
+
+        public QosPolicy build() {
+            final int[] classes = new int[MessageClass.values().length];
+            for (MessageClass messageClass : MessageClass.values()) {
+                classes[messageClass.ordinal()] = classQos.getOrDefault(messageClass, DEFAULT_QOS);
+            }
+
+            int maxId = -1;
+            final Map<Integer, Integer> feeds = new HashMap<>();
+            final Map<String, Integer> unregistered = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : feedQos.entrySet()) {
+                final int id = FeedReference.of(entry.getKey()).getId();
+                if (id == FeedReference.UNREGISTERED) {
+                    unregistered.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                feeds.put(id, entry.getValue());
+                maxId = Math.max(maxId, id);
+            }
+
+            final int[] feedLevels = new int[maxId + 1];
+            Arrays.fill(feedLevels, NO_OVERRIDE);
+            feeds.forEach((id, qos) -> feedLevels[id] = qos);
+
+            return new QosPolicy(classes, feedLevels, unregistered);
+        }
+    }
+}
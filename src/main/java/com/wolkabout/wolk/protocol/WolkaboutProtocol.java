@@ -24,13 +24,16 @@ import com.wolkabout.wolk.protocol.handler.ErrorHandler;
 import com.wolkabout.wolk.protocol.handler.FeedHandler;
 import com.wolkabout.wolk.protocol.handler.ParameterHandler;
 import com.wolkabout.wolk.protocol.handler.TimeHandler;
+import com.wolkabout.wolk.util.FeedValuesEncoder;
 import com.wolkabout.wolk.util.JsonUtil;
+import com.wolkabout.wolk.util.PayloadParser;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class WolkaboutProtocol extends Protocol {
 
@@ -52,6 +55,8 @@ public class WolkaboutProtocol extends Protocol {
 
     private static final String TIMESTAMP = "utc";
 
+    private final FeedValuesEncoder feedEncoder = new FeedValuesEncoder();
+
     public WolkaboutProtocol(MqttClient client, FeedHandler feedHandler, TimeHandler timeHandler, ParameterHandler parameterHandler, ErrorHandler errorHandler) {
         super(client, feedHandler, timeHandler, parameterHandler, errorHandler);
     }
@@ -90,51 +95,83 @@ public class WolkaboutProtocol extends Protocol {
 
     @Override
     public void publishFeed(Feed feed) {
+        await(publishFeedAsync(feed));
+    }
+
+    @Override
+    public CompletableFuture<Void> publishFeedAsync(Feed feed) {
         final Map<String, Object> feedMap = new HashMap<>();
         feedMap.put(feed.getReference(), serializeValues(feed));
-        feedMap.put("utc", feed.getUtc());
+        feedMap.put(TIMESTAMP, feed.getUtc());
 
-        publish(OUT_DIRECTION + client.getClientId() + FEED_VALUES, feedMap);
+        return publishAsync(OUT_DIRECTION + client.getClientId() + FEED_VALUES, JsonUtil.serialize(feedMap),
+                qosPolicy.qosFor(feed.getFeedReference()));
     }
 
     @Override
     public void publishFeeds(Collection<Feed> feeds) {
+        await(publishFeedsAsync(feeds));
+    }
+
+    /**
+     * Publishes the feeds grouped by timestamp. If a maximum message size is set, the feeds are split into
+     * several messages below that size, and each message is published as soon as it is encoded,
+     * so they are in flight together. Feeds with their own QoS in the {@link QosPolicy} go into separate
+     * messages for each QoS level.
+     */
+    @Override
+    public CompletableFuture<Void> publishFeedsAsync(Collection<Feed> feeds) {
         if (feeds.isEmpty()) {
-            return;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (!qosPolicy.hasFeedOverrides()) {
+            return publishFeedsAsync(feeds, qosPolicy.qosFor(QosPolicy.MessageClass.TELEMETRY));
         }
 
-        final HashMap<Long, Map<String, Object>> payloadByTime = new HashMap<>();
+        final List<List<Feed>> byQos = Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
         for (Feed feed : feeds) {
-            if (payloadByTime.containsKey(feed.getUtc())) {
-                final Map<String, Object> readingMap = payloadByTime.get(feed.getUtc());
-                if (!readingMap.containsKey(feed.getReference())) {
-                    readingMap.put(feed.getReference(), feed.getValues().size() > 1 ? feed.getValues() : feed.getValue());
-                }
-            } else {
-                final HashMap<String, Object> readingMap = new HashMap<>();
-                readingMap.put("utc", feed.getUtc());
-
-                readingMap.put(feed.getReference(), feed.getValues().size() > 1 ? feed.getValues() : feed.getValue());
-                payloadByTime.put(feed.getUtc(), readingMap);
+            byQos.get(qosPolicy.qosFor(feed.getFeedReference())).add(feed);
+        }
+
+        final List<CompletableFuture<Void>> publishes = new ArrayList<>(byQos.size());
+        for (int qos = 0; qos < byQos.size(); qos++) {
+            if (!byQos.get(qos).isEmpty()) {
+                publishes.add(publishFeedsAsync(byQos.get(qos), qos));
             }
         }
 
-        publish(OUT_DIRECTION + client.getClientId() + FEED_VALUES, payloadByTime.values());
+        return CompletableFuture.allOf(publishes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> publishFeedsAsync(Collection<Feed> feeds, int qos) {
+        final String topic = OUT_DIRECTION + client.getClientId() + FEED_VALUES;
+        if (maxMessageSize <= 0) {
+            return publishAsync(topic, feedEncoder.encode(feeds), qos);
+        }
+
+        final List<CompletableFuture<Void>> messages = new ArrayList<>();
+        feedEncoder.encode(feeds, maxMessageSize, message -> messages.add(publishAsync(topic, message, qos)));
+        if (messages.size() > 1) {
+            LOG.debug("Feed values exceed " + maxMessageSize + " bytes, split into " + messages.size() + " messages.");
+        }
+
+        return CompletableFuture.allOf(messages.toArray(new CompletableFuture<?>[0]));
     }
 
     @Override
     public void registerFeeds(Collection<FeedTemplate> feeds) {
-        publish(OUT_DIRECTION + client.getClientId() + FEED_REGISTRATION, feeds);
+        publish(OUT_DIRECTION + client.getClientId() + FEED_REGISTRATION, feeds, QosPolicy.MessageClass.REGISTRATION);
     }
 
     @Override
     public void removeFeeds(Collection<String> feedReferences) {
-        publish(OUT_DIRECTION + client.getClientId() + FEED_REMOVAL, feedReferences);
+        publish(OUT_DIRECTION + client.getClientId() + FEED_REMOVAL, feedReferences, QosPolicy.MessageClass.REGISTRATION);
     }
 
     @Override
     public void pullFeeds() {
-        publish(OUT_DIRECTION + client.getClientId() + FEED_PULL, "");
+        publish(OUT_DIRECTION + client.getClientId() + FEED_PULL, "", QosPolicy.MessageClass.PARAMETERS);
     }
 
     @Override
@@ -145,51 +182,36 @@ public class WolkaboutProtocol extends Protocol {
             payload.put(param.getReference(), param.getValue());
         }
 
-        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS, payload);
+        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS, payload, QosPolicy.MessageClass.PARAMETERS);
     }
 
     @Override
     public void pullParameters() {
-        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS_PULL, "");
+        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS_PULL, "", QosPolicy.MessageClass.PARAMETERS);
     }
 
     @Override
     public void syncronizeParameters(Collection<String> parameterNames) {
-        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS_SYNC, parameterNames);
+        publish(OUT_DIRECTION + client.getClientId() + PARAMETERS_SYNC, parameterNames, QosPolicy.MessageClass.PARAMETERS);
     }
 
     @Override
     public void registerAttributes(Collection<Attribute> attributes) {
-        publish(OUT_DIRECTION + client.getClientId() + ATTRIBUTE_REGISTER, attributes);
+        publish(OUT_DIRECTION + client.getClientId() + ATTRIBUTE_REGISTER, attributes, QosPolicy.MessageClass.REGISTRATION);
     }
 
     @Override
     public void pullTime() {
-        publish(OUT_DIRECTION + client.getClientId() + TIME, "");
+        publish(OUT_DIRECTION + client.getClientId() + TIME, "", QosPolicy.MessageClass.PARAMETERS);
     }
 
     private void handleFeedValues(String topic, MqttMessage message) {
         LOG.debug("Received on '" + topic + "' payload: " + message.toString());
 
-        List<Feed> feeds = new ArrayList<>();
+        final List<Feed> feeds;
 
         try {
-            final HashMap<String, Object>[] inValues = JsonUtil.deserialize(message, HashMap[].class);
-
-            for (HashMap<String, Object> feed : inValues) {
-                String reference = feed.keySet().stream().filter(s -> !Objects.equals(s, TIMESTAMP)).findFirst().get();
-
-                Object value = feed.get(reference);
-
-                if (feed.containsKey(TIMESTAMP)) {
-                    long utc = (long) feed.get(TIMESTAMP);
-
-                    feeds.add(new Feed(reference, value.toString(), utc));
-                } else {
-                    feeds.add(new Feed(reference, value.toString()));
-                }
-            }
-
+            feeds = PayloadParser.parseFeeds(message.getPayload());
         } catch (Exception e) {
             LOG.error("Failed to deserialize message from '" + topic + "' payload: " + message.toString());
             LOG.error(e.getMessage());
@@ -203,14 +225,10 @@ public class WolkaboutProtocol extends Protocol {
     private void handleParameters(String topic, MqttMessage message) {
         LOG.debug("Received on '" + topic + "' payload: " + message.toString());
 
-        List<Parameter> parameters = new ArrayList<>();
+        final List<Parameter> parameters;
 
         try {
-            final HashMap<String, Object> inValues = JsonUtil.deserialize(message, HashMap.class);
-
-            for (String key : inValues.keySet()) {
-                parameters.add(new Parameter(key, inValues.get(key)));
-            }
+            parameters = PayloadParser.parseParameters(message.getPayload());
         } catch (Exception e) {
             LOG.error("Failed to deserialize message from '" + topic + "' payload: " + message.toString());
             LOG.error(e.getMessage());
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Supplies the threads used by a {@link com.wolkabout.wolk.Wolk} instance and its features.
+ * <p>
+ * The executor runs message handlers, file transfers and publishing, and may block. The scheduler only
+ * runs timers and short periodic tasks. A single provider can be shared by many instances, in which case
+ * whoever created it is responsible for shutting it down.
+ */
+public interface ExecutorProvider {
+
+    int DEFAULT_SCHEDULER_THREADS = 2;
+
+    ExecutorService executor();
+
+    ScheduledExecutorService scheduler();
+
+    /**
+     * Stops both executors. Running tasks are interrupted.
+     */
+    void shutdown();
+
+    /**
+     * Cached pool of platform threads for the executor, and a small scheduled pool for the scheduler.
+     */
+    static ExecutorProvider platformThreads() {
+        return of(Executors.newCachedThreadPool(new NamedThreadFactory("wolk-worker-")),
+                Executors.newScheduledThreadPool(DEFAULT_SCHEDULER_THREADS, new NamedThreadFactory("wolk-scheduler-")));
+    }
+
+    /**
+     * A new virtual thread for every executor task, and a small scheduled pool of platform threads for the
+     * scheduler. Requires Java 21 or newer at runtime.
+     *
+     * @throws IllegalStateException If the running JVM does not support virtual threads.
+     */
+    static ExecutorProvider virtualThreads() {
+        return of(VirtualThreads.newExecutor("wolk-virtual-"),
+                Executors.newScheduledThreadPool(DEFAULT_SCHEDULER_THREADS, new NamedThreadFactory("wolk-scheduler-")));
+    }
+
+    /**
+     * @return True if the running JVM supports virtual threads.
+     */
+    static boolean virtualThreadsSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Wraps existing executors. Shutting the provider down shuts both of them down.
+     */
+    static ExecutorProvider of(ExecutorService executor, ScheduledExecutorService scheduler) {
+        if (executor == null || scheduler == null) {
+            throw new IllegalArgumentException("Executor and scheduler must be set");
+        }
+
+        return new ExecutorProvider() {
+            @Override
+            public ExecutorService executor() {
+                return executor;
+            }
+
+            @Override
+            public ScheduledExecutorService scheduler() {
+                return scheduler;
+            }
+
+            @Override
+            public void shutdown() {
+                scheduler.shutdownNow();
+                executor.shutdownNow();
+            }
+        };
+    }
+
+    /**
+     * Creates threads with a common name prefix and a running number.
+     */
+    class NamedThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory delegate = Executors.defaultThreadFactory();
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = delegate.newThread(runnable);
+            thread.setName(prefix + counter.incrementAndGet());
+            return thread;
+        }
+    }
+}
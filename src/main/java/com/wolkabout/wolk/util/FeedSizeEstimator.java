@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wolkabout.wolk.model.BooleanFeed;
+import com.wolkabout.wolk.model.DoubleFeed;
+import com.wolkabout.wolk.model.DoubleVectorFeed;
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.model.LongFeed;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Estimates how many bytes a feed takes up once serialized into a feed values message.
+ * The estimate does not undershoot the size written by {@link FeedValuesEncoder}, so it can be used to keep messages
+ * under a size limit. Values other than strings, booleans and the standard numbers are serialized to get their size.
+ */
+public class FeedSizeEstimator {
+
+    /**
+     * Size of the object wrapping the feeds that share a timestamp, {"utc":1234567890123},
+     * without the feeds themselves.
+     */
+    public static final int TIMESTAMP_OVERHEAD = 30;
+
+    /**
+     * Size of the array wrapping all the timestamp objects in a message.
+     */
+    public static final int MESSAGE_OVERHEAD = 2;
+
+    private static final int MAX_DOUBLE_LENGTH = 24;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private FeedSizeEstimator() {
+        // Not meant to be instantiated.
+    }
+
+    /**
+     * Estimates the size of the "reference":value pair of the feed, including the separating comma.
+     *
+     * @param feed Feed to estimate.
+     * @return Estimated size in bytes.
+     */
+    public static int estimate(Feed feed) {
+        int size = feed.getFeedReference().getJsonKeySize() + 2;
+
+        if (feed instanceof DoubleFeed) {
+            return size + MAX_DOUBLE_LENGTH;
+        } else if (feed instanceof LongFeed) {
+            return size + longSize(((LongFeed) feed).getLong());
+        } else if (feed instanceof BooleanFeed) {
+            return size + 5;
+        } else if (feed instanceof DoubleVectorFeed) {
+            final int count = ((DoubleVectorFeed) feed).getDoubles().length;
+            return size + 1 + count * (MAX_DOUBLE_LENGTH + 1);
+        }
+
+        final List<Object> values = feed.getValues();
+        if (values.size() == 1) {
+            size += valueSize(values.get(0));
+        } else {
+            size += 1 + values.size();
+            for (Object value : values) {
+                size += valueSize(value);
+            }
+        }
+
+        return size;
+    }
+
+    private static int valueSize(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof Boolean) {
+            return 5;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return longSize(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return MAX_DOUBLE_LENGTH;
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return value.toString().length();
+        } else if (value instanceof String) {
+            return stringSize((String) value);
+        }
+
+        try {
+            return MAPPER.writeValueAsBytes(value).length;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize feed value: " + value, e);
+        }
+    }
+
+    private static int longSize(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+
+        int size = value < 0 ? 2 : 1;
+        long remaining = Math.abs(value);
+        while (remaining >= 10) {
+            remaining /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Size of the string as a quoted, escaped JSON string in UTF-8.
+     */
+    private static int stringSize(String string) {
+        int size = 2;
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                size += 6;
+            } else if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wolkabout.wolk.model.BooleanFeed;
+import com.wolkabout.wolk.model.DoubleFeed;
+import com.wolkabout.wolk.model.DoubleVectorFeed;
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.model.FeedReference;
+import com.wolkabout.wolk.model.LongFeed;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes feeds as a feed values message, an array of objects that each hold a timestamp and all the feeds
+ * sharing it, e.g. [{"utc":1000,"T":24.5,"H":60}].
+ * <p>
+ * The feeds are grouped by sorting them by timestamp, and the message is written straight into a reused buffer,
+ * so encoding allocates little besides the resulting arrays. Encoding is synchronized, as all calls share
+ * the same buffers.
+ */
+public class FeedValuesEncoder {
+
+    private static final String TIMESTAMP = "utc";
+
+    private static final Comparator<Feed> BY_TIMESTAMP = Comparator.comparingLong(Feed::getUtc);
+
+    /**
+     * Groups up to this size look for a repeated reference by scanning, larger ones use a set of reference ids.
+     */
+    private static final int SCAN_LIMIT = 16;
+
+    private final JsonFactory factory = new ObjectMapper().getFactory();
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(8 * 1024);
+    private final BitSet groupReferences = new BitSet();
+
+    private Feed[] sorted = new Feed[16];
+
+    /**
+     * Encodes all the feeds into a single message.
+     * If a reference repeats within a timestamp, only its first feed is written.
+     *
+     * @param feeds Feeds to encode.
+     * @return UTF-8 encoded JSON message.
+     */
+    public synchronized byte[] encode(Collection<Feed> feeds) {
+        final int count = sort(feeds);
+        try {
+            return encode(sorted, 0, count);
+        } finally {
+            Arrays.fill(sorted, 0, count, null);
+        }
+    }
+
+    /**
+     * Encodes the feeds into as many messages as needed to keep each one within the size limit.
+     * Messages are split based on {@link FeedSizeEstimator}, and a message that still comes out larger than the limit
+     * is split in half until it fits. A single feed larger than the limit still gets its own message.
+     * Each message is handed to the consumer as soon as it is encoded.
+     *
+     * @param feeds    Feeds to encode.
+     * @param maxBytes Maximum message size in bytes.
+     * @param messages Receives the UTF-8 encoded JSON messages, in order.
+     */
+    public synchronized void encode(Collection<Feed> feeds, long maxBytes, Consumer<byte[]> messages) {
+        final int count = sort(feeds);
+        try {
+            int start = 0;
+            long size = FeedSizeEstimator.MESSAGE_OVERHEAD;
+            for (int i = 0; i < count; i++) {
+                int feedSize = FeedSizeEstimator.estimate(sorted[i]);
+                if (i == start || sorted[i].getUtc() != sorted[i - 1].getUtc()) {
+                    feedSize += FeedSizeEstimator.TIMESTAMP_OVERHEAD;
+                }
+
+                if (size + feedSize > maxBytes && i > start) {
+                    encodeWithin(start, i, maxBytes, messages);
+
+                    start = i;
+                    size = FeedSizeEstimator.MESSAGE_OVERHEAD + FeedSizeEstimator.TIMESTAMP_OVERHEAD;
+                    feedSize = FeedSizeEstimator.estimate(sorted[i]);
+                }
+
+                size += feedSize;
+            }
+
+            if (start < count) {
+                encodeWithin(start, count, maxBytes, messages);
+            }
+        } finally {
+            Arrays.fill(sorted, 0, count, null);
+        }
+    }
+
+    /**
+     * Encodes a range of the sorted feeds, splitting it further if the message is larger than the limit.
+     */
+    private void encodeWithin(int from, int to, long maxBytes, Consumer<byte[]> messages) {
+        final byte[] message = encode(sorted, from, to);
+        if (message.length <= maxBytes || to - from == 1) {
+            messages.accept(message);
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        encodeWithin(from, middle, maxBytes, messages);
+        encodeWithin(middle, to, maxBytes, messages);
+    }
+
+    /**
+     * Copies the feeds into the reused array, stably sorted by timestamp.
+     *
+     * @return Number of feeds.
+     */
+    private int sort(Collection<Feed> feeds) {
+        final int count = feeds.size();
+        if (sorted.length < count) {
+            sorted = new Feed[Math.max(count, sorted.length * 2)];
+        }
+
+        boolean ordered = true;
+        int index = 0;
+        for (Feed feed : feeds) {
+            if (index > 0 && sorted[index - 1].getUtc() > feed.getUtc()) {
+                ordered = false;
+            }
+            sorted[index++] = feed;
+        }
+
+        if (!ordered) {
+            Arrays.sort(sorted, 0, count, BY_TIMESTAMP);
+        }
+
+        return count;
+    }
+
+    /**
+     * Encodes a range of feeds that are already sorted by timestamp.
+     */
+    private byte[] encode(Feed[] feeds, int from, int to) {
+        buffer.reset();
+        try (JsonGenerator generator = factory.createGenerator(buffer)) {
+            generator.writeStartArray();
+
+            int groupStart = from;
+            while (groupStart < to) {
+                final long utc = feeds[groupStart].getUtc();
+                int groupEnd = groupStart + 1;
+                while (groupEnd < to && feeds[groupEnd].getUtc() == utc) {
+                    groupEnd++;
+                }
+
+                writeGroup(generator, feeds, groupStart, groupEnd, utc);
+                groupStart = groupEnd;
+            }
+
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not serialize feeds", e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private void writeGroup(JsonGenerator generator, Feed[] feeds, int from, int to, long utc) throws IOException {
+        final boolean useSet = to - from > SCAN_LIMIT;
+        if (useSet) {
+            groupReferences.clear();
+        }
+
+        generator.writeStartObject();
+        generator.writeNumberField(TIMESTAMP, utc);
+
+        for (int i = from; i < to; i++) {
+            final Feed feed = feeds[i];
+            final int id = feed.getFeedReference().getId();
+            final boolean inSet = useSet && id != FeedReference.UNREGISTERED;
+            final boolean repeated = inSet ? groupReferences.get(id) : isRepeated(feeds, from, i);
+            if (repeated) {
+                continue;
+            }
+            if (inSet) {
+                groupReferences.set(id);
+            }
+
+            generator.writeFieldName(feed.getFeedReference().getJsonKey());
+
+            if (feed instanceof DoubleFeed) {
+                generator.writeNumber(((DoubleFeed) feed).getDouble());
+                continue;
+            } else if (feed instanceof LongFeed) {
+                generator.writeNumber(((LongFeed) feed).getLong());
+                continue;
+            } else if (feed instanceof BooleanFeed) {
+                generator.writeBoolean(((BooleanFeed) feed).getBoolean());
+                continue;
+            } else if (feed instanceof DoubleVectorFeed) {
+                final double[] doubles = ((DoubleVectorFeed) feed).getDoubles();
+                generator.writeArray(doubles, 0, doubles.length);
+                continue;
+            }
+
+            final List<Object> values = feed.getValues();
+            if (values.size() == 1) {
+                writeValue(generator, values.get(0));
+            } else {
+                generator.writeStartArray();
+                for (Object value : values) {
+                    writeValue(generator, value);
+                }
+                generator.writeEndArray();
+            }
+        }
+
+        generator.writeEndObject();
+    }
+
+    private static boolean isRepeated(Feed[] feeds, int from, int index) {
+        final FeedReference reference = feeds[index].getFeedReference();
+        final boolean registered = reference.getId() != FeedReference.UNREGISTERED;
+        for (int i = from; i < index; i++) {
+            final FeedReference other = feeds[i].getFeedReference();
+            if (other == reference || (!registered && other.getReference().equals(reference.getReference()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+}
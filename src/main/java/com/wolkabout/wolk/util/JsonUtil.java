@@ -52,7 +52,7 @@ public class JsonUtil {
 
     public static byte[] serialize(Object object) {
         try {
-            return mapper.writeValueAsString(object).getBytes(StandardCharsets.UTF_8);
+            return mapper.writeValueAsBytes(object);
         } catch (Exception e) {
             throw new IllegalArgumentException("Could not serialize: " + object, e);
         }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.model.FeedReference;
+import com.wolkabout.wolk.model.Parameter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads inbound feed values and parameters messages token by token, straight from the message payload.
+ * <p>
+ * Feed values are handed over as strings, as they always were, e.g. "24.5", "true" or "[1, 2, 3]" for an array.
+ * Parameter values keep their JSON types: strings, booleans, numbers as {@link Integer}, {@link Long} or
+ * {@link Double}, and arrays as lists of values.
+ */
+public class PayloadParser {
+
+    private static final String TIMESTAMP = "utc";
+
+    private static final JsonFactory factory = new ObjectMapper().getFactory();
+
+    private PayloadParser() {
+        // Not meant to be instantiated.
+    }
+
+    /**
+     * Parses a feed values message, an array of objects that each hold a timestamp and one or more feeds,
+     * e.g. [{"utc":1000,"T":24.5}]. Feeds without a timestamp get the current time.
+     *
+     * @param payload UTF-8 encoded JSON message.
+     * @return Feeds with a single string value, in the order they appear in the message.
+     */
+    public static List<Feed> parseFeeds(byte[] payload) {
+        try (JsonParser parser = factory.createParser(payload)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            final List<Feed> feeds = new ArrayList<>();
+            final List<String> references = new ArrayList<>();
+            final List<Object> values = new ArrayList<>();
+
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                expect(parser.currentToken(), JsonToken.START_OBJECT);
+
+                long utc = -1;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+
+                    if (TIMESTAMP.equals(name) && token == JsonToken.VALUE_NUMBER_INT) {
+                        utc = parser.getLongValue();
+                    } else {
+                        references.add(name);
+                        values.add(readValue(parser, token));
+                    }
+                }
+
+                final long timestamp = utc >= 0 ? utc : System.currentTimeMillis();
+                for (int i = 0; i < references.size(); i++) {
+                    feeds.add(new Feed(FeedReference.lookup(references.get(i)),
+                            Collections.singletonList(String.valueOf(values.get(i))), timestamp));
+                }
+
+                references.clear();
+                values.clear();
+            }
+
+            return feeds;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to parse feed values", e);
+        }
+    }
+
+    /**
+     * Parses a parameters message, a single object mapping parameter names to values.
+     *
+     * @param payload UTF-8 encoded JSON message.
+     * @return Parameters in the order they appear in the message.
+     */
+    public static List<Parameter> parseParameters(byte[] payload) {
+        try (JsonParser parser = factory.createParser(payload)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            final List<Parameter> parameters = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parameters.add(new Parameter(name, readValue(parser, parser.nextToken())));
+            }
+
+            return parameters;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to parse parameters", e);
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return null;
+            case START_ARRAY:
+                final List<Object> values = new ArrayList<>();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    values.add(readValue(parser, next));
+                }
+                return values;
+            case START_OBJECT:
+                return parser.readValueAs(Map.class);
+            default:
+                throw new IllegalArgumentException("Unexpected token " + token);
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " but got " + actual);
+        }
+    }
+}
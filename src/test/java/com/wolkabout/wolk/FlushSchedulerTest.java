@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlushSchedulerTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Semaphore flushes = new Semaphore(0);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private FlushScheduler start(FlushPolicy policy) throws InterruptedException {
+        final FlushScheduler scheduler = new FlushScheduler(policy, executor, executor, flushes::release);
+        scheduler.start();
+        assertTrue("Initial flush", flushes.tryAcquire(1, TimeUnit.SECONDS));
+        return scheduler;
+    }
+
+    @Test
+    public void flushesOnFeedCount() throws Exception {
+        final FlushScheduler scheduler = start(FlushPolicy.builder().maxFeeds(10).maxAge(Duration.ofHours(1)).build());
+
+        scheduler.added(9, 0);
+        assertFalse(flushes.tryAcquire(100, TimeUnit.MILLISECONDS));
+
+        scheduler.added(1, 0);
+        assertTrue(flushes.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void flushesOnBytes() throws Exception {
+        final FlushScheduler scheduler = start(FlushPolicy.builder().maxBytes(1000).maxAge(Duration.ofHours(1)).build());
+
+        scheduler.added(1, 600);
+        assertFalse(flushes.tryAcquire(100, TimeUnit.MILLISECONDS));
+
+        scheduler.added(1, 600);
+        assertTrue(flushes.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void flushesOnAge() throws Exception {
+        final FlushScheduler scheduler = start(FlushPolicy.builder().maxFeeds(1000).maxAge(Duration.ofMillis(50)).build());
+
+        assertFalse("Nothing stored, nothing to flush", flushes.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+        scheduler.added(1, 0);
+        assertTrue(flushes.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void explicitFlush() throws Exception {
+        final FlushScheduler scheduler = start(FlushPolicy.builder().maxAge(Duration.ofHours(1)).build());
+
+        scheduler.requestFlush();
+        assertTrue(flushes.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void retriesFailedFlush() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final FlushScheduler scheduler = new FlushScheduler(FlushPolicy.builder().maxAge(Duration.ofMillis(50)).build(),
+                executor, executor, () -> {
+            flushes.release();
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Not connected");
+            }
+        });
+        scheduler.start();
+
+        assertTrue(flushes.tryAcquire(3, 2, TimeUnit.SECONDS));
+        assertFalse(flushes.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void stopCancelsAgeTimer() throws Exception {
+        final FlushScheduler scheduler = start(FlushPolicy.builder().maxAge(Duration.ofMillis(50)).build());
+
+        scheduler.added(1, 0);
+        scheduler.stop();
+        scheduler.added(100, 0);
+        scheduler.requestFlush();
+
+        assertFalse(flushes.tryAcquire(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -30,13 +30,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -559,4 +569,407 @@ public class FileDownloadSessionTest {
         verify(callbackMock, times(4)).sendRequest(anyString(), anyInt());
         verify(callbackMock, times(1)).onFinish(FileTransferStatus.FILE_READY, null);
     }
+
+    @Test
+    public void multiChunkRewindWritesFile() throws IOException {
+        // Prepare two chunks of non-zero data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+
+        byte[] firstPayload = chunk(new byte[32], firstData, firstHash);
+        byte[] secondPayloadInvalid = chunk(new byte[32], secondData, secondHash);
+        byte[] secondPayloadValid = chunk(firstHash, secondData, secondHash);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), file);
+
+            // The invalid previous hash drops the first chunk from the file
+            assertTrue(session.receiveBytes(firstPayload));
+            assertTrue(session.receiveBytes(secondPayloadInvalid));
+            assertEquals(0, Files.size(file));
+
+            assertTrue(session.receiveBytes(firstPayload));
+            assertTrue(session.receiveBytes(secondPayloadValid));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertEquals(file, session.getFile());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void windowedOutOfOrderChunks() throws IOException {
+        // Prepare three chunks of different data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE];
+        byte[] thirdData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        Arrays.fill(thirdData, (byte) 3);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+        byte[] thirdHash = DigestUtils.sha256(thirdData);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length + thirdData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        System.arraycopy(thirdData, 0, fileData, firstData.length + secondData.length, thirdData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), file, 3);
+
+            // All the chunks are requested at once
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 0);
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 1);
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 2);
+
+            // The chunks are held until the ones before them arrive
+            assertTrue(session.receiveBytes(chunk(secondHash, thirdData, thirdHash)));
+            assertTrue(session.receiveBytes(chunk(firstHash, secondData, secondHash)));
+            assertEquals(FileTransferStatus.FILE_TRANSFER, session.getStatus());
+            assertEquals(0, Files.size(file));
+
+            assertTrue(session.receiveBytes(chunk(new byte[32], firstData, firstHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+            verify(callbackMock, timeout(1000)).onFinish(FileTransferStatus.FILE_READY, null);
+            verify(callbackMock, times(3)).sendRequest(eq("test-file.jar"), anyInt());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void windowedInvalidChunkIsRequestedAgain() throws IOException {
+        // Prepare three chunks of different data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE];
+        byte[] thirdData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        Arrays.fill(thirdData, (byte) 3);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+        byte[] thirdHash = DigestUtils.sha256(thirdData);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length + thirdData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        System.arraycopy(thirdData, 0, fileData, firstData.length + secondData.length, thirdData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        byte[] secondInvalid = chunk(firstHash, secondData, secondHash);
+        secondInvalid[100] = 0;
+        byte[] thirdInvalid = chunk(secondHash, thirdData, thirdHash);
+        thirdInvalid[100] = 0;
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), file, 3);
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 2);
+
+            assertTrue(session.receiveBytes(chunk(new byte[32], firstData, firstHash)));
+            assertEquals(firstData.length, Files.size(file));
+
+            // The last chunk is the only outstanding one of its size
+            assertTrue(session.receiveBytes(thirdInvalid));
+            verify(callbackMock, timeout(1000).times(2)).sendRequest("test-file.jar", 2);
+
+            // The second chunk continues the verified first one
+            assertTrue(session.receiveBytes(secondInvalid));
+            verify(callbackMock, timeout(1000).times(2)).sendRequest("test-file.jar", 1);
+            assertEquals(firstData.length, Files.size(file));
+
+            assertTrue(session.receiveBytes(chunk(secondHash, thirdData, thirdHash)));
+            assertTrue(session.receiveBytes(chunk(firstHash, secondData, secondHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+            verify(callbackMock, times(1)).sendRequest("test-file.jar", 0);
+            verify(callbackMock, timeout(1000)).onFinish(FileTransferStatus.FILE_READY, null);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void lostChunkIsRequestedAgain() throws IOException {
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            session = new FileDownloadSession(testMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), scheduler, file, 1);
+
+            // The first response is lost, so the chunk is requested again once the request times out
+            verify(callbackMock, timeout(RetransmissionTimeout.INITIAL_MILLIS * 3).times(2))
+                    .sendRequest("test-file.jar", 0);
+            assertEquals(1, session.getTimeoutCount());
+            assertEquals(2 * RetransmissionTimeout.INITIAL_MILLIS, session.getRetransmissionTimeoutMillis());
+
+            assertTrue(session.receiveBytes(chunk(new byte[32], new byte[testFileSize], testMessageHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            verify(callbackMock, timeout(1000)).onFinish(FileTransferStatus.FILE_READY, null);
+        } finally {
+            scheduler.shutdownNow();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void chunksAreValidatedInPlace() throws IOException {
+        // Prepare 40 chunks of 1 KB, with different data
+        final int chunkData = 1024 - CHUNK_EXTRA;
+        final int chunkCount = 40;
+        byte[] fileData = new byte[chunkData * chunkCount];
+        for (int i = 0; i < fileData.length; i++) {
+            fileData[i] = (byte) (i / chunkData + i);
+        }
+        List<byte[]> payloads = new ArrayList<>();
+        byte[] previousHash = new byte[32];
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] data = Arrays.copyOfRange(fileData, i * chunkData, (i + 1) * chunkData);
+            byte[] hash = DigestUtils.sha256(data);
+            payloads.add(chunk(previousHash, data, hash));
+            previousHash = hash;
+        }
+
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, 1,
+                    Executors.newSingleThreadExecutor(), file);
+
+            // A payload with a corrupted hash is rejected, and the chunk is requested again
+            byte[] corrupted = payloads.get(0).clone();
+            corrupted[corrupted.length - 1] ^= 1;
+            assertTrue(session.receiveBytes(corrupted));
+            verify(callbackMock, timeout(1000).times(2)).sendRequest("test-file.jar", 0);
+            assertEquals(0, Files.size(file));
+
+            for (byte[] payload : payloads) {
+                byte[] received = payload.clone();
+                assertTrue(session.receiveBytes(received));
+                assertArrayEquals(payload, received);
+            }
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+
+            // The progress is reported for the first chunk, and then once every 16 chunks
+            verify(callbackMock).onChunksVerified(eq(1), any(byte[].class));
+            verify(callbackMock).onChunksVerified(eq(16), aryEq(Arrays.copyOfRange(payloads.get(15),
+                    payloads.get(15).length - 32, payloads.get(15).length)));
+            verify(callbackMock).onChunksVerified(eq(32), any(byte[].class));
+            verify(callbackMock, times(3)).onChunksVerified(anyInt(), any(byte[].class));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void disconnectLongerThanBackoffDoesNotFail() throws IOException {
+        // Prepare two chunks of different data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        List<Runnable> timers = new ArrayList<>();
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), manualScheduler(timers), file, 1);
+            assertTrue(session.receiveBytes(chunk(new byte[32], firstData, firstHash)));
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 1);
+
+            // The connection is down for longer than all the timeouts of a request together
+            session.pauseTimers();
+            for (int i = 0; i < 10; i++) {
+                for (Runnable timer : new ArrayList<>(timers)) {
+                    timer.run();
+                }
+            }
+            assertEquals(FileTransferStatus.FILE_TRANSFER, session.getStatus());
+            assertEquals(0, session.getTimeoutCount());
+
+            // Once it is back, the chunk is requested again and the transfer completes
+            session.requestRemainingChunks();
+            verify(callbackMock, timeout(1000).times(2)).sendRequest("test-file.jar", 1);
+            assertTrue(session.receiveBytes(chunk(firstHash, secondData, secondHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void timedOutTransferIsResumed() throws IOException {
+        // Prepare two chunks of different data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        List<Runnable> timers = new ArrayList<>();
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), manualScheduler(timers), file, 1);
+            assertTrue(session.receiveBytes(chunk(new byte[32], firstData, firstHash)));
+
+            // Every request for the second chunk times out
+            for (int i = 0; i < 6; i++) {
+                timers.get(timers.size() - 1).run();
+            }
+            verify(callbackMock, timeout(1000)).onFinish(FileTransferStatus.ERROR, FileTransferError.RETRY_COUNT_EXCEEDED);
+            assertTrue(session.isResumable());
+            assertEquals(firstData.length, Files.size(file));
+
+            // Initiating the transfer again continues from the second chunk
+            FileDownloadSession.Callback resumedCallback = mock(FileDownloadSession.Callback.class);
+            FileDownloadSession resumed = new FileDownloadSession(initialMessage, resumedCallback, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), null, file, 1, 1, firstHash);
+            verify(resumedCallback, timeout(1000)).sendRequest("test-file.jar", 1);
+            assertTrue(resumed.receiveBytes(chunk(firstHash, secondData, secondHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, resumed.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+            verify(resumedCallback, never()).sendRequest("test-file.jar", 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void resumeFromVerifiedChunk() throws IOException {
+        // Prepare two chunks of different data
+        byte[] firstData = new byte[MAX_CHUNK_SIZE];
+        byte[] secondData = new byte[MAX_CHUNK_SIZE / 2];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        byte[] secondHash = DigestUtils.sha256(secondData);
+
+        // Prepare the initial message
+        byte[] fileData = new byte[firstData.length + secondData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+        FileInit initialMessage = new FileInit();
+        initialMessage.setFileName("test-file.jar");
+        initialMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(fileData)));
+        initialMessage.setFileSize(fileData.length);
+
+        // The interrupted transfer wrote the first chunk, and a part of the second one
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        Files.write(file, Arrays.copyOf(fileData, firstData.length + 100));
+        try {
+            session = new FileDownloadSession(initialMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), null, file, 1, 1, firstHash);
+
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 1);
+            assertEquals(firstData.length, Files.size(file));
+
+            assertTrue(session.receiveBytes(chunk(firstHash, secondData, secondHash)));
+
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+            assertArrayEquals(fileData, Files.readAllBytes(file));
+            verify(callbackMock, never()).sendRequest("test-file.jar", 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void resumeWithoutDataStartsOver() throws IOException {
+        Path file = Files.createTempFile("wolk-test-", ".part");
+        try {
+            session = new FileDownloadSession(testMessage, callbackMock, MAX_MESSAGE_SIZE,
+                    Executors.newSingleThreadExecutor(), null, file, 1, 1, testMessageHash);
+
+            verify(callbackMock, timeout(1000)).sendRequest("test-file.jar", 0);
+            assertTrue(session.receiveBytes(chunk(new byte[32], new byte[testFileSize], testMessageHash)));
+            assertEquals(FileTransferStatus.FILE_READY, session.getStatus());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A scheduler that only collects the timers, for the test to run them as if their time passed.
+     */
+    private static ScheduledExecutorService manualScheduler(List<Runnable> timers) {
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            timers.add(invocation.getArgument(0));
+            return mock(ScheduledFuture.class);
+        }).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        return scheduler;
+    }
+
+    private static byte[] chunk(byte[] previousHash, byte[] data, byte[] currentHash) {
+        byte[] payload = new byte[previousHash.length + data.length + currentHash.length];
+        System.arraycopy(previousHash, 0, payload, 0, previousHash.length);
+        System.arraycopy(data, 0, payload, previousHash.length, data.length);
+        System.arraycopy(currentHash, 0, payload, previousHash.length + data.length, currentHash.length);
+        return payload;
+    }
 }
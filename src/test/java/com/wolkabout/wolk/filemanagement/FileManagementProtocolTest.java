@@ -16,8 +16,11 @@
  */
 package com.wolkabout.wolk.filemanagement;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wolkabout.wolk.filemanagement.model.FileTransferError;
 import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import com.wolkabout.wolk.filemanagement.model.device2platform.FileInformation;
 import com.wolkabout.wolk.filemanagement.model.platform2device.FileAbort;
 import com.wolkabout.wolk.filemanagement.model.platform2device.FileDelete;
 import com.wolkabout.wolk.filemanagement.model.platform2device.FileInit;
@@ -32,6 +35,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.slf4j.Logger;
@@ -44,9 +48,14 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -211,9 +220,7 @@ public class FileManagementProtocolTest {
         protocol = new FileManagementProtocol(clientMock, managementMock);
 
         // Setup the values
-        Field sessionField = FileManagementProtocol.class.getDeclaredField("fileDownloadSession");
-        sessionField.setAccessible(true);
-        sessionField.set(protocol, new FileDownloadSession(testInitMessage, new FileDownloadSession.Callback() {
+        protocol.fileDownloadSessions.put(testInitMessage.getFileName(), new FileDownloadSession(testInitMessage, new FileDownloadSession.Callback() {
             @Override
             public void sendRequest(String fileName, int chunkIndex) {
 
@@ -366,10 +373,8 @@ public class FileManagementProtocolTest {
         // Create the protocol
         protocol = new FileManagementProtocol(clientMock, managementMock);
 
-        // Set the field to null
-        Field field = FileManagementProtocol.class.getDeclaredField("fileDownloadSession");
-        field.setAccessible(true);
-        field.set(protocol, null);
+        // Check there are no sessions
+        assertTrue(protocol.fileDownloadSessions.isEmpty());
 
         // Create the abort message
         FileAbort testAbortMessage = new FileAbort();
@@ -554,7 +559,7 @@ public class FileManagementProtocolTest {
         Thread.sleep(1000);
 
         // Verify the calls
-        verify(managementMock, times(1)).createFile(any(), anyString());
+        verify(managementMock, times(1)).moveFile(any(), anyString(), any());
         verify(clientMock, times(6)).getClientId();
         verify(clientMock, times(4)).publish(anyString(), any(), anyInt(), anyBoolean());
     }
@@ -562,7 +567,7 @@ public class FileManagementProtocolTest {
     @Test
     public void fileTransferSessionFailToSaveFile() throws MqttException, IOException, InterruptedException {
         // Create the snap
-        doThrow(new IOException("Failed to save file - TEST.")).when(managementMock).createFile(any(), anyString());
+        doThrow(new IOException("Failed to save file - TEST.")).when(managementMock).moveFile(any(), anyString(), any());
 
         // Create the protocol
         protocol = new FileManagementProtocol(clientMock, managementMock);
@@ -605,9 +610,7 @@ public class FileManagementProtocolTest {
         protocol = new FileManagementProtocol(clientMock, managementMock);
 
         // Set the session
-        Field field = FileManagementProtocol.class.getDeclaredField("urlFileDownloadSession");
-        field.setAccessible(true);
-        field.set(protocol, urlFileDownloadSessionMock);
+        protocol.urlFileDownloadSessions.put("https://other.url", urlFileDownloadSessionMock);
 
         // Prepare the test message
         UrlInfo urlInfo = new UrlInfo();
@@ -694,10 +697,8 @@ public class FileManagementProtocolTest {
         // Create the protocol
         protocol = new FileManagementProtocol(clientMock, managementMock);
 
-        // Set the session
-        Field field = FileManagementProtocol.class.getDeclaredField("urlFileDownloadSession");
-        field.setAccessible(true);
-        field.set(protocol, null);
+        // Check there are no sessions
+        assertTrue(protocol.urlFileDownloadSessions.isEmpty());
 
         // Call the method
         protocol.handleUrlDownloadAbort(
@@ -735,6 +736,33 @@ public class FileManagementProtocolTest {
         verify(clientMock, times(2)).publish(anyString(), any(), anyInt(), anyBoolean());
     }
 
+    @Test
+    public void duplicateUrlDownloadGetsTheResult() throws InterruptedException {
+        // The download is held until both downloads of the URL are requested
+        final CountDownLatch latch = new CountDownLatch(1);
+        protocol = new FileManagementProtocol(clientMock, managementMock, fileUrl -> {
+            try {
+                latch.await();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            return new UrlFileDownloadResult(FileTransferError.MALFORMED_URL);
+        });
+        UrlFileDownloadSession.Callback firstCallback = mock(UrlFileDownloadSession.Callback.class);
+        UrlFileDownloadSession.Callback secondCallback = mock(UrlFileDownloadSession.Callback.class);
+        UrlInfo urlInfo = new UrlInfo();
+        urlInfo.setFileUrl("https://test.url");
+
+        protocol.urlDownload(urlInfo, firstCallback);
+        protocol.urlDownload(urlInfo, secondCallback);
+        latch.countDown();
+
+        // Both callbacks get the result of the single download
+        verify(firstCallback, timeout(1000)).onFinish(FileTransferStatus.ERROR, "", FileTransferError.MALFORMED_URL);
+        verify(secondCallback, timeout(1000)).onFinish(FileTransferStatus.ERROR, "", FileTransferError.MALFORMED_URL);
+        assertTrue(protocol.urlFileDownloadSessions.isEmpty());
+    }
+
     @Test
     public void urlAbortHappyFlow() throws MqttException, InterruptedException {
         // Create the protocol
@@ -804,6 +832,29 @@ public class FileManagementProtocolTest {
         protocol.handleUrlSessionFinish(urlFileDownloadSessionMock, null, "", null);
     }
 
+    @Test
+    public void urlFileThatCanNotBeSavedReportsUrlStatus() throws IOException, MqttException {
+        doReturn("test-client").when(clientMock).getClientId();
+        UrlInfo urlInfo = new UrlInfo();
+        urlInfo.setFileUrl("https://test.url/file.bin");
+        doReturn(urlInfo).when(urlFileDownloadSessionMock).getInitMessage();
+        doReturn(new byte[]{1}).when(urlFileDownloadSessionMock).getFileData();
+        doReturn("file.bin").when(urlFileDownloadSessionMock).getFileName();
+        doThrow(new IOException("Disk full")).when(managementMock).createFile(any(), anyString());
+
+        // Finish the session, with the file failing to be saved
+        protocol = new FileManagementProtocol(clientMock, managementMock);
+        protocol.handleUrlSessionFinish(urlFileDownloadSessionMock, FileTransferStatus.FILE_READY, "file.bin", null);
+
+        // The failure is reported as a URL status
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock).publish(eq("d2p/test-client/file_url_download_status"), payload.capture(),
+                anyInt(), anyBoolean());
+        assertEquals(new ObjectMapper().readTree("{\"fileUrl\":\"https://test.url/file.bin\",\"fileName\":\"file.bin\"," +
+                        "\"status\":\"ERROR\",\"error\":\"FILE_SYSTEM_ERROR\"}"),
+                new ObjectMapper().readTree(payload.getValue()));
+    }
+
     @Test
     public void handleUrlFileHappyFlow() throws InterruptedException, IOException, MqttException {
         // Setup the protocol
@@ -917,4 +968,123 @@ public class FileManagementProtocolTest {
         verify(clientMock, times(2)).getClientId();
         verify(clientMock, times(1)).publish(anyString(), any(), anyInt(), anyBoolean());
     }
+
+    @Test
+    public void concurrentFileTransfers() throws MqttException, IOException, InterruptedException {
+        // Create the protocol, with chunks of 960 bytes
+        protocol = new FileManagementProtocol(clientMock, managementMock);
+        protocol.setMaxChunkSize(1);
+        protocol.setMaxConcurrentTransfers(2);
+        protocol.setTransferWindow(2);
+
+        // Prepare a file of two chunks, and a file of one chunk
+        byte[] firstData = new byte[960], secondData = new byte[100], otherData = new byte[500];
+        Arrays.fill(firstData, (byte) 1);
+        Arrays.fill(secondData, (byte) 2);
+        Arrays.fill(otherData, (byte) 3);
+        byte[] fileData = new byte[firstData.length + secondData.length];
+        System.arraycopy(firstData, 0, fileData, 0, firstData.length);
+        System.arraycopy(secondData, 0, fileData, firstData.length, secondData.length);
+
+        // Both are initiated, but the second one waits for the first chunk of the first one
+        protocol.handleFileTransferInitiation(FileManagementProtocol.FILE_UPLOAD_INITIATE,
+                new MqttMessage(JsonUtil.serialize(fileInit("first.bin", fileData))));
+        protocol.handleFileTransferInitiation(FileManagementProtocol.FILE_UPLOAD_INITIATE,
+                new MqttMessage(JsonUtil.serialize(fileInit("other.bin", otherData))));
+        assertTrue(protocol.fileDownloadSessions.containsKey("first.bin"));
+        assertFalse(protocol.fileDownloadSessions.containsKey("other.bin"));
+
+        byte[] firstHash = DigestUtils.sha256(firstData);
+        protocol.handleFileTransferBinaryResponse(FileManagementProtocol.FILE_BINARY_RESPONSE,
+                new MqttMessage(chunk(new byte[32], firstData, firstHash)));
+        for (int i = 0; i < 100 && !protocol.fileDownloadSessions.containsKey("other.bin"); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(protocol.fileDownloadSessions.containsKey("other.bin"));
+
+        // The responses are routed to the session they continue
+        protocol.handleFileTransferBinaryResponse(FileManagementProtocol.FILE_BINARY_RESPONSE,
+                new MqttMessage(chunk(new byte[32], otherData, DigestUtils.sha256(otherData))));
+        protocol.handleFileTransferBinaryResponse(FileManagementProtocol.FILE_BINARY_RESPONSE,
+                new MqttMessage(chunk(firstHash, secondData, DigestUtils.sha256(secondData))));
+
+        verify(managementMock, timeout(1000)).moveFile(any(), eq("first.bin"), any());
+        verify(managementMock, timeout(1000)).moveFile(any(), eq("other.bin"), any());
+    }
+
+    @Test
+    public void fileListDeltasPublishOnlyChanges() throws IOException, MqttException {
+        doReturn("test-client").when(clientMock).getClientId();
+        doReturn(Arrays.asList(new FileInformation("a", 1, "AA"), new FileInformation("b", 2, "BB")))
+                .doReturn(Arrays.asList(new FileInformation("a", 1, "AB"), new FileInformation("c", 3, "CC")))
+                .doReturn(Arrays.asList(new FileInformation("a", 1, "AB"), new FileInformation("c", 3, "CC")))
+                .when(managementMock).listAllFiles();
+
+        // Create the protocol, publishing only the changes
+        protocol = new FileManagementProtocol(clientMock, managementMock);
+        protocol.setFileListDeltas(true);
+
+        // The first list is published whole
+        protocol.publishFileList();
+        verify(clientMock, times(1)).publish(eq("d2p/test-client/file_list"), any(), anyInt(), anyBoolean());
+
+        // Then only the changes
+        protocol.publishFileListChanges();
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock, times(1)).publish(eq("d2p/test-client/file_list_update"), payload.capture(),
+                anyInt(), anyBoolean());
+        assertEquals(new ObjectMapper().readTree("{\"added\":[{\"name\":\"c\",\"size\":3,\"hash\":\"CC\"}]," +
+                        "\"changed\":[{\"name\":\"a\",\"size\":1,\"hash\":\"AB\"}],\"removed\":[\"b\"]}"),
+                new ObjectMapper().readTree(payload.getValue()));
+
+        // And nothing if nothing changed
+        protocol.publishFileListChanges();
+        verify(clientMock, times(2)).publish(anyString(), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    public void fileListRequestIsAnsweredInPages() throws IOException, MqttException {
+        doReturn("test-client").when(clientMock).getClientId();
+        List<FileInformation> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(new FileInformation("file-" + i, i, "HASH"));
+        }
+        doReturn(files).when(managementMock).listAllFiles();
+
+        // Create the protocol, with two files in a page
+        protocol = new FileManagementProtocol(clientMock, managementMock);
+        protocol.setFileListPageSize(2);
+        protocol.handleFileListRequest("p2d/test-client/file_list", new MqttMessage(new byte[0]));
+
+        // Verify the pages
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock, times(3)).publish(eq("d2p/test-client/file_list"), payload.capture(),
+                anyInt(), anyBoolean());
+        JsonNode last = new ObjectMapper().readTree(payload.getAllValues().get(2));
+        assertEquals(3, last.get("page").asInt());
+        assertEquals(3, last.get("pages").asInt());
+        assertEquals("file-4", last.get("files").get(0).get("name").asText());
+
+        // The list published by the device itself is not paged
+        protocol.publishFileList();
+        verify(clientMock, times(4)).publish(eq("d2p/test-client/file_list"), payload.capture(),
+                anyInt(), anyBoolean());
+        assertEquals(5, new ObjectMapper().readTree(payload.getValue()).size());
+    }
+
+    private static FileInit fileInit(String name, byte[] data) {
+        FileInit initMessage = new FileInit();
+        initMessage.setFileName(name);
+        initMessage.setFileSize(data.length);
+        initMessage.setFileHash(DatatypeConverter.printHexBinary(FileDownloadSession.calculateMD5HashForBytes(data)));
+        return initMessage;
+    }
+
+    private static byte[] chunk(byte[] previousHash, byte[] data, byte[] currentHash) {
+        byte[] payload = new byte[previousHash.length + data.length + currentHash.length];
+        System.arraycopy(previousHash, 0, payload, 0, previousHash.length);
+        System.arraycopy(data, 0, payload, previousHash.length, data.length);
+        System.arraycopy(currentHash, 0, payload, previousHash.length + data.length, currentHash.length);
+        return payload;
+    }
 }
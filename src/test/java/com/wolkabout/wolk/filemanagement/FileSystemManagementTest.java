@@ -17,6 +17,7 @@
 package com.wolkabout.wolk.filemanagement;
 
 import com.wolkabout.wolk.filemanagement.model.device2platform.FileInformation;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -31,9 +32,14 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -77,8 +83,17 @@ public class FileSystemManagementTest {
 
     @After
     public void tearDown() {
+        if (management != null) {
+            management.close();
+        }
+
         if (Objects.requireNonNull(testFolder.listFiles()).length > 0) {
             for (File file : Objects.requireNonNull(testFolder.listFiles())) {
+                if (file.isDirectory()) {
+                    for (File nested : Objects.requireNonNull(file.listFiles())) {
+                        nested.delete();
+                    }
+                }
                 if (!file.delete()) {
                     LOG.warn("File in test folder could not be deleted.");
                 }
@@ -192,6 +207,101 @@ public class FileSystemManagementTest {
         assertTrue(management.createFile(testBytes, testFileName));
     }
 
+    @Test
+    public void moveTransferFileIntoPlace() throws IOException {
+        // Create the management
+        management = new FileSystemManagement(testFolderPath);
+
+        // Write the file in the transfer directory
+        Path transferFile = management.createTransferFile();
+        Files.write(transferFile, testBytes);
+
+        // Move it into place
+        assertTrue(management.moveFile(transferFile, testFileName));
+        assertFalse(Files.exists(transferFile));
+        assertArrayEquals(testBytes, Files.readAllBytes(management.getFile(testFileName).toPath()));
+        assertEquals(1, management.listAllFiles().size());
+    }
+
+    @Test
+    public void listedHashesAreKeptUntilFileChanges() throws IOException {
+        // Create the management, and a file
+        management = new FileSystemManagement(testFolderPath);
+        Path file = Paths.get(testFolderPath, testFileName);
+        Files.write(file, testBytes);
+
+        // List the files, and check the index was saved
+        String hash = management.listAllFiles().get(0).getHash();
+        assertEquals(DigestUtils.md5Hex(testBytes).toUpperCase(), hash);
+        assertTrue(Files.exists(Paths.get(testFolderPath, FileSystemManagement.TRANSFER_DIRECTORY,
+                FileSystemManagement.HASH_INDEX_FILE)));
+
+        // A new management reads the same index, and the changed file is hashed again
+        management = new FileSystemManagement(testFolderPath);
+        assertEquals(hash, management.getFileHash(testFileName));
+        Files.write(file, new byte[]{1, 2, 3, 4, 5});
+        assertEquals(DigestUtils.md5Hex(new byte[]{1, 2, 3, 4, 5}).toUpperCase(),
+                management.listAllFiles().get(0).getHash());
+        assertNull(management.getFileHash("asdf"));
+    }
+
+    @Test
+    public void parallelHashingMatchesSequential() throws IOException {
+        // Create the management, hashing four files at a time
+        management = new FileSystemManagement(testFolderPath);
+        management.setHashingParallelism(4);
+
+        // Create files of mixed sizes, some larger than the read buffer
+        Random random = new Random(3);
+        int[] sizes = new int[]{0, 10, 100000, 17 * 1024 * 1024, 5000};
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] bytes = new byte[sizes[i]];
+            random.nextBytes(bytes);
+            Files.write(Paths.get(testFolderPath, "file-" + i), bytes);
+            expected.put("file-" + i, DigestUtils.md5Hex(bytes).toUpperCase());
+        }
+
+        // Check every hash
+        List<FileInformation> files = management.listAllFiles();
+        assertEquals(sizes.length, files.size());
+        for (FileInformation file : files) {
+            assertEquals(expected.get(file.getFileName()), file.getHash());
+        }
+    }
+
+    @Test
+    public void filesAreHashedAfterClose() throws IOException {
+        // Create the management hashing in parallel, and close it
+        management = new FileSystemManagement(testFolderPath);
+        management.setHashingParallelism(4);
+        management.close();
+
+        // The files are still hashed, one by one
+        Files.write(Paths.get(testFolderPath, "first"), new byte[]{1});
+        Files.write(Paths.get(testFolderPath, "second"), new byte[]{2});
+        List<FileInformation> files = management.listAllFiles();
+        assertEquals(2, files.size());
+        for (FileInformation file : files) {
+            assertNotNull(file.getHash());
+        }
+    }
+
+    @Test
+    public void movedFileKeepsKnownHash() throws IOException {
+        // Create the management
+        management = new FileSystemManagement(testFolderPath);
+
+        // Move a file with a known hash into place
+        Path transferFile = management.createTransferFile();
+        Files.write(transferFile, testBytes);
+        assertTrue(management.moveFile(transferFile, testFileName, "abcdef"));
+
+        // The known hash is listed without hashing the file
+        assertEquals("ABCDEF", management.getFileHash(testFileName));
+        assertEquals("ABCDEF", management.listAllFiles().get(0).getHash());
+    }
+
     @Test
     public void createFileThatCannotBeCreated() throws IOException {
         // Create the hypothetical file
@@ -207,95 +317,94 @@ public class FileSystemManagementTest {
 
     @Test
     public void deleteExistingFile() throws NoSuchFieldException, IllegalAccessException, IOException {
-        // Setup the folder mock
-        doReturn(testFileName).when(fileMock).getName();
+        // Setup the file mock
+        doReturn(true).when(fileMock).exists();
         doReturn(true).when(fileMock).delete();
-        doReturn(new File[]{fileMock}).when(folderMock).listFiles();
 
-        // Create the management
+        // Create the management, and index the mock
         management = new FileSystemManagement(testFolderPath);
-
-        // Inject the mock
-        Field folderFile = FileSystemManagement.class.getDeclaredField("folder");
-        folderFile.setAccessible(true);
-        folderFile.set(management, folderMock);
+        indexFile(testFileName, fileMock);
 
         // Delete the mock file
         assertTrue(management.deleteFile(testFileName));
+        assertFalse(management.fileExists(testFileName));
 
         // Verify the mocks were called
-        verify(fileMock, times(1)).getName();
         verify(fileMock, times(1)).delete();
-        verify(folderMock, times(1)).listFiles();
     }
 
     @Test
     public void deleteFileThatDoesNotDelete() throws NoSuchFieldException, IllegalAccessException, IOException {
-        // Setup the folder mock
-        doReturn(testFileName).when(fileMock).getName();
+        // Setup the file mock
+        doReturn(true).when(fileMock).exists();
         doReturn(false).when(fileMock).delete();
-        doReturn(new File[]{fileMock}).when(folderMock).listFiles();
 
-        // Create the management
+        // Create the management, and index the mock
         management = new FileSystemManagement(testFolderPath);
-
-        // Inject the mock
-        Field folderFile = FileSystemManagement.class.getDeclaredField("folder");
-        folderFile.setAccessible(true);
-        folderFile.set(management, folderMock);
+        indexFile(testFileName, fileMock);
 
         // Delete the mock file
         assertFalse(management.deleteFile(testFileName));
+        assertTrue(management.fileExists(testFileName));
 
         // Verify the mocks were called
-        verify(fileMock, times(1)).getName();
         verify(fileMock, times(1)).delete();
-        verify(folderMock, times(1)).listFiles();
     }
 
     @Test
     public void deleteFileThatDoesNotExist() throws NoSuchFieldException, IllegalAccessException, IOException {
-        // Setup the folder mock
-        doReturn(testFileName).when(fileMock).getName();
-        doReturn(new File[]{fileMock}).when(folderMock).listFiles();
-
-        // Create the management
+        // Create the management, and index the mock
         management = new FileSystemManagement(testFolderPath);
-
-        // Inject the mock
-        Field folderFile = FileSystemManagement.class.getDeclaredField("folder");
-        folderFile.setAccessible(true);
-        folderFile.set(management, folderMock);
+        indexFile(testFileName, fileMock);
 
         // Delete the mock file
         assertFalse(management.deleteFile("asdf.asdf"));
 
         // Verify the mocks were called
-        verify(fileMock, times(1)).getName();
         verify(fileMock, times(0)).delete();
-        verify(folderMock, times(1)).listFiles();
     }
 
     @Test
     public void testGetFileHappyFlow() throws IOException, NoSuchFieldException, IllegalAccessException {
-        // Setup the folder mock
-        doReturn(testFileName).when(fileMock).getName();
-        doReturn(new File[]{fileMock}).when(folderMock).listFiles();
-
-        // Create the management
+        // Create the management, and index the mock
+        doReturn(true).when(fileMock).exists();
         management = new FileSystemManagement(testFolderPath);
-
-        // Inject the mock
-        Field folderFile = FileSystemManagement.class.getDeclaredField("folder");
-        folderFile.setAccessible(true);
-        folderFile.set(management, folderMock);
+        indexFile(testFileName, fileMock);
 
         // Get the file
         assertEquals(fileMock, management.getFile(testFileName));
         assertNull(management.getFile("asdf"));
+    }
 
-        // Verify the mocks were called
-        verify(fileMock, times(2)).getName();
-        verify(folderMock, times(2)).listFiles();
+    @Test
+    public void deletedIndexedFileIsNotFound() throws NoSuchFieldException, IllegalAccessException {
+        // Index a file that was deleted since
+        management = new FileSystemManagement(testFolderPath);
+        indexFile(testFileName, fileMock);
+
+        assertNull(management.getFile(testFileName));
+        verify(fileMock, times(1)).exists();
+    }
+
+    @Test
+    public void filesChangedFromOutsideAreFound() throws IOException {
+        // Create the management
+        management = new FileSystemManagement(testFolderPath);
+        assertFalse(management.fileExists(testFileName));
+
+        // Create the file from outside of the management
+        Files.write(Paths.get(testFolderPath, testFileName), testBytes);
+        assertTrue(management.fileExists(testFileName));
+
+        // Delete it from outside as well
+        Files.delete(Paths.get(testFolderPath, testFileName));
+        assertFalse(management.fileExists(testFileName));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void indexFile(String name, File file) throws NoSuchFieldException, IllegalAccessException {
+        Field indexField = FileSystemManagement.class.getDeclaredField("index");
+        indexField.setAccessible(true);
+        ((Map<String, File>) indexField.get(management)).put(name, file);
     }
 }
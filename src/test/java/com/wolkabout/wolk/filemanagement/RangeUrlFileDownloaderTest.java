@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wolkabout.wolk.filemanagement.model.FileTransferError;
+import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RangeUrlFileDownloaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] content = new byte[100000];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger fullRequests = new AtomicInteger();
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(11).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ranges/file.bin", exchange -> serve(exchange, true));
+        server.createContext("/plain/file.bin", exchange -> serve(exchange, false));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsRangesInParallel() throws IOException {
+        final Path file = temporaryFolder.newFile().toPath();
+        final RangeUrlFileDownloader downloader = new RangeUrlFileDownloader(4, 1000,
+                Executors.newCachedThreadPool());
+
+        final UrlFileDownloadResult result = downloader.downloadFile(url("/ranges/file.bin"), file);
+
+        assertEquals(FileTransferStatus.FILE_READY, result.getStatus());
+        assertEquals("file.bin", result.getFileName());
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(4, rangeRequests.get());
+        assertEquals(0, fullRequests.get());
+    }
+
+    @Test
+    public void fallsBackToSingleConnection() throws IOException {
+        final Path file = temporaryFolder.newFile().toPath();
+        final RangeUrlFileDownloader downloader = new RangeUrlFileDownloader(4, 1000,
+                Executors.newCachedThreadPool());
+
+        final UrlFileDownloadResult result = downloader.downloadFile(url("/plain/file.bin"), file);
+
+        assertEquals(FileTransferStatus.FILE_READY, result.getStatus());
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(DigestUtils.md5Hex(content), result.getFileHash().toLowerCase());
+        assertEquals(0, rangeRequests.get());
+        assertEquals(1, fullRequests.get());
+    }
+
+    @Test
+    public void smallFileUsesSingleConnection() throws IOException {
+        final Path file = temporaryFolder.newFile().toPath();
+        final RangeUrlFileDownloader downloader = new RangeUrlFileDownloader(4, content.length,
+                Executors.newCachedThreadPool());
+
+        final UrlFileDownloadResult result = downloader.downloadFile(url("/ranges/file.bin"), file);
+
+        assertEquals(FileTransferStatus.FILE_READY, result.getStatus());
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(1, fullRequests.get());
+    }
+
+    @Test
+    public void malformedUrl() throws IOException {
+        try (RangeUrlFileDownloader downloader = new RangeUrlFileDownloader(4)) {
+            final UrlFileDownloadResult result = downloader.downloadFile("a.b@b.a", temporaryFolder.newFile().toPath());
+
+            assertEquals(FileTransferStatus.ERROR, result.getStatus());
+            assertEquals(FileTransferError.MALFORMED_URL, result.getError());
+            assertNull(result.getFileHash());
+        }
+    }
+
+    @Test
+    public void closeLeavesGivenExecutorRunning() {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        new RangeUrlFileDownloader(4, 1000, executor).close();
+
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private void serve(HttpExchange exchange, boolean ranges) throws IOException {
+        if (ranges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", "\"test\"");
+        }
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        byte[] body = content;
+        int code = 200;
+        if (ranges && range != null) {
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            body = Arrays.copyOfRange(content, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+            code = 206;
+            rangeRequests.incrementAndGet();
+        } else {
+            fullRequests.incrementAndGet();
+        }
+
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wolkabout.wolk.filemanagement.model.FileTransferError;
+import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ResumableUrlFileDownloaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private byte[] content = new byte[50000];
+    private String etag = "\"v1\"";
+    private int failuresLeft;
+    private HttpServer server;
+    private Path cache;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(13).nextBytes(content);
+        cache = temporaryFolder.newFolder("cache").toPath();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/firmware.bin", this::serve);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void unchangedFileIsServedFromCache() throws IOException {
+        final ResumableUrlFileDownloader downloader = new ResumableUrlFileDownloader(cache, 0, 0);
+
+        assertDownloaded(downloader.downloadFile(url(), temporaryFolder.newFile().toPath()));
+        final Path second = temporaryFolder.newFile().toPath();
+        assertDownloaded(downloader.downloadFile(url(), second));
+
+        assertArrayEquals(content, Files.readAllBytes(second));
+        assertEquals(Arrays.asList("full", "not-modified"), requests);
+    }
+
+    @Test
+    public void changedFileIsDownloadedAgain() throws IOException {
+        final ResumableUrlFileDownloader downloader = new ResumableUrlFileDownloader(cache, 0, 0);
+        assertDownloaded(downloader.downloadFile(url(), temporaryFolder.newFile().toPath()));
+
+        content = Arrays.copyOf(content, 60000);
+        etag = "\"v2\"";
+        final Path second = temporaryFolder.newFile().toPath();
+        assertDownloaded(downloader.downloadFile(url(), second));
+
+        assertArrayEquals(content, Files.readAllBytes(second));
+        assertEquals(Arrays.asList("full", "full"), requests);
+    }
+
+    @Test
+    public void interruptedDownloadIsContinued() throws IOException {
+        failuresLeft = 1;
+        final Path file = temporaryFolder.newFile().toPath();
+
+        assertDownloaded(new ResumableUrlFileDownloader(cache, 2, 10).downloadFile(url(), file));
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(Arrays.asList("broken", "range " + content.length / 2), requests);
+    }
+
+    @Test
+    public void failsAfterRetries() throws IOException {
+        failuresLeft = 3;
+
+        final UrlFileDownloadResult result = new ResumableUrlFileDownloader(cache, 2, 10)
+                .downloadFile(url(), temporaryFolder.newFile().toPath());
+
+        assertEquals(FileTransferStatus.ERROR, result.getStatus());
+        assertEquals(FileTransferError.UNKNOWN, result.getError());
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void malformedUrl() throws IOException {
+        final UrlFileDownloadResult result = new ResumableUrlFileDownloader(cache)
+                .downloadFile("a.b@b.a", temporaryFolder.newFile().toPath());
+
+        assertEquals(FileTransferError.MALFORMED_URL, result.getError());
+    }
+
+    private void assertDownloaded(UrlFileDownloadResult result) {
+        assertEquals(FileTransferStatus.FILE_READY, result.getStatus());
+        assertEquals("firmware.bin", result.getFileName());
+        assertEquals(DigestUtils.md5Hex(content), result.getFileHash().toLowerCase());
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/firmware.bin";
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", etag);
+
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            requests.add("not-modified");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+            final int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            requests.add("range " + start);
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            final int end = failuresLeft-- > 0 ? (start + content.length) / 2 : content.length;
+            write(exchange, 206, Arrays.copyOfRange(content, start, end), content.length - start);
+            return;
+        }
+
+        if (failuresLeft > 0) {
+            failuresLeft--;
+            requests.add("broken");
+            write(exchange, 200, Arrays.copyOf(content, content.length / 2), content.length);
+            return;
+        }
+
+        requests.add("full");
+        write(exchange, 200, content, content.length);
+    }
+
+    private static void write(HttpExchange exchange, int code, byte[] body, long length) throws IOException {
+        exchange.sendResponseHeaders(code, length);
+        final OutputStream stream = exchange.getResponseBody();
+        stream.write(body);
+        stream.flush();
+        exchange.close();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetransmissionTimeoutTest {
+
+    @Test
+    public void initialTimeout() {
+        final RetransmissionTimeout timeout = new RetransmissionTimeout();
+
+        assertEquals(RetransmissionTimeout.INITIAL_MILLIS, timeout.millis());
+        assertEquals(0, timeout.smoothedRttMillis(), 0);
+    }
+
+    @Test
+    public void firstSample() {
+        final RetransmissionTimeout timeout = new RetransmissionTimeout();
+
+        timeout.sample(100);
+
+        // SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR
+        assertEquals(100, timeout.smoothedRttMillis(), 0);
+        assertEquals(300, timeout.millis());
+    }
+
+    @Test
+    public void smoothedSamples() {
+        final RetransmissionTimeout timeout = new RetransmissionTimeout();
+
+        timeout.sample(100);
+        timeout.sample(200);
+
+        // RTTVAR = 3/4 * 50 + 1/4 * 100 = 62.5, SRTT = 7/8 * 100 + 1/8 * 200 = 112.5
+        assertEquals(112.5, timeout.smoothedRttMillis(), 0.001);
+        assertEquals(363, timeout.millis());
+    }
+
+    @Test
+    public void boundedTimeout() {
+        final RetransmissionTimeout timeout = new RetransmissionTimeout();
+
+        timeout.sample(1);
+        assertEquals(RetransmissionTimeout.MIN_MILLIS, timeout.millis());
+
+        for (int i = 0; i < 20; i++) {
+            timeout.backoff();
+        }
+        assertEquals(RetransmissionTimeout.MAX_MILLIS, timeout.millis());
+    }
+
+    @Test
+    public void sampleResetsBackoff() {
+        final RetransmissionTimeout timeout = new RetransmissionTimeout();
+
+        timeout.backoff();
+        assertEquals(2 * RetransmissionTimeout.INITIAL_MILLIS, timeout.millis());
+
+        timeout.sample(100);
+        assertEquals(300, timeout.millis());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.filemanagement;
+
+import com.wolkabout.wolk.filemanagement.model.platform2device.FileInit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class TransferStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        final FileInit initMessage = initMessage("file.bin", 1024, "ABCDEF");
+        final Path path = TransferState.pathFor(folder.getRoot().toPath().resolve("transfer-1.part"));
+        final byte[] lastHash = new byte[32];
+        lastHash[0] = 7;
+
+        final TransferState state = new TransferState(initMessage, 256);
+        state.setProgress(3, lastHash);
+        state.save(path);
+
+        final TransferState loaded = TransferState.load(path);
+        assertNotNull(loaded);
+        assertTrue(loaded.matches(initMessage, 256));
+        assertEquals(3, loaded.getVerifiedChunks());
+        assertArrayEquals(lastHash, loaded.getLastHash());
+    }
+
+    @Test
+    public void matchesOnlySameFileAndChunkSize() {
+        final TransferState state = new TransferState(initMessage("file.bin", 1024, "abcdef"), 256);
+
+        assertTrue(state.matches(initMessage("file.bin", 1024, "ABCDEF"), 256));
+        assertFalse(state.matches(initMessage("file.bin", 1024, "abcdef"), 128));
+        assertFalse(state.matches(initMessage("other.bin", 1024, "abcdef"), 256));
+        assertFalse(state.matches(initMessage("file.bin", 2048, "abcdef"), 256));
+        assertFalse(state.matches(initMessage("file.bin", 1024, "fedcba"), 256));
+    }
+
+    @Test
+    public void loadMissingOrInvalid() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("transfer-2.part.state");
+        assertNull(TransferState.load(path));
+
+        Files.write(path, "not json".getBytes());
+        assertNull(TransferState.load(path));
+    }
+
+    private static FileInit initMessage(String name, long size, String hash) {
+        final FileInit initMessage = new FileInit();
+        initMessage.setFileName(name);
+        initMessage.setFileSize(size);
+        initMessage.setFileHash(hash);
+        return initMessage;
+    }
+}
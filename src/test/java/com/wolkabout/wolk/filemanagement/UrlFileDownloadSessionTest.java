@@ -18,17 +18,28 @@ package com.wolkabout.wolk.filemanagement;
 
 import com.wolkabout.wolk.filemanagement.model.FileTransferError;
 import com.wolkabout.wolk.filemanagement.model.FileTransferStatus;
+import com.sun.net.httpserver.HttpServer;
 import com.wolkabout.wolk.filemanagement.model.platform2device.UrlInfo;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -40,6 +51,8 @@ public class UrlFileDownloadSessionTest {
     private final UrlInfo testMessage;
     @Rule
     public ExpectedException exceptionRule = ExpectedException.none();
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
     @Mock
     UrlFileDownloadSession.Callback callbackMock;
     private UrlFileDownloadSession session;
@@ -232,4 +245,75 @@ public class UrlFileDownloadSessionTest {
         // Check that the callback was called
         verify(callbackMock, times(1)).onFinish(FileTransferStatus.ERROR, "", FileTransferError.UNKNOWN);
     }
+
+    @Test
+    public void streamToFile() throws Exception {
+        final byte[] content = new byte[100000];
+        new Random(7).nextBytes(content);
+
+        // Serve the file locally
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/file.bin", exchange -> {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(content);
+            }
+        });
+        server.start();
+
+        try {
+            final UrlInfo message = new UrlInfo();
+            message.setFileUrl("http://localhost:" + server.getAddress().getPort() + "/file.bin");
+            final Path file = temporaryFolder.newFile().toPath();
+
+            session = new UrlFileDownloadSession(message, callbackMock, null,
+                    Executors.newCachedThreadPool(), file);
+
+            verify(callbackMock, timeout(5000)).onFinish(FileTransferStatus.FILE_READY, "file.bin", null);
+            assertEquals(0, session.getFileData().length);
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertEquals(DigestUtils.md5Hex(content), session.getFileHash().toLowerCase());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void streamToFileFailsOnShortResponse() throws Exception {
+        // Serve fewer bytes than announced, and close the connection
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/file.bin", exchange -> {
+            exchange.sendResponseHeaders(200, 1000);
+            exchange.getResponseBody().write(new byte[100]);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            final UrlInfo message = new UrlInfo();
+            message.setFileUrl("http://localhost:" + server.getAddress().getPort() + "/file.bin");
+            final Path file = temporaryFolder.newFile().toPath();
+
+            session = new UrlFileDownloadSession(message, callbackMock, null,
+                    Executors.newCachedThreadPool(), file);
+
+            verify(callbackMock, timeout(5000)).onFinish(FileTransferStatus.ERROR, "", FileTransferError.UNKNOWN);
+            assertFalse(Files.exists(file));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void streamToFileDeletesFileOnError() throws Exception {
+        UrlInfo invalidMessage = new UrlInfo();
+        invalidMessage.setFileUrl("http://localhost:1/file.bin");
+        final Path file = temporaryFolder.newFile().toPath();
+
+        session = new UrlFileDownloadSession(invalidMessage, callbackMock, null,
+                Executors.newCachedThreadPool(), file);
+
+        verify(callbackMock, timeout(5000)).onFinish(FileTransferStatus.ERROR, "", FileTransferError.UNKNOWN);
+        assertFalse(Files.exists(file));
+    }
 }
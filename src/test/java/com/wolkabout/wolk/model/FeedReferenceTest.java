@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.model;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class FeedReferenceTest {
+
+    @Test
+    public void referencesAreInterned() {
+        final FeedReference reference = FeedReference.of("interned");
+
+        assertSame(reference, FeedReference.of(new String("interned")));
+        assertSame(reference, new Feed("interned", 1.0).getFeedReference());
+        assertNotEquals(reference.getId(), FeedReference.of("other").getId());
+    }
+
+    @Test
+    public void jsonKeyIsEscaped() {
+        final FeedReference reference = FeedReference.of("a\"b");
+
+        assertEquals("a\\\"b", new String(reference.getJsonKey().asQuotedUTF8(), StandardCharsets.UTF_8));
+        assertEquals(6, reference.getJsonKeySize());
+    }
+
+    @Test
+    public void lookupDoesNotRegister() {
+        final FeedReference inbound = FeedReference.lookup("inbound-only");
+        assertEquals(FeedReference.UNREGISTERED, inbound.getId());
+        assertEquals("inbound-only", inbound.getReference());
+
+        final FeedReference registered = FeedReference.of("inbound-only");
+        assertNotEquals(FeedReference.UNREGISTERED, registered.getId());
+        assertSame(registered, FeedReference.lookup("inbound-only"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullReference() {
+        FeedReference.lookup(null);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.Feed;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InMemoryPersistenceTest {
+
+    private final InMemoryPersistence persistence = new InMemoryPersistence();
+
+    @Test
+    public void commitRemovesBatch() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            persistence.addFeed(new Feed("T", (long) i, i));
+        }
+
+        assertEquals(3, persistence.drain(batch, 3, Long.MAX_VALUE));
+        persistence.commit(batch);
+
+        final List<Feed> remaining = persistence.getAll();
+        assertEquals(2, remaining.size());
+        assertEquals(3L, remaining.get(0).getUtc());
+    }
+
+    @Test
+    public void rollbackKeepsOrder() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            persistence.addFeed(new Feed("T", (long) i, i));
+        }
+
+        persistence.drain(batch, 3, Long.MAX_VALUE);
+        persistence.addFeed(new Feed("T", 5L, 5L));
+        persistence.rollback(batch);
+
+        final List<Feed> feeds = persistence.getAll();
+        assertEquals(6, feeds.size());
+        for (int i = 0; i < feeds.size(); i++) {
+            assertEquals(i, feeds.get(i).getUtc());
+        }
+    }
+
+    @Test
+    public void batchAlwaysTakesOneFeed() {
+        final List<Feed> batch = new ArrayList<>();
+        persistence.addFeed(new Feed("T", "some text", 1L));
+        persistence.addFeed(new Feed("T", "some text", 2L));
+
+        assertEquals(1, persistence.drain(batch, 10, 1));
+        persistence.commit(batch);
+        assertEquals(1, persistence.drain(batch, 10, 1));
+        persistence.commit(batch);
+        assertEquals(0, persistence.drain(batch, 10, 1));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.*;
+import com.wolkabout.wolk.util.FeedSizeEstimator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+
+public class JournalPersistenceTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String directory;
+    private JournalPersistence journal;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().getAbsolutePath();
+        journal = new JournalPersistence(directory, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    public void emptyJournal() {
+        assertNull(journal.poll());
+        assertTrue(journal.getAll().isEmpty());
+    }
+
+    @Test
+    public void valuesKeepTheirTypes() {
+        journal.addFeed(new Feed("T", 24.5, 1000L));
+        journal.addFeed(new Feed("C", 42L, 1001L));
+        journal.addFeed(new Feed("S", true, 1002L));
+        journal.addFeed(new Feed("N", "some text", 1003L));
+        journal.addFeed(new Feed("ACL", Arrays.asList(0.4, 0.2, 0.0), 1004L));
+
+        final List<Feed> feeds = journal.getAll();
+        assertEquals(5, feeds.size());
+
+        assertEquals("T", feeds.get(0).getReference());
+        assertEquals(24.5, feeds.get(0).getValue());
+        assertEquals(1000L, feeds.get(0).getUtc());
+        assertEquals(42L, feeds.get(1).getValue());
+        assertEquals(true, feeds.get(2).getValue());
+        assertEquals("some text", feeds.get(3).getValue());
+        assertEquals(Arrays.asList(0.4, 0.2, 0.0), feeds.get(4).getValues());
+
+        assertNull(journal.poll());
+    }
+
+    @Test
+    public void primitiveFeedsKeepTheirTypes() {
+        journal.addFeed(new DoubleFeed("T", 24.5, 1000L));
+        journal.addFeed(new LongFeed("C", 42L, 1001L));
+        journal.addFeed(new BooleanFeed("S", true, 1002L));
+        journal.addFeed(new DoubleVectorFeed("ACL", new double[]{0.4, 0.2, 0.0}, 1003L));
+
+        final List<Feed> feeds = journal.getAll();
+        assertEquals(4, feeds.size());
+
+        assertEquals(24.5, ((DoubleFeed) feeds.get(0)).getDouble(), 0);
+        assertEquals(1000L, feeds.get(0).getUtc());
+        assertEquals(42L, ((LongFeed) feeds.get(1)).getLong());
+        assertTrue(((BooleanFeed) feeds.get(2)).getBoolean());
+        assertArrayEquals(new double[]{0.4, 0.2, 0.0}, ((DoubleVectorFeed) feeds.get(3)).getDoubles(), 0);
+        assertEquals("ACL", feeds.get(3).getReference());
+    }
+
+    @Test
+    public void readPositionSurvivesReopen() {
+        for (int i = 0; i < 10; i++) {
+            journal.addFeed(new Feed("T", (double) i, i));
+        }
+
+        assertEquals(0L, journal.poll().getUtc());
+        assertEquals(1L, journal.poll().getUtc());
+        journal.close();
+
+        journal = new JournalPersistence(directory, SEGMENT_SIZE);
+        journal.addFeed(new Feed("T", 10.0, 10L));
+
+        final List<Feed> feeds = journal.getAll();
+        assertEquals(9, feeds.size());
+        for (int i = 0; i < feeds.size(); i++) {
+            assertEquals(i + 2, feeds.get(i).getUtc());
+        }
+    }
+
+    @Test
+    public void drainedSegmentsAreReclaimed() {
+        for (int i = 0; i < 1000; i++) {
+            journal.addFeed(new Feed("reference", "value-" + i, i));
+        }
+        assertTrue(segmentCount() > 1);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value-" + i, journal.poll().getValue());
+        }
+        assertNull(journal.poll());
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void removeAll() {
+        for (int i = 0; i < 500; i++) {
+            journal.addFeed(new Feed("reference", "value-" + i, i));
+        }
+
+        journal.removeAll();
+        assertNull(journal.poll());
+        assertEquals(1, segmentCount());
+
+        journal.addFeed(new Feed("T", 1.0, 1L));
+        assertEquals(1.0, journal.poll().getValue());
+    }
+
+    @Test
+    public void removeFeed() {
+        for (int i = 0; i < 1000; i++) {
+            journal.addFeed(new Feed("reference", "value-" + i, i));
+        }
+
+        journal.remove(new Feed("reference", "value-0", 0L));
+        journal.remove(new Feed("reference", "value-500", 500L));
+        journal.remove(new Feed("reference", "value-999", 999L));
+        journal.remove(new Feed("reference", "value-1", 2L));
+        journal.remove(new Feed("unknown", "value-2", 2L));
+        journal.close();
+
+        journal = new JournalPersistence(directory, SEGMENT_SIZE);
+        final List<Feed> feeds = journal.getAll();
+        assertEquals(997, feeds.size());
+        assertEquals("value-1", feeds.get(0).getValue());
+        assertEquals("value-501", feeds.get(499).getValue());
+        assertEquals("value-998", feeds.get(996).getValue());
+    }
+
+    @Test
+    public void drainRespectsLimits() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            journal.addFeed(new Feed("T", (long) i, i));
+        }
+
+        assertEquals(3, journal.drain(batch, 3, Long.MAX_VALUE));
+        assertEquals(2L, batch.get(2).getUtc());
+        journal.commit(batch);
+
+        final long feedSize = FeedSizeEstimator.estimate(new Feed("T", 3L, 3L));
+        assertEquals(2, journal.drain(batch, 100, 2 * feedSize + 1));
+        assertEquals(3L, batch.get(0).getUtc());
+        journal.commit(batch);
+
+        assertEquals(1, journal.drain(batch, 100, 1));
+        journal.commit(batch);
+
+        assertEquals(4, journal.drain(batch, 100, Long.MAX_VALUE));
+        journal.commit(batch);
+        assertEquals(0, journal.drain(batch, 100, Long.MAX_VALUE));
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void rollbackReturnsBatch() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            journal.addFeed(new Feed("reference", "value-" + i, i));
+        }
+
+        assertEquals(600, journal.drain(batch, 600, Long.MAX_VALUE));
+        journal.rollback(batch);
+        assertEquals(1000, journal.drain(batch, 1000, Long.MAX_VALUE));
+        assertEquals("value-0", batch.get(0).getValue());
+        assertEquals("value-999", batch.get(999).getValue());
+        journal.commit(batch);
+
+        assertNull(journal.poll());
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void uncommittedBatchIsRedeliveredAfterReopen() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            journal.addFeed(new Feed("T", (double) i, i));
+        }
+
+        journal.drain(batch, 4, Long.MAX_VALUE);
+        journal.commit(batch);
+        journal.drain(batch, 4, Long.MAX_VALUE);
+        journal.close();
+
+        journal = new JournalPersistence(directory, SEGMENT_SIZE);
+        final List<Feed> feeds = journal.getAll();
+        assertEquals(6, feeds.size());
+        assertEquals(4L, feeds.get(0).getUtc());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void drainWithOutstandingBatch() {
+        final List<Feed> batch = new ArrayList<>();
+        journal.addFeed(new Feed("T", 1.0, 1L));
+
+        journal.drain(batch, 1, Long.MAX_VALUE);
+        journal.drain(batch, 1, Long.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void feedLargerThanSegment() {
+        final char[] value = new char[SEGMENT_SIZE];
+        Arrays.fill(value, 'x');
+        journal.addFeed(new Feed("T", new String(value)));
+    }
+
+    private int segmentCount() {
+        return Objects.requireNonNull(new File(directory).listFiles((dir, name) -> name.endsWith(".segment"))).length;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MqttLogPersistenceTest {
+
+    private static final String CLIENT_ID = "client";
+    private static final String SERVER = "ssl://localhost:8883";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MqttLogPersistence persistence;
+
+    @Before
+    public void setUp() throws MqttPersistenceException {
+        persistence = new MqttLogPersistence(folder.getRoot().getAbsolutePath(), 1024);
+        persistence.open(CLIENT_ID, SERVER);
+    }
+
+    @After
+    public void tearDown() throws MqttPersistenceException {
+        persistence.close();
+    }
+
+    @Test
+    public void putAndGet() throws MqttPersistenceException {
+        persistence.put("s-1", message("header", "payload"));
+
+        assertTrue(persistence.containsKey("s-1"));
+        assertFalse(persistence.containsKey("s-2"));
+        assertMessage(persistence.get("s-1"), "header", "payload");
+        assertNull(persistence.get("s-2"));
+    }
+
+    @Test
+    public void removeAndClear() throws MqttPersistenceException {
+        persistence.put("s-1", message("header", "payload"));
+        persistence.put("s-2", message("header", "payload"));
+
+        persistence.remove("s-1");
+        assertEquals(Collections.singletonList("s-2"), keys());
+
+        persistence.clear();
+        assertTrue(keys().isEmpty());
+    }
+
+    @Test
+    public void messagesSurviveReopen() throws MqttPersistenceException {
+        persistence.put("s-1", message("first", "payload"));
+        persistence.put("s-2", message("second", "payload"));
+        persistence.put("s-1", message("replaced", "payload"));
+        persistence.remove("s-2");
+        persistence.close();
+
+        persistence = new MqttLogPersistence(folder.getRoot().getAbsolutePath(), 1024);
+        persistence.open(CLIENT_ID, SERVER);
+
+        assertEquals(Collections.singletonList("s-1"), keys());
+        assertMessage(persistence.get("s-1"), "replaced", "payload");
+    }
+
+    @Test
+    public void logIsCompactedWhenFull() throws MqttPersistenceException {
+        for (int i = 0; i < 1000; i++) {
+            persistence.put("s-" + i, message("header", "payload-" + i));
+            if (i > 0) {
+                persistence.remove("s-" + (i - 1));
+            }
+        }
+
+        assertEquals(Collections.singletonList("s-999"), keys());
+        assertMessage(persistence.get("s-999"), "header", "payload-999");
+        final File[] logs = folder.getRoot().listFiles()[0].listFiles();
+        assertEquals(1, logs.length);
+        assertEquals(1024, logs[0].length());
+    }
+
+    @Test
+    public void incompleteCompactionIsDiscarded() throws Exception {
+        persistence.put("s-1", message("header", "payload"));
+        persistence.close();
+
+        final File directory = folder.getRoot().listFiles()[0];
+        final File log = directory.listFiles()[0];
+        final File unfinished = new File(directory, "inflight.1000.log");
+        Files.write(unfinished.toPath(), new byte[1024]);
+
+        persistence = new MqttLogPersistence(folder.getRoot().getAbsolutePath(), 1024);
+        persistence.open(CLIENT_ID, SERVER);
+
+        assertEquals(Collections.singletonList("s-1"), keys());
+        assertFalse(unfinished.exists());
+        assertTrue(log.exists());
+    }
+
+    @Test
+    public void logGrowsForLiveMessages() throws MqttPersistenceException {
+        final char[] payload = new char[300];
+        Arrays.fill(payload, 'x');
+        for (int i = 0; i < 10; i++) {
+            persistence.put("s-" + i, message("header", new String(payload)));
+        }
+        persistence.close();
+
+        persistence = new MqttLogPersistence(folder.getRoot().getAbsolutePath(), 1024);
+        persistence.open(CLIENT_ID, SERVER);
+
+        assertEquals(10, keys().size());
+        assertMessage(persistence.get("s-9"), "header", new String(payload));
+    }
+
+    @Test(expected = MqttPersistenceException.class)
+    public void openTwice() throws MqttPersistenceException {
+        persistence.open(CLIENT_ID, SERVER);
+    }
+
+    private List<String> keys() throws MqttPersistenceException {
+        return Collections.list(persistence.keys());
+    }
+
+    private static void assertMessage(MqttPersistable message, String header, String payload) throws MqttPersistenceException {
+        assertEquals(header, new String(message.getHeaderBytes(), message.getHeaderOffset(), message.getHeaderLength(), StandardCharsets.UTF_8));
+        assertEquals(payload, new String(message.getPayloadBytes(), message.getPayloadOffset(), message.getPayloadLength(), StandardCharsets.UTF_8));
+    }
+
+    private static MqttPersistable message(String header, String payload) {
+        final byte[] headerBytes = ("--" + header).getBytes(StandardCharsets.UTF_8);
+        final byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return new MqttPersistable() {
+            @Override
+            public byte[] getHeaderBytes() {
+                return headerBytes;
+            }
+
+            @Override
+            public int getHeaderLength() {
+                return headerBytes.length - 2;
+            }
+
+            @Override
+            public int getHeaderOffset() {
+                return 2;
+            }
+
+            @Override
+            public byte[] getPayloadBytes() {
+                return payloadBytes;
+            }
+
+            @Override
+            public int getPayloadLength() {
+                return payloadBytes.length;
+            }
+
+            @Override
+            public int getPayloadOffset() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.persistence;
+
+import com.wolkabout.wolk.model.Feed;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PersistenceTest {
+
+    private final QueuePersistence persistence = new QueuePersistence();
+
+    @Test
+    public void defaultDrainPollsFeeds() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            persistence.addFeed(new Feed("T", (long) i, i));
+        }
+
+        assertEquals(3, persistence.drain(batch, 3, Long.MAX_VALUE));
+        assertEquals(0L, batch.get(0).getUtc());
+        assertEquals(2, persistence.store.size());
+        persistence.commit(batch);
+        assertEquals(2, persistence.store.size());
+
+        assertEquals(1, persistence.drain(batch, 10, 1));
+        assertEquals(3L, batch.get(0).getUtc());
+    }
+
+    @Test
+    public void defaultRollbackAddsFeedsBack() {
+        final List<Feed> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            persistence.addFeed(new Feed("T", (long) i, i));
+        }
+
+        persistence.drain(batch, 2, Long.MAX_VALUE);
+        persistence.rollback(batch);
+
+        final List<Feed> feeds = persistence.getAll();
+        assertEquals(3, feeds.size());
+        assertEquals(2L, feeds.get(0).getUtc());
+        assertEquals(0L, feeds.get(1).getUtc());
+        assertEquals(1L, feeds.get(2).getUtc());
+    }
+
+    private static class QueuePersistence implements Persistence {
+
+        private final Deque<Feed> store = new ArrayDeque<>();
+
+        @Override
+        public void addFeed(Feed feed) {
+            store.add(feed);
+        }
+
+        @Override
+        public void addFeeds(Collection<Feed> feeds) {
+            store.addAll(feeds);
+        }
+
+        @Override
+        public Feed poll() {
+            return store.poll();
+        }
+
+        @Override
+        public List<Feed> getAll() {
+            final List<Feed> feeds = new ArrayList<>(store);
+            store.clear();
+            return feeds;
+        }
+
+        @Override
+        public void remove(Feed feed) {
+            store.remove(feed);
+        }
+
+        @Override
+        public void removeAll() {
+            store.clear();
+        }
+    }
+}
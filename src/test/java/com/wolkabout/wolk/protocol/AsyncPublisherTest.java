@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.protocol;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncPublisherTest {
+
+    @Mock
+    IMqttAsyncClient clientMock;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void limitsMessagesInFlight() throws Exception {
+        final AsyncPublisher publisher = new AsyncPublisher(clientMock, 2);
+
+        final CompletableFuture<Void> first = publisher.publish("topic", new byte[]{1}, 2, false);
+        final CompletableFuture<Void> second = publisher.publish("topic", new byte[]{2}, 2, false);
+        assertFalse(first.isDone());
+        assertEquals(0, publisher.availableSlots());
+
+        final CompletableFuture<CompletableFuture<Void>> third =
+                CompletableFuture.supplyAsync(() -> publisher.publish("topic", new byte[]{3}, 2, false));
+        try {
+            third.get(200, TimeUnit.MILLISECONDS);
+            fail("Third message should wait for a free slot");
+        } catch (TimeoutException expected) {
+            // Still waiting for a slot
+        }
+
+        final ArgumentCaptor<IMqttActionListener> listeners = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(clientMock, times(2)).publish(eq("topic"), any(MqttMessage.class), isNull(), listeners.capture());
+        listeners.getAllValues().get(0).onSuccess(null);
+
+        assertTrue(first.isDone());
+        assertFalse(third.get(5, TimeUnit.SECONDS).isDone());
+        verify(clientMock, times(3)).publish(eq("topic"), any(MqttMessage.class), isNull(), any(IMqttActionListener.class));
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    public void failedDeliveryReleasesSlot() throws Exception {
+        final AsyncPublisher publisher = new AsyncPublisher(clientMock, 1);
+
+        final CompletableFuture<Void> message = publisher.publish("topic", new byte[]{1}, 2, false);
+
+        final ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(clientMock).publish(eq("topic"), any(MqttMessage.class), isNull(), listener.capture());
+        listener.getValue().onFailure(null, new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+
+        assertTrue(message.isCompletedExceptionally());
+        assertEquals(1, publisher.availableSlots());
+    }
+
+    @Test
+    public void rejectedPublishReleasesSlot() throws Exception {
+        when(clientMock.publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+        final AsyncPublisher publisher = new AsyncPublisher(clientMock, 1);
+
+        assertTrue(publisher.publish("topic", new byte[]{1}, 2, false).isCompletedExceptionally());
+        assertEquals(1, publisher.availableSlots());
+    }
+
+    @Test
+    public void blockingPublishFromSubscriptionListenerDoesNotWait() throws Exception {
+        // The delivery token completes on its own, like it does on the receiver thread of the client
+        final IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        when(clientMock.publish(eq("response"), any(MqttMessage.class))).thenReturn(token);
+        final AsyncPublisher publisher = new AsyncPublisher(clientMock, 1);
+
+        // The only slot is taken by a message whose listener would run on the busy callback thread
+        publisher.publish("topic", new byte[]{1}, 2, false);
+        assertEquals(0, publisher.availableSlots());
+
+        // A subscription listener running on the callback thread publishes, and waits on the token only
+        final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> listener = callbackThread.submit(() -> {
+                publisher.publishAndWait("response", new MqttMessage(new byte[]{2}), -1);
+                return null;
+            });
+            listener.get(5, TimeUnit.SECONDS);
+        } finally {
+            callbackThread.shutdownNow();
+        }
+
+        verify(token).waitForCompletion(-1);
+        assertEquals(0, publisher.availableSlots());
+    }
+}
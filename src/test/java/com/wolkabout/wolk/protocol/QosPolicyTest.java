@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.protocol;
+
+import com.wolkabout.wolk.model.FeedReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QosPolicyTest {
+
+    @Test
+    public void defaultsToQos2() {
+        for (QosPolicy.MessageClass messageClass : QosPolicy.MessageClass.values()) {
+            assertEquals(2, QosPolicy.DEFAULT.qosFor(messageClass));
+        }
+        assertEquals(2, QosPolicy.DEFAULT.qosFor(FeedReference.of("T")));
+        assertFalse(QosPolicy.DEFAULT.hasFeedOverrides());
+    }
+
+    @Test
+    public void feedOverride() {
+        final QosPolicy policy = QosPolicy.builder()
+                .telemetry(1)
+                .fileTransfer(0)
+                .feed("qos-override", 0)
+                .build();
+
+        assertTrue(policy.hasFeedOverrides());
+        assertEquals(0, policy.qosFor(FeedReference.of("qos-override")));
+        assertEquals(1, policy.qosFor(FeedReference.of("qos-other")));
+        assertEquals(0, policy.qosFor(QosPolicy.MessageClass.FILE_TRANSFER));
+        assertEquals(2, policy.qosFor(QosPolicy.MessageClass.FIRMWARE_STATUS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQos() {
+        QosPolicy.builder().parameters(3);
+    }
+}
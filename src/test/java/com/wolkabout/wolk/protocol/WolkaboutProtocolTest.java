@@ -17,6 +17,7 @@
 package com.wolkabout.wolk.protocol;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wolkabout.wolk.model.Feed;
 import com.wolkabout.wolk.protocol.handler.ErrorHandler;
 import com.wolkabout.wolk.protocol.handler.FeedHandler;
@@ -27,6 +28,7 @@ import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
@@ -35,9 +37,12 @@ import org.mockito.junit.MockitoRule;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 class MessageMatcher implements ArgumentMatcher<byte[]> {
@@ -127,4 +132,62 @@ public class WolkaboutProtocolTest {
         wolkaboutProtocol.publishFeeds(feeds);
         verify(clientMock, atMostOnce()).publish(anyString(), any(byte[].class), anyInt(), anyBoolean());
     }
+
+    @Test
+    public void publishReadingsSplitBySize() throws Exception {
+        when(clientMock.getClientId())
+                .thenReturn("some_key");
+
+        WolkaboutProtocol wolkaboutProtocol = new WolkaboutProtocol(clientMock, feedHandlerMock, timeHandlerMock, parameterHandlerMock, errorHandlerMock);
+        wolkaboutProtocol.setMaxMessageSize(256);
+
+        List<Feed> feeds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            feeds.add(new Feed("reference" + i, "value" + i, 1000L + i / 10));
+        }
+        wolkaboutProtocol.publishFeeds(feeds);
+
+        ArgumentCaptor<byte[]> payloads = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock, atLeast(2)).publish(anyString(), payloads.capture(), anyInt(), anyBoolean());
+
+        int published = 0;
+        for (byte[] payload : payloads.getAllValues()) {
+            assertTrue(payload.length <= 256);
+            published += countFeeds(payload);
+        }
+        assertEquals(100, published);
+    }
+
+    @Test
+    public void publishReadingsWithQosPolicy() throws Exception {
+        when(clientMock.getClientId())
+                .thenReturn("some_key");
+
+        WolkaboutProtocol wolkaboutProtocol = new WolkaboutProtocol(clientMock, feedHandlerMock, timeHandlerMock, parameterHandlerMock, errorHandlerMock);
+        wolkaboutProtocol.setQosPolicy(QosPolicy.builder().telemetry(0).feed("alarm", 2).parameters(1).build());
+
+        wolkaboutProtocol.publishFeeds(Arrays.asList(
+                new Feed("T", "24.5", 1000L),
+                new Feed("H", "60", 1000L),
+                new Feed("alarm", "true", 1000L)));
+
+        ArgumentCaptor<byte[]> bulk = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock).publish(eq("d2p/some_key/feed_values"), bulk.capture(), eq(0), eq(false));
+        assertEquals(2, countFeeds(bulk.getValue()));
+
+        ArgumentCaptor<byte[]> important = ArgumentCaptor.forClass(byte[].class);
+        verify(clientMock).publish(eq("d2p/some_key/feed_values"), important.capture(), eq(2), eq(false));
+        assertEquals(1, countFeeds(important.getValue()));
+
+        wolkaboutProtocol.pullParameters();
+        verify(clientMock).publish(eq("d2p/some_key/pull_parameters"), any(byte[].class), eq(1), eq(false));
+    }
+
+    private static int countFeeds(byte[] payload) throws Exception {
+        int count = 0;
+        for (Map<?, ?> readings : new ObjectMapper().readValue(payload, Map[].class)) {
+            count += readings.size() - 1;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutorProviderTest {
+
+    @Test
+    public void platformThreads() throws Exception {
+        final ExecutorProvider provider = ExecutorProvider.platformThreads();
+
+        final String worker = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), provider.executor())
+                .get(1, TimeUnit.SECONDS);
+        final String scheduler = provider.scheduler().schedule(() -> Thread.currentThread().getName(), 0, TimeUnit.MILLISECONDS)
+                .get(1, TimeUnit.SECONDS);
+        assertTrue(worker.startsWith("wolk-worker-"));
+        assertTrue(scheduler.startsWith("wolk-scheduler-"));
+
+        provider.shutdown();
+        assertTrue(provider.executor().isShutdown());
+        assertTrue(provider.scheduler().isShutdown());
+    }
+
+    @Test
+    public void virtualThreads() throws Exception {
+        if (!ExecutorProvider.virtualThreadsSupported()) {
+            try {
+                ExecutorProvider.virtualThreads();
+            } catch (IllegalStateException e) {
+                return;
+            }
+            throw new AssertionError("Expected virtual threads to be unavailable");
+        }
+
+        final ExecutorProvider provider = ExecutorProvider.virtualThreads();
+        final String worker = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), provider.executor())
+                .get(1, TimeUnit.SECONDS);
+        assertEquals("wolk-virtual-", worker.substring(0, "wolk-virtual-".length()));
+
+        provider.shutdown();
+        assertTrue(provider.executor().isShutdown());
+    }
+}
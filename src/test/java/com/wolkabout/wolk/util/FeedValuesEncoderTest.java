@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.wolkabout.wolk.model.*;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeedValuesEncoderTest {
+
+    private final FeedValuesEncoder encoder = new FeedValuesEncoder();
+
+    @Test
+    public void groupsByTimestamp() {
+        final List<Feed> feeds = Arrays.asList(
+                new Feed("T", 24.5, 2000L),
+                new Feed("H", 60L, 1000L),
+                new Feed("S", true, 2000L),
+                new Feed("N", "text", 1000L),
+                new Feed("ACL", Arrays.asList(1, 2, 3), 1000L),
+                new Feed("T", 30.0, 2000L));
+
+        final String message = new String(encoder.encode(feeds), StandardCharsets.UTF_8);
+        assertEquals("[{\"utc\":1000,\"H\":60,\"N\":\"text\",\"ACL\":[1,2,3]},{\"utc\":2000,\"T\":24.5,\"S\":true}]", message);
+    }
+
+    @Test
+    public void primitiveFeeds() {
+        final List<Feed> feeds = Arrays.asList(
+                new DoubleFeed("T", 24.5, 1000L),
+                new LongFeed("C", 42L, 1000L),
+                new BooleanFeed("S", false, 1000L),
+                new DoubleVectorFeed("ACL", new double[]{0.5, 1.0, -2.0}, 1000L));
+
+        final String message = new String(encoder.encode(feeds), StandardCharsets.UTF_8);
+        assertEquals("[{\"utc\":1000,\"T\":24.5,\"C\":42,\"S\":false,\"ACL\":[0.5,1.0,-2.0]}]", message);
+    }
+
+    @Test
+    public void unregisteredReferencesAreNotRepeated() {
+        final List<Feed> feeds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            feeds.add(new Feed(FeedReference.lookup("unregistered" + i % 10), Collections.singletonList(i), 1000L));
+        }
+
+        final String message = new String(encoder.encode(feeds), StandardCharsets.UTF_8);
+        assertEquals(10, message.split("\"unregistered").length - 1);
+        assertTrue(message.contains("\"unregistered3\":3,"));
+    }
+
+    @Test
+    public void splitsBySize() {
+        final List<Feed> feeds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            feeds.add(new Feed("reference" + i, i, 1000L + i / 10));
+        }
+
+        final List<String> messages = new ArrayList<>();
+        encoder.encode(feeds, 200, message -> messages.add(new String(message, StandardCharsets.UTF_8)));
+
+        assertTrue(messages.size() > 1);
+        int references = 0;
+        for (String message : messages) {
+            assertTrue(message.length() <= 200);
+            references += message.split("\"reference").length - 1;
+        }
+        assertEquals(100, references);
+    }
+
+    @Test
+    public void estimateCoversSerializedValues() {
+        final List<Feed> feeds = Arrays.asList(
+                new Feed("D", new BigDecimal("12345678901234567890.12345678901234567890"), 1L),
+                new Feed("I", new BigInteger("123456789012345678901234567890123456789"), 1L),
+                new Feed("L", Collections.singletonMap("key", Arrays.asList("a", "b")), 1L));
+
+        for (Feed feed : feeds) {
+            // Everything but the "reference":value pair and its comma
+            final int written = encoder.encode(Collections.singletonList(feed)).length - "[{\"utc\":1}]".length();
+            assertTrue(feed.getReference(), FeedSizeEstimator.estimate(feed) >= written);
+        }
+
+        final List<byte[]> messages = new ArrayList<>();
+        encoder.encode(feeds, 120, messages::add);
+        assertTrue(messages.size() > 1);
+        for (byte[] message : messages) {
+            assertTrue(message.length <= 120);
+        }
+    }
+
+    @Test
+    public void feedLargerThanLimit() {
+        final List<String> messages = new ArrayList<>();
+        encoder.encode(Arrays.asList(new Feed("T", "some long text", 1L), new Feed("T", "text", 2L)), 10,
+                message -> messages.add(new String(message, StandardCharsets.UTF_8)));
+
+        assertEquals(Arrays.asList("[{\"utc\":1,\"T\":\"some long text\"}]", "[{\"utc\":2,\"T\":\"text\"}]"), messages);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021 WolkAbout Technology s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.wolkabout.wolk.util;
+
+import com.wolkabout.wolk.model.Feed;
+import com.wolkabout.wolk.model.Parameter;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadParserTest {
+
+    @Test
+    public void feedValuesAreStrings() {
+        final List<Feed> feeds = PayloadParser.parseFeeds(bytes(
+                "[{\"T\":24.50,\"utc\":1000,\"C\":42},{\"utc\":2000,\"S\":true,\"N\":\"text\",\"ACL\":[1,2.5,3]}]"));
+
+        assertEquals(5, feeds.size());
+        assertEquals("T", feeds.get(0).getReference());
+        assertEquals("24.5", feeds.get(0).getValue());
+        assertEquals(24.5, feeds.get(0).getNumericValue(), 0);
+        assertEquals(1000L, feeds.get(0).getUtc());
+        assertEquals("42", feeds.get(1).getValue());
+        assertEquals(1000L, feeds.get(1).getUtc());
+        assertEquals("true", feeds.get(2).getValue());
+        assertTrue(feeds.get(2).getBooleanValue());
+        assertEquals(2000L, feeds.get(2).getUtc());
+        assertEquals("text", feeds.get(3).getValue());
+        assertEquals(Collections.singletonList("[1, 2.5, 3]"), feeds.get(4).getValues());
+    }
+
+    @Test
+    public void feedWithoutTimestamp() {
+        final long before = System.currentTimeMillis();
+        final List<Feed> feeds = PayloadParser.parseFeeds(bytes("[{\"T\":\"value\"}]"));
+
+        assertEquals(1, feeds.size());
+        assertTrue(feeds.get(0).getUtc() >= before);
+    }
+
+    @Test
+    public void parameters() {
+        final List<Parameter> parameters = PayloadParser.parseParameters(bytes(
+                "{\"MAXIMUM_MESSAGE_SIZE\":128,\"FIRMWARE_UPDATE_REPOSITORY\":\"repo\",\"FIRMWARE_UPDATE_ENABLED\":false}"));
+
+        assertEquals(3, parameters.size());
+        assertEquals("MAXIMUM_MESSAGE_SIZE", parameters.get(0).getReference());
+        assertEquals(128, parameters.get(0).getValue());
+        assertEquals("repo", parameters.get(1).getValue());
+        assertEquals(false, parameters.get(2).getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void feedValuesMustBeArray() {
+        PayloadParser.parseFeeds(bytes("{\"T\":1}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedPayload() {
+        PayloadParser.parseParameters(bytes("{\"T\":"));
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+}